@@ -0,0 +1,75 @@
+package ru.skypro.homework.component;
+
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import ru.skypro.homework.model.AdvertListing;
+import ru.skypro.homework.repository.AdvertListingRepository;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Version of advert listings, which their ETag is built from.
+ * A transaction writing adverts increments it once, right before commit: readers never see
+ * a new version ahead of the adverts it stands for, and the row is locked only while committing.
+ * Version is the sum of {@link #STRIPES} counters and every transaction increments a random one,
+ * so concurrent writers rarely wait for each other's commit.
+ */
+@Component
+public class AdvertListingVersion {
+    /**
+     * Number of counter rows, inserted by Liquibase with ids from 1
+     */
+    public static final int STRIPES = 16;
+
+    private final AdvertListingRepository advertListingRepository;
+
+    public AdvertListingVersion(AdvertListingRepository advertListingRepository) {
+        this.advertListingRepository = advertListingRepository;
+    }
+
+    /**
+     * Mark listings changed by current transaction
+     */
+    public void changed() {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            throw new IllegalStateException("Adverts are written outside of transaction");
+        }
+        if (TransactionSynchronizationManager.hasResource(this)) {
+            return;
+        }
+        TransactionSynchronizationManager.bindResource(this, Boolean.TRUE);
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void beforeCommit(boolean readOnly) {
+                increment();
+            }
+
+            @Override
+            public void afterCompletion(int status) {
+                TransactionSynchronizationManager.unbindResourceIfPossible(AdvertListingVersion.this);
+            }
+        });
+    }
+
+    /**
+     * Current version, sum of all counters. Every committed change adds exactly one,
+     * so a version is never repeated for different listings.
+     *
+     * @return version
+     */
+    public long current() {
+        Long version = advertListingRepository.sumVersions();
+        return version == null ? 0 : version;
+    }
+
+    /**
+     * Rows are inserted by Liquibase, schema created by Hibernate gets them on first change
+     */
+    private void increment() {
+        int stripe = 1 + ThreadLocalRandom.current().nextInt(STRIPES);
+        if (advertListingRepository.increment(stripe) == 0) {
+            advertListingRepository.save(new AdvertListing(stripe, 1));
+        }
+    }
+}
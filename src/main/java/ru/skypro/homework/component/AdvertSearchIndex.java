@@ -0,0 +1,412 @@
+package ru.skypro.homework.component;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import ru.skypro.homework.model.Advert;
+import ru.skypro.homework.repository.AdvertRepository;
+import ru.skypro.homework.service.AdvertSearchMode;
+
+import java.util.*;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * In-memory inverted index over advert title and description.
+ * Every term maps to a sorted primitive list of advert ids, so matching never touches the database.
+ * Changes made inside a transaction are applied to the index after commit.
+ * Index is built at startup before the web server accepts requests.
+ */
+@Slf4j
+@Component
+public class AdvertSearchIndex implements SmartLifecycle {
+    private static final int REBUILD_BATCH_SIZE = 1000;
+    /**
+     * Start before the web server, which starts in the last lifecycle phases
+     */
+    private static final int PHASE = 0;
+
+    private final AdvertRepository advertRepository;
+    private final boolean enabled;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private Map<String, PostingList> postings = new HashMap<>();
+    /**
+     * Changes applied while index is rebuilt, replayed on the rebuilt index before it is swapped in
+     */
+    private List<Change> pending;
+    private volatile boolean running;
+
+    public AdvertSearchIndex(AdvertRepository advertRepository,
+                             @Value("${ads.search.mode}") AdvertSearchMode searchMode) {
+        this.advertRepository = advertRepository;
+        this.enabled = searchMode == AdvertSearchMode.INDEX;
+    }
+
+    @Override
+    public void start() {
+        rebuild();
+        running = true;
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    @Override
+    public int getPhase() {
+        return PHASE;
+    }
+
+    /**
+     * Rebuild index from {@link AdvertRepository}.
+     * Index stays searchable meanwhile, and changes committed during rebuild are replayed
+     * on the rebuilt index, so none of them is lost when it is swapped in.
+     */
+    public void rebuild() {
+        if (!enabled) {
+            return;
+        }
+        log.info("Rebuild advert search index");
+        lock.writeLock().lock();
+        try {
+            pending = new ArrayList<>();
+        } finally {
+            lock.writeLock().unlock();
+        }
+        Map<String, PostingList> newPostings = new HashMap<>();
+        int count = 0;
+        try {
+            int lastId = 0;
+            List<Advert> batch;
+            do {
+                batch = advertRepository.findByIdGreaterThanOrderByIdAsc(lastId,
+                        PageRequest.of(0, REBUILD_BATCH_SIZE));
+                for (Advert advert : batch) {
+                    addTo(newPostings, tokenize(advert.getTitle(), advert.getDescription()), advert.getId());
+                    lastId = advert.getId();
+                }
+                count += batch.size();
+            } while (batch.size() == REBUILD_BATCH_SIZE);
+            lock.writeLock().lock();
+            try {
+                for (Change change : pending) {
+                    change.applyTo(newPostings);
+                }
+                postings = newPostings;
+            } finally {
+                lock.writeLock().unlock();
+            }
+        } finally {
+            lock.writeLock().lock();
+            try {
+                pending = null;
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+        log.info("Advert search index rebuilt with " + count + " adverts");
+    }
+
+    /**
+     * Add new advert to index
+     *
+     * @param advert {@link Advert}
+     */
+    public void add(Advert advert) {
+        if (!enabled) {
+            return;
+        }
+        Document document = document(advert);
+        afterCommit(() -> apply(null, document));
+    }
+
+    /**
+     * Snapshot of indexed terms of advert, taken before it is changed
+     *
+     * @param advert {@link Advert}
+     * @return {@link Document}
+     */
+    public Document document(Advert advert) {
+        return new Document(advert.getId(), tokenize(advert.getTitle(), advert.getDescription()));
+    }
+
+    /**
+     * Replace terms of advert taken before change with its current terms
+     *
+     * @param before {@link Document} taken before change
+     * @param advert changed {@link Advert}
+     */
+    public void update(Document before, Advert advert) {
+        if (!enabled) {
+            return;
+        }
+        Document after = document(advert);
+        afterCommit(() -> apply(before, after));
+    }
+
+    /**
+     * Remove advert from index
+     *
+     * @param advert {@link Advert}
+     */
+    public void remove(Advert advert) {
+        if (!enabled) {
+            return;
+        }
+        Document document = document(advert);
+        afterCommit(() -> apply(document, null));
+    }
+
+    /**
+     * Find adverts which contain all terms of query, the newest adverts first.
+     * Posting lists are walked from the end and only until the requested page is filled.
+     *
+     * @param query  search query
+     * @param offset number of matched adverts to skip
+     * @param limit  max number of advert ids to return
+     * @return advert ids
+     */
+    public int[] search(String query, int offset, int limit) {
+        Set<String> terms = tokenize(query);
+        if (terms.isEmpty() || limit <= 0) {
+            return new int[0];
+        }
+        lock.readLock().lock();
+        try {
+            PostingList[] lists = new PostingList[terms.size()];
+            int i = 0;
+            for (String term : terms) {
+                PostingList list = postings.get(term);
+                if (list == null) {
+                    return new int[0];
+                }
+                lists[i++] = list;
+            }
+            Arrays.sort(lists, Comparator.comparingInt(list -> list.size));
+            int skip = Math.max(offset, 0);
+            int wanted = (int) Math.min((long) skip + limit, lists[0].size);
+            int[] found = new int[wanted];
+            int count = collect(lists, found);
+            return skip < count ? Arrays.copyOfRange(found, skip, count) : new int[0];
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Number of distinct indexed terms
+     *
+     * @return terms count
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return postings.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void apply(Document before, Document after) {
+        Change change = new Change(before, after);
+        lock.writeLock().lock();
+        try {
+            change.applyTo(postings);
+            if (pending != null) {
+                pending.add(change);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private static void addTo(Map<String, PostingList> index, Set<String> terms, int id) {
+        for (String term : terms) {
+            index.computeIfAbsent(term, t -> new PostingList()).add(id);
+        }
+    }
+
+    private static void removeFrom(Map<String, PostingList> index, Set<String> terms, int id) {
+        for (String term : terms) {
+            PostingList list = index.get(term);
+            if (list != null && list.remove(id) && list.size == 0) {
+                index.remove(term);
+            }
+        }
+    }
+
+    /**
+     * Fill {@code found} with ids present in all lists, walking from the largest id down.
+     * The first list must be the shortest one.
+     *
+     * @return number of collected ids
+     */
+    private static int collect(PostingList[] lists, int[] found) {
+        int[] upper = new int[lists.length];
+        for (int j = 1; j < lists.length; j++) {
+            upper[j] = lists[j].size;
+        }
+        int count = 0;
+        PostingList shortest = lists[0];
+        candidates:
+        for (int i = shortest.size - 1; i >= 0 && count < found.length; i--) {
+            int id = shortest.ids[i];
+            for (int j = 1; j < lists.length; j++) {
+                upper[j] = countNotGreater(lists[j], upper[j], id);
+                if (upper[j] == 0) {
+                    break candidates;
+                }
+                if (lists[j].ids[upper[j] - 1] != id) {
+                    continue candidates;
+                }
+            }
+            found[count++] = id;
+        }
+        return count;
+    }
+
+    /**
+     * Number of ids not greater than {@code id} among first {@code upper} ids of list.
+     * Gallops down from {@code upper}, so walking a list in descending order costs
+     * logarithm of the gap between consecutive matches.
+     */
+    private static int countNotGreater(PostingList list, int upper, int id) {
+        int[] ids = list.ids;
+        if (upper == 0 || ids[upper - 1] <= id) {
+            return upper;
+        }
+        int greater = upper - 1;
+        int step = 1;
+        while (greater - step >= 0 && ids[greater - step] > id) {
+            greater -= step;
+            step <<= 1;
+        }
+        int position = Arrays.binarySearch(ids, Math.max(0, greater - step), greater, id);
+        return position >= 0 ? position + 1 : -position - 1;
+    }
+
+    /**
+     * Split text into distinct lower case terms of letters and digits
+     *
+     * @param texts texts, null values are skipped
+     * @return terms
+     */
+    public static Set<String> tokenize(String... texts) {
+        Set<String> terms = new HashSet<>();
+        for (String text : texts) {
+            if (text == null) {
+                continue;
+            }
+            int start = -1;
+            for (int i = 0; i <= text.length(); i++) {
+                boolean isTermChar = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+                if (isTermChar && start < 0) {
+                    start = i;
+                } else if (!isTermChar && start >= 0) {
+                    terms.add(text.substring(start, i).toLowerCase(Locale.ROOT));
+                    start = -1;
+                }
+            }
+        }
+        return terms;
+    }
+
+    private static void afterCommit(Runnable action) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            action.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                action.run();
+            }
+        });
+    }
+
+    /**
+     * Indexed terms of one advert
+     */
+    public static final class Document {
+        private final int id;
+        private final Set<String> terms;
+
+        private Document(int id, Set<String> terms) {
+            this.id = id;
+            this.terms = terms;
+        }
+    }
+
+    /**
+     * Terms of advert replaced by a committed change, either of documents may be null
+     */
+    private static final class Change {
+        private final Document before;
+        private final Document after;
+
+        private Change(Document before, Document after) {
+            this.before = before;
+            this.after = after;
+        }
+
+        private void applyTo(Map<String, PostingList> index) {
+            if (before != null) {
+                removeFrom(index, before.terms, before.id);
+            }
+            if (after != null) {
+                addTo(index, after.terms, after.id);
+            }
+        }
+    }
+
+    /**
+     * Sorted list of advert ids backed by primitive array
+     */
+    private static final class PostingList {
+        private int[] ids = new int[4];
+        private int size;
+
+        private void add(int id) {
+            if (size > 0 && ids[size - 1] < id) {
+                ensureCapacity();
+                ids[size++] = id;
+                return;
+            }
+            int position = Arrays.binarySearch(ids, 0, size, id);
+            if (position >= 0) {
+                return;
+            }
+            int insertAt = -position - 1;
+            ensureCapacity();
+            System.arraycopy(ids, insertAt, ids, insertAt + 1, size - insertAt);
+            ids[insertAt] = id;
+            size++;
+        }
+
+        private boolean remove(int id) {
+            int position = Arrays.binarySearch(ids, 0, size, id);
+            if (position < 0) {
+                return false;
+            }
+            System.arraycopy(ids, position + 1, ids, position, size - position - 1);
+            size--;
+            return true;
+        }
+
+        private void ensureCapacity() {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, ids.length + (ids.length >> 1) + 1);
+            }
+        }
+    }
+}
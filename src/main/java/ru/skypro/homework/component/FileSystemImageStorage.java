@@ -0,0 +1,128 @@
+package ru.skypro.homework.component;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Image files on local disk, location is the file path
+ */
+@Component
+@ConditionalOnProperty(name = "ads.images.storage.backend", havingValue = "filesystem", matchIfMissing = true)
+public class FileSystemImageStorage implements ImageStorage {
+    /**
+     * File is moved atomically, so readers see either previous or new content.
+     * Source from another file system is copied next to target first.
+     */
+    @Override
+    public void put(Path location, Path source) throws IOException {
+        Files.createDirectories(location.getParent());
+        try {
+            Files.move(source, location, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException exception) {
+            Path temp = Files.createTempFile(location.getParent(), "put-", ".part");
+            try {
+                Files.copy(source, temp, StandardCopyOption.REPLACE_EXISTING);
+                Files.move(temp, location, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+        }
+    }
+
+    /**
+     * Local move is cheap, so it is done in calling thread
+     */
+    @Override
+    public CompletableFuture<Void> putAsync(Path location, Path source) {
+        try {
+            put(location, source);
+            return CompletableFuture.completedFuture(null);
+        } catch (IOException exception) {
+            return CompletableFuture.failedFuture(exception);
+        }
+    }
+
+    @Override
+    public ReadableByteChannel open(Path location, long start, long end) throws IOException {
+        FileChannel channel = FileChannel.open(location, StandardOpenOption.READ);
+        if (end == Long.MAX_VALUE) {
+            return channel.position(start);
+        }
+        return new RangeChannel(channel.position(start), end - start);
+    }
+
+    @Override
+    public long size(Path location) throws IOException {
+        return Files.size(location);
+    }
+
+    @Override
+    public boolean exists(Path location) {
+        return Files.exists(location);
+    }
+
+    @Override
+    public void delete(Path location) throws IOException {
+        Files.deleteIfExists(location);
+    }
+
+    @Override
+    public Optional<Path> localFile(Path location) {
+        return Optional.of(location);
+    }
+
+    /**
+     * File channel which ends after given number of bytes
+     */
+    private static final class RangeChannel implements ReadableByteChannel {
+        private final FileChannel channel;
+        private long remaining;
+
+        private RangeChannel(FileChannel channel, long remaining) {
+            this.channel = channel;
+            this.remaining = remaining;
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int limit = dst.limit();
+            if (dst.remaining() > remaining) {
+                dst.limit(dst.position() + (int) remaining);
+            }
+            try {
+                int read = channel.read(dst);
+                if (read > 0) {
+                    remaining -= read;
+                }
+                return read;
+            } finally {
+                dst.limit(limit);
+            }
+        }
+
+        @Override
+        public boolean isOpen() {
+            return channel.isOpen();
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+}
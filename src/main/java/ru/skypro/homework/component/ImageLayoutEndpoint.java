@@ -0,0 +1,44 @@
+package ru.skypro.homework.component;
+
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+import org.springframework.stereotype.Component;
+import ru.skypro.homework.service.ImageLayoutMigrator;
+
+import java.util.Map;
+
+/**
+ * Admin endpoint {@code /actuator/imagelayout} for moving image files to the configured directory layout
+ */
+@Component
+@Endpoint(id = "imagelayout")
+public class ImageLayoutEndpoint {
+    private final ImageLayoutMigrator imageLayoutMigrator;
+
+    public ImageLayoutEndpoint(ImageLayoutMigrator imageLayoutMigrator) {
+        this.imageLayoutMigrator = imageLayoutMigrator;
+    }
+
+    /**
+     * Count images left in old layout
+     *
+     * @return remaining images
+     */
+    @ReadOperation
+    public Map<String, Long> remaining() {
+        return Map.of("remaining", imageLayoutMigrator.remaining());
+    }
+
+    /**
+     * Start migration in background
+     *
+     * @return remaining images at start
+     */
+    @WriteOperation
+    public Map<String, Long> migrate() {
+        long remaining = imageLayoutMigrator.remaining();
+        imageLayoutMigrator.migrate();
+        return Map.of("remaining", remaining);
+    }
+}
@@ -0,0 +1,134 @@
+package ru.skypro.homework.component;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Memory tier for small hot image files, kept in direct buffers outside of the Java heap.
+ * Cache is bounded by {@code ads.images.memory-cache.max-bytes} of file content and evicts by
+ * Caffeine's frequency aware policy, so a burst of one-off requests does not push out popular images.
+ * Zero budget disables the tier.
+ */
+@Component
+public class ImageMemoryCache {
+    static final String METRIC_PREFIX = "ads.images.memory";
+
+    private final long maxFileSize;
+    private final ImageStorage imageStorage;
+    private final Cache<Path, ByteBuffer> cache;
+    private final Counter servedBytes;
+    /**
+     * Incremented by every eviction, so a load racing with it does not keep stale content
+     */
+    private final AtomicLong evictions = new AtomicLong();
+
+    public ImageMemoryCache(@Value("${ads.images.memory-cache.max-bytes}") DataSize maxBytes,
+                            @Value("${ads.images.memory-cache.max-file-size}") DataSize maxFileSize,
+                            MeterRegistry meterRegistry,
+                            ImageStorage imageStorage) {
+        this.imageStorage = imageStorage;
+        this.maxFileSize = Math.min(maxFileSize.toBytes(), maxBytes.toBytes());
+        this.cache = maxBytes.toBytes() <= 0 ? null : Caffeine.newBuilder()
+                .maximumWeight(maxBytes.toBytes())
+                .<Path, ByteBuffer>weigher((path, content) -> content.capacity())
+                .recordStats()
+                .build();
+        this.servedBytes = Counter.builder(METRIC_PREFIX + ".served")
+                .baseUnit("bytes")
+                .description("Image bytes served from memory")
+                .register(meterRegistry);
+        if (cache != null) {
+            Gauge.builder(METRIC_PREFIX + ".hit.ratio", cache, c -> c.stats().hitRate())
+                    .description("Share of image requests served from memory")
+                    .register(meterRegistry);
+            Gauge.builder(METRIC_PREFIX + ".size", cache, c -> c.policy().eviction()
+                            .map(eviction -> eviction.weightedSize().orElse(0L)).orElse(0L))
+                    .baseUnit("bytes")
+                    .description("Image bytes held in memory")
+                    .register(meterRegistry);
+        }
+    }
+
+    /**
+     * Find content of file in memory
+     *
+     * @param path file path
+     * @return read only buffer with whole file, null on miss
+     */
+    public ByteBuffer get(Path path) {
+        if (cache == null) {
+            return null;
+        }
+        ByteBuffer content = cache.getIfPresent(key(path));
+        return content == null ? null : content.duplicate();
+    }
+
+    /**
+     * Read file from {@link ImageStorage} into memory when it is small enough
+     *
+     * @param path   file path
+     * @param length file size
+     * @return read only buffer with whole file, null when file is not kept in memory
+     */
+    public ByteBuffer load(Path path, long length) throws IOException {
+        if (cache == null || length > maxFileSize) {
+            return null;
+        }
+        Path key = key(path);
+        long seen = evictions.get();
+        ByteBuffer content = ByteBuffer.allocateDirect((int) length);
+        try (ReadableByteChannel channel = imageStorage.open(path, 0, length)) {
+            while (content.hasRemaining() && channel.read(content) >= 0) {
+                // read until buffer is full
+            }
+        }
+        if (content.hasRemaining()) {
+            // file was replaced by a shorter one while reading
+            return null;
+        }
+        content = content.flip().asReadOnlyBuffer();
+        cache.put(key, content);
+        if (evictions.get() != seen) {
+            cache.invalidate(key);
+        }
+        return content.duplicate();
+    }
+
+    /**
+     * Drop file from memory, called whenever file is replaced or deleted
+     *
+     * @param path file path
+     */
+    public void evict(Path path) {
+        if (cache == null) {
+            return;
+        }
+        evictions.incrementAndGet();
+        cache.invalidate(key(path));
+    }
+
+    /**
+     * Count bytes sent to client from memory
+     *
+     * @param bytes number of bytes
+     */
+    public void served(long bytes) {
+        servedBytes.increment(bytes);
+    }
+
+    private static Path key(Path path) {
+        return path.toAbsolutePath().normalize();
+    }
+}
@@ -0,0 +1,218 @@
+package ru.skypro.homework.component;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.ServletWebRequest;
+import ru.skypro.homework.exception.ImageDownloadException;
+import ru.skypro.homework.model.Image;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Optional;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Writes image file to response with support of single byte range.
+ * When the connector supports sendfile and {@link ImageStorage} is local, file is handed over to Tomcat,
+ * which sends it from the kernel page cache without copying bytes through the Java heap.
+ * Requests for the current version of image, see {@link Image#versionedUrl}, may be cached forever,
+ * as a new image always gets a new url.
+ * A resized variant is sent instead of original when {@code size} is requested and the variant is ready.
+ * Small hot files are sent from {@link ImageMemoryCache} without touching the file system.
+ */
+@Component
+public class ImageResponseWriter {
+    static final String SENDFILE_SUPPORT = "org.apache.tomcat.sendfile.support";
+    static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+    static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+    static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+    static final String IMMUTABLE = "max-age=31536000, immutable";
+    private static final Pattern RANGE = Pattern.compile("^bytes=(\\d*)-(\\d*)$");
+
+    private final ImageVariants imageVariants;
+    private final ImageMemoryCache imageMemoryCache;
+    private final ImageStorage imageStorage;
+
+    public ImageResponseWriter(ImageVariants imageVariants,
+                               ImageMemoryCache imageMemoryCache,
+                               ImageStorage imageStorage) {
+        this.imageVariants = imageVariants;
+        this.imageMemoryCache = imageMemoryCache;
+        this.imageStorage = imageStorage;
+    }
+
+    /**
+     * Write whole image or range requested by {@code Range} header.
+     * Malformed and multiple ranges are ignored and whole image is sent.
+     *
+     * @param image    {@link Image}
+     * @param size     requested width, null for original
+     * @param shared   whether image may be stored by shared caches
+     * @param request  request
+     * @param response response
+     */
+    public void write(Image image, Integer size, boolean shared,
+                      HttpServletRequest request, HttpServletResponse response) {
+        Integer width = imageVariants.select(image, size);
+        String hash = image.getContentHash();
+        if (hash == null) {
+            response.setHeader(HttpHeaders.CACHE_CONTROL, "no-cache");
+        } else {
+            // original sent in place of a variant that is not ready yet must not be cached for good
+            boolean current = hash.substring(0, Image.VERSION_LENGTH)
+                    .equals(request.getParameter(Image.VERSION_PARAM)) && (size == null || width != null);
+            response.setHeader(HttpHeaders.CACHE_CONTROL,
+                    current ? (shared ? "public, " : "private, ") + IMMUTABLE : "no-cache");
+            String eTag = "\"" + hash + (width == null ? "" : "_" + width) + "\"";
+            if (new ServletWebRequest(request, response).checkNotModified(eTag)) {
+                return;
+            }
+        }
+        Path original = image.getFilePath();
+        Path path = width == null ? original : Image.variantPath(original, width);
+        ByteBuffer content = imageMemoryCache.get(path);
+        try {
+            long length;
+            if (content != null) {
+                length = content.remaining();
+            } else {
+                try {
+                    length = imageStorage.size(path);
+                } catch (NoSuchFileException exception) {
+                    // row was read before its file was moved to the other layout, see ImageLayoutMigrator
+                    original = image.getFilePath(!image.isSharded());
+                    path = width == null ? original : Image.variantPath(original, width);
+                    length = imageStorage.size(path);
+                }
+            }
+            long start = 0;
+            long end = length;
+            response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+            String rangeHeader = request.getHeader(HttpHeaders.RANGE);
+            if (rangeHeader != null) {
+                ByteRange range = ByteRange.parse(rangeHeader, length);
+                if (range == ByteRange.UNSATISFIABLE) {
+                    response.setStatus(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE.value());
+                    response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + length);
+                    return;
+                }
+                if (range != null) {
+                    start = range.start;
+                    end = range.end;
+                    response.setStatus(HttpStatus.PARTIAL_CONTENT.value());
+                    response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + (end - 1) + "/" + length);
+                }
+            }
+            response.setContentType(width == null ? image.getFileType() : image.getVariantType());
+            response.setContentLengthLong(end - start);
+            if (HttpMethod.HEAD.matches(request.getMethod()) || start == end) {
+                return;
+            }
+            if (content == null) {
+                content = imageMemoryCache.load(path, length);
+            }
+            if (content != null) {
+                content.position((int) start).limit((int) end);
+                Channels.newChannel(response.getOutputStream()).write(content);
+                imageMemoryCache.served(end - start);
+                return;
+            }
+            Optional<Path> local = imageStorage.localFile(path);
+            if (local.isPresent() && Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT))) {
+                request.setAttribute(SENDFILE_FILENAME, local.get().toAbsolutePath().toString());
+                request.setAttribute(SENDFILE_START, start);
+                request.setAttribute(SENDFILE_END, end);
+                return;
+            }
+            transfer(path, start, end, response);
+        } catch (IOException exception) {
+            throw new ImageDownloadException(exception.getMessage());
+        }
+    }
+
+    /**
+     * Fallback for connectors without sendfile and for remote storage
+     */
+    private void transfer(Path path, long start, long end, HttpServletResponse response) throws IOException {
+        Optional<Path> local = imageStorage.localFile(path);
+        if (local.isEmpty()) {
+            try (InputStream in = Channels.newInputStream(imageStorage.open(path, start, end))) {
+                in.transferTo(response.getOutputStream());
+            }
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(local.get(), StandardOpenOption.READ)) {
+            WritableByteChannel out = Channels.newChannel(response.getOutputStream());
+            long position = start;
+            while (position < end) {
+                position += channel.transferTo(position, end - position, out);
+            }
+        }
+    }
+
+    /**
+     * Satisfiable byte range, end is exclusive
+     */
+    static final class ByteRange {
+        static final ByteRange UNSATISFIABLE = new ByteRange(0, 0);
+
+        final long start;
+        final long end;
+
+        private ByteRange(long start, long end) {
+            this.start = start;
+            this.end = end;
+        }
+
+        /**
+         * Parse single range of {@code Range} header
+         *
+         * @param header header value
+         * @param size   file size
+         * @return range, {@link #UNSATISFIABLE} or null when header must be ignored
+         */
+        static ByteRange parse(String header, long size) {
+            Matcher matcher = RANGE.matcher(header.trim());
+            if (!matcher.matches()) {
+                return null;
+            }
+            String first = matcher.group(1);
+            String last = matcher.group(2);
+            try {
+                if (first.isEmpty()) {
+                    if (last.isEmpty()) {
+                        return null;
+                    }
+                    long suffix = Long.parseLong(last);
+                    if (suffix == 0 || size == 0) {
+                        return UNSATISFIABLE;
+                    }
+                    return new ByteRange(Math.max(0, size - suffix), size);
+                }
+                long start = Long.parseLong(first);
+                long end = last.isEmpty() ? Long.MAX_VALUE : Long.parseLong(last) + 1;
+                if (end <= start) {
+                    return null;
+                }
+                if (start >= size) {
+                    return UNSATISFIABLE;
+                }
+                return new ByteRange(start, Math.min(end, size));
+            } catch (NumberFormatException exception) {
+                return null;
+            }
+        }
+    }
+}
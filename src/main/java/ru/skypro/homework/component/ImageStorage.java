@@ -0,0 +1,80 @@
+package ru.skypro.homework.component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Path;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Storage of image files. Files are addressed by their location, see {@link ru.skypro.homework.model.Image#getFilePath()},
+ * which is a path on local disk for {@link FileSystemImageStorage} and an object key for {@link S3ImageStorage}.
+ * Missing files are reported by {@link java.nio.file.NoSuchFileException} in both.
+ */
+public interface ImageStorage {
+    /**
+     * Store content of local file, replacing previous content
+     *
+     * @param location file location
+     * @param source   local file, may be moved into storage
+     */
+    void put(Path location, Path source) throws IOException;
+
+    /**
+     * Store content of local file in background
+     *
+     * @param location file location
+     * @param source   local file, may be moved into storage
+     * @return completion of upload
+     */
+    CompletableFuture<Void> putAsync(Path location, Path source);
+
+    /**
+     * Read range of file
+     *
+     * @param location file location
+     * @param start    first byte
+     * @param end      byte after the last one, {@link Long#MAX_VALUE} for the end of file
+     * @return channel of range content
+     */
+    ReadableByteChannel open(Path location, long start, long end) throws IOException;
+
+    /**
+     * Read whole file
+     *
+     * @param location file location
+     * @return stream of file content
+     */
+    default InputStream get(Path location) throws IOException {
+        return Channels.newInputStream(open(location, 0, Long.MAX_VALUE));
+    }
+
+    /**
+     * File size
+     *
+     * @param location file location
+     * @return size in bytes
+     */
+    long size(Path location) throws IOException;
+
+    boolean exists(Path location) throws IOException;
+
+    /**
+     * Delete file if it exists
+     *
+     * @param location file location
+     */
+    void delete(Path location) throws IOException;
+
+    /**
+     * File on local disk backing location, which may be sent with sendfile or linked
+     *
+     * @param location file location
+     * @return local path, empty when storage is remote
+     */
+    default Optional<Path> localFile(Path location) {
+        return Optional.empty();
+    }
+}
@@ -0,0 +1,204 @@
+package ru.skypro.homework.component;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import ru.skypro.homework.configuration.ImageConfig;
+import ru.skypro.homework.model.Image;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.stream.Collectors;
+
+/**
+ * Fixed width variants of images, generated with ImageIO on a bounded background pool.
+ * Variants are stored in {@link ImageStorage} next to the original file, see {@link Image#getVariantPath}.
+ */
+@Slf4j
+@Component
+public class ImageVariants {
+    private final List<Integer> widths;
+    private final ExecutorService variantExecutor;
+    private final ImageStorage imageStorage;
+    private final Set<Path> pending = ConcurrentHashMap.newKeySet();
+
+    public ImageVariants(@Value("${ads.images.variant-widths}") List<Integer> widths,
+                         @Qualifier(ImageConfig.VARIANT_EXECUTOR) ExecutorService variantExecutor,
+                         ImageStorage imageStorage) {
+        this.widths = widths.stream().sorted().collect(Collectors.toUnmodifiableList());
+        this.variantExecutor = variantExecutor;
+        this.imageStorage = imageStorage;
+    }
+
+    /**
+     * Schedule generation of missing variants of image
+     *
+     * @param image {@link Image} with stored file
+     * @return future of generation, null if it is already pending or the pool is full
+     */
+    public Future<?> schedule(Image image) {
+        Path original = image.getFilePath();
+        String format = image.getVariantType().equals("image/jpeg") ? "jpg" : "png";
+        if (!pending.add(original)) {
+            return null;
+        }
+        try {
+            return variantExecutor.submit(() -> {
+                try {
+                    generate(original, format);
+                } finally {
+                    pending.remove(original);
+                }
+            });
+        } catch (RejectedExecutionException exception) {
+            pending.remove(original);
+            return null;
+        }
+    }
+
+    /**
+     * Find ready variant for requested size: the narrowest one not narrower than size, or the widest.
+     * A missing variant is scheduled for generation.
+     *
+     * @param image {@link Image}
+     * @param size  requested width, may be null
+     * @return variant width, null when original has to be served
+     */
+    public Integer select(Image image, Integer size) {
+        if (size == null || widths.isEmpty()) {
+            return null;
+        }
+        int width = widths.stream().filter(w -> w >= size).findFirst().orElse(widths.get(widths.size() - 1));
+        if (exists(image.getVariantPath(width))) {
+            return width;
+        }
+        schedule(image);
+        return null;
+    }
+
+    /**
+     * Paths of all variants of file, for removal together with it
+     *
+     * @param original original file
+     * @return variant paths
+     */
+    public List<Path> paths(Path original) {
+        return widths.stream().map(width -> Image.variantPath(original, width)).collect(Collectors.toList());
+    }
+
+    private void generate(Path original, String format) {
+        try {
+            int sourceWidth = readWidth(original);
+            List<Integer> missing = widths.stream()
+                    .filter(width -> width < sourceWidth)
+                    .filter(width -> !exists(Image.variantPath(original, width)))
+                    .collect(Collectors.toList());
+            if (missing.isEmpty()) {
+                return;
+            }
+            BufferedImage source;
+            try (InputStream in = imageStorage.get(original)) {
+                source = ImageIO.read(in);
+            }
+            for (int width : missing) {
+                write(resize(source, width, format.equals("png")), format, Image.variantPath(original, width));
+            }
+        } catch (IOException | RuntimeException exception) {
+            log.error("Variants of " + original + " not generated: " + exception.getMessage());
+        }
+    }
+
+    /**
+     * Read width from image header without decoding pixels
+     *
+     * @return width, 0 when format is not supported
+     */
+    private int readWidth(Path original) throws IOException {
+        try (InputStream stream = imageStorage.get(original);
+             ImageInputStream in = ImageIO.createImageInputStream(stream)) {
+            Iterator<ImageReader> readers = in == null ? Collections.emptyIterator() : ImageIO.getImageReaders(in);
+            if (!readers.hasNext()) {
+                return 0;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(in, true, true);
+                return reader.getWidth(0);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * Halve size step by step before the last bilinear pass, which keeps quality close to area averaging
+     */
+    private BufferedImage resize(BufferedImage source, int width, boolean alpha) {
+        int height = Math.max(1, (int) Math.round((double) source.getHeight() * width / source.getWidth()));
+        BufferedImage current = source;
+        int currentWidth = source.getWidth();
+        int currentHeight = source.getHeight();
+        do {
+            currentWidth = Math.max(width, currentWidth / 2);
+            currentHeight = Math.max(height, currentHeight / 2);
+            BufferedImage next = new BufferedImage(currentWidth, currentHeight,
+                    alpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+            Graphics2D graphics = next.createGraphics();
+            try {
+                graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+                graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+                graphics.drawImage(current, 0, 0, currentWidth, currentHeight, null);
+            } finally {
+                graphics.dispose();
+            }
+            current = next;
+        } while (currentWidth != width || currentHeight != height);
+        return current;
+    }
+
+    private boolean exists(Path path) {
+        try {
+            return imageStorage.exists(path);
+        } catch (IOException exception) {
+            log.error(exception.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Write to temporary file first, so a half written variant is never served.
+     * Temporary file is created next to variant when storage is local, so it is moved without copying.
+     */
+    private void write(BufferedImage image, String format, Path path) throws IOException {
+        Optional<Path> local = imageStorage.localFile(path);
+        Path temp = local.isPresent()
+                ? Files.createTempFile(local.get().getParent(), "variant-", ".part")
+                : Files.createTempFile("variant-", ".part");
+        try {
+            if (!ImageIO.write(image, format, temp.toFile())) {
+                throw new IOException("No writer for " + format);
+            }
+            imageStorage.put(path, temp);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package ru.skypro.homework.component;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.stereotype.Component;
+import ru.skypro.homework.exception.ResponseWriteException;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Iterator;
+import java.util.stream.Stream;
+
+/**
+ * Writes stream of dto as response wrapper {@code {"results": [...], "count": n}}
+ * element by element, so memory use does not depend on number of elements
+ */
+@Component
+public class JsonStreamWriter {
+    private final ObjectMapper objectMapper;
+
+    public JsonStreamWriter(ObjectMapper objectMapper) {
+        this.objectMapper = objectMapper;
+    }
+
+    /**
+     * Write elements as response wrapper
+     *
+     * @param out      response output stream
+     * @param elements dto stream
+     * @return number of written elements
+     */
+    public int writeWrapper(OutputStream out, Stream<?> elements) {
+        int count = 0;
+        try (JsonGenerator generator = objectMapper.getFactory().createGenerator(out)) {
+            generator.writeStartObject();
+            generator.writeArrayFieldStart("results");
+            Iterator<?> iterator = elements.iterator();
+            while (iterator.hasNext()) {
+                generator.writeObject(iterator.next());
+                count++;
+            }
+            generator.writeEndArray();
+            generator.writeNumberField("count", count);
+            generator.writeEndObject();
+        } catch (IOException exception) {
+            throw new ResponseWriteException(exception.getMessage());
+        }
+        return count;
+    }
+}
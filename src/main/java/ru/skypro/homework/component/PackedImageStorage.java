@@ -0,0 +1,435 @@
+package ru.skypro.homework.component;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+/**
+ * Small image files packed into append-only segment files under {@code path.to.packed.folder},
+ * so a small avatar costs neither an inode nor a file open.
+ * A segment is a sequence of records: checksum, key length, content length ({@code -1} for deleted),
+ * key and content, key being the location. Segments are memory mapped once and content is served
+ * by slicing the mapping. Index of location to segment, offset and length is kept in memory and
+ * rebuilt by reading segments on start; a record half written by a crash fails its checksum and ends its segment.
+ * Writing calls return once their record is forced to disk, so neither a process nor a machine crash loses it.
+ * Files larger than {@code ads.images.packed.max-entry-size} are kept on local disk as by {@link FileSystemImageStorage}.
+ * A segment whose dead records reach {@code ads.images.packed.compaction-ratio} of it is compacted:
+ * its live records are copied to the last segment and its file is deleted.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "ads.images.storage.backend", havingValue = "packed")
+public class PackedImageStorage implements ImageStorage {
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final Pattern SEGMENT_NAME = Pattern.compile("\\d{10}\\" + SEGMENT_SUFFIX);
+    private static final int HEADER_SIZE = 12;
+    private static final int MAX_KEY_SIZE = 1024;
+    private static final int DELETED = -1;
+
+    private final Path dir;
+    private final int segmentSize;
+    private final int maxEntrySize;
+    private final double compactionRatio;
+    private final FileSystemImageStorage files = new FileSystemImageStorage();
+    private final Map<String, Entry> index = new ConcurrentHashMap<>();
+    /**
+     * Segments by id, guarded by this storage like everything written to them
+     */
+    private final TreeMap<Integer, Segment> segments = new TreeMap<>();
+    private Segment active;
+
+    public PackedImageStorage(@Value("${path.to.packed.folder}") String dir,
+                              @Value("${ads.images.packed.segment-size}") DataSize segmentSize,
+                              @Value("${ads.images.packed.max-entry-size}") DataSize maxEntrySize,
+                              @Value("${ads.images.packed.compaction-ratio}") double compactionRatio) throws IOException {
+        this.dir = Path.of(dir);
+        this.segmentSize = (int) Math.min(segmentSize.toBytes(), Integer.MAX_VALUE);
+        this.maxEntrySize = (int) Math.min(maxEntrySize.toBytes(), Integer.MAX_VALUE);
+        if ((long) this.maxEntrySize + HEADER_SIZE + MAX_KEY_SIZE > this.segmentSize) {
+            throw new IllegalArgumentException("Segment of " + segmentSize + " does not fit entry of " + maxEntrySize);
+        }
+        this.compactionRatio = compactionRatio;
+        load();
+    }
+
+    /**
+     * Small file is appended to the last segment, larger one is moved to local disk.
+     * Segment is forced outside of the lock, so concurrent writers share the disk flush.
+     */
+    @Override
+    public void put(Path location, Path source) throws IOException {
+        String key = key(location);
+        if (Files.size(source) > maxEntrySize) {
+            files.put(location, source);
+            remove(key);
+            return;
+        }
+        ByteBuffer content = ByteBuffer.wrap(Files.readAllBytes(source));
+        Entry entry;
+        synchronized (this) {
+            entry = append(key, content);
+            apply(key, entry);
+        }
+        entry.segment.buffer.force();
+        files.delete(location);
+    }
+
+    /**
+     * Appending is a memory copy and a flush of a few pages, so it is done in calling thread
+     */
+    @Override
+    public CompletableFuture<Void> putAsync(Path location, Path source) {
+        try {
+            put(location, source);
+            return CompletableFuture.completedFuture(null);
+        } catch (IOException exception) {
+            return CompletableFuture.failedFuture(exception);
+        }
+    }
+
+    @Override
+    public ReadableByteChannel open(Path location, long start, long end) throws IOException {
+        Entry entry = index.get(key(location));
+        if (entry == null) {
+            return files.open(location, start, end);
+        }
+        return new BufferChannel(entry.slice(start, end));
+    }
+
+    @Override
+    public long size(Path location) throws IOException {
+        Entry entry = index.get(key(location));
+        return entry == null ? files.size(location) : entry.length;
+    }
+
+    @Override
+    public boolean exists(Path location) {
+        return index.containsKey(key(location)) || files.exists(location);
+    }
+
+    @Override
+    public void delete(Path location) throws IOException {
+        remove(key(location));
+        files.delete(location);
+    }
+
+    /**
+     * Packed file has no path of its own, while file kept on local disk or its directory does
+     */
+    @Override
+    public Optional<Path> localFile(Path location) {
+        if (index.containsKey(key(location)) || !Files.exists(location)) {
+            return Optional.empty();
+        }
+        return Optional.of(location);
+    }
+
+    /**
+     * Compact segments whose share of dead records reached compaction ratio. Last segment is never compacted.
+     *
+     * @return number of compacted segments
+     */
+    @Scheduled(initialDelayString = "${ads.images.packed.compaction-delay}",
+            fixedDelayString = "${ads.images.packed.compaction-delay}")
+    public int compact() {
+        int compacted = 0;
+        for (Segment segment : candidates()) {
+            try {
+                compact(segment);
+                compacted++;
+            } catch (IOException exception) {
+                log.error(exception.getMessage());
+            }
+        }
+        return compacted;
+    }
+
+    private synchronized List<Segment> candidates() {
+        return segments.values().stream()
+                .filter(segment -> segment != active && segment.dead >= segment.end * compactionRatio)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Copy live records of sealed segment one by one, so writers wait for a single copy at most.
+     * A crash in the middle leaves records in both segments, and the copies win as the newer ones.
+     * Disk space of deleted segment is given back once its mapping is garbage collected.
+     */
+    private void compact(Segment segment) throws IOException {
+        forEachRecord(segment, (key, entry) -> copy(segment, key, entry));
+        List<Segment> copies;
+        synchronized (this) {
+            segments.remove(segment.id);
+            copies = new ArrayList<>(segments.tailMap(segment.id, false).values());
+        }
+        // copies must be on disk before the only other place of their records is gone
+        copies.forEach(copy -> copy.buffer.force());
+        Files.deleteIfExists(segment.path);
+        log.info("Compacted image segment " + segment.path + ", reclaimed bytes: " + segment.dead);
+    }
+
+    private synchronized void copy(Segment segment, String key, Entry entry) throws IOException {
+        if (entry.isDeleted()) {
+            // deleted record hides content which may still be in older segments
+            if (segments.firstKey() < segment.id && !index.containsKey(key)) {
+                apply(key, append(key, null));
+            }
+            return;
+        }
+        Entry current = index.get(key);
+        if (current != null && current.segment == segment && current.offset == entry.offset) {
+            apply(key, append(key, entry.slice(0, entry.length)));
+        }
+    }
+
+    private void remove(String key) throws IOException {
+        Entry entry;
+        synchronized (this) {
+            if (!index.containsKey(key)) {
+                return;
+            }
+            entry = append(key, null);
+            apply(key, entry);
+        }
+        entry.segment.buffer.force();
+    }
+
+    /**
+     * Point index at record, counting the record it replaces and a deleted record as dead
+     */
+    private void apply(String key, Entry entry) {
+        Entry previous = entry.isDeleted() ? index.remove(key) : index.put(key, entry);
+        if (previous != null) {
+            previous.segment.dead += previous.size();
+        }
+        if (entry.isDeleted()) {
+            entry.segment.dead += entry.size();
+        }
+    }
+
+    /**
+     * Write record to the end of the last segment, starting a new segment when it does not fit
+     *
+     * @param content content, null for deleted record
+     * @return written record
+     */
+    private Entry append(String key, ByteBuffer content) throws IOException {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        if (keyBytes.length > MAX_KEY_SIZE) {
+            throw new IOException("Location is too long to pack: " + key);
+        }
+        int length = content == null ? DELETED : content.remaining();
+        int size = HEADER_SIZE + keyBytes.length + Math.max(length, 0);
+        if (active.end + size > active.buffer.capacity()) {
+            active = create(active.id + 1);
+        }
+        int offset = active.end;
+        ByteBuffer buffer = active.buffer.duplicate();
+        buffer.position(offset + 4);
+        buffer.putInt(keyBytes.length).putInt(length).put(keyBytes);
+        if (content != null) {
+            buffer.put(content.duplicate());
+        }
+        buffer.putInt(offset, checksum(active.buffer, offset, offset + size));
+        active.end += size;
+        return new Entry(active, offset, offset + HEADER_SIZE + keyBytes.length, length);
+    }
+
+    private synchronized void load() throws IOException {
+        Files.createDirectories(dir);
+        List<Path> paths;
+        try (Stream<Path> list = Files.list(dir)) {
+            paths = list.filter(path -> SEGMENT_NAME.matcher(path.getFileName().toString()).matches())
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+        for (Path path : paths) {
+            String name = path.getFileName().toString();
+            int id = Integer.parseInt(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+            Segment segment;
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                segment = new Segment(id, path, channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size()));
+            }
+            segments.put(id, segment);
+            segment.end = forEachRecord(segment, this::apply);
+        }
+        active = segments.isEmpty() ? create(1) : segments.lastEntry().getValue();
+        log.info("Loaded packed images: " + index.size() + " in " + segments.size() + " segments");
+    }
+
+    /**
+     * Segment file is extended to full size at once, which takes no disk space until written.
+     * Directory is forced too, otherwise a machine crash may lose the new file with records forced into it.
+     */
+    private Segment create(int id) throws IOException {
+        Path path = dir.resolve(String.format("%010d", id) + SEGMENT_SUFFIX);
+        Segment segment;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            segment = new Segment(id, path, channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize));
+        }
+        try (FileChannel directory = FileChannel.open(dir, StandardOpenOption.READ)) {
+            directory.force(true);
+        }
+        segments.put(id, segment);
+        return segment;
+    }
+
+    /**
+     * Read records of segment up to the first empty or broken one
+     *
+     * @return end of the last valid record
+     */
+    private static int forEachRecord(Segment segment, RecordVisitor visitor) throws IOException {
+        ByteBuffer buffer = segment.buffer.duplicate();
+        int capacity = buffer.capacity();
+        int position = 0;
+        while (position + HEADER_SIZE <= capacity) {
+            int keySize = buffer.getInt(position + 4);
+            int length = buffer.getInt(position + 8);
+            int dataOffset = position + HEADER_SIZE + keySize;
+            if (keySize <= 0 || keySize > MAX_KEY_SIZE || length < DELETED
+                    || (long) dataOffset + Math.max(length, 0) > capacity) {
+                break;
+            }
+            int end = dataOffset + Math.max(length, 0);
+            if (buffer.getInt(position) != checksum(buffer, position, end)) {
+                break;
+            }
+            byte[] key = new byte[keySize];
+            buffer.position(position + HEADER_SIZE);
+            buffer.get(key);
+            visitor.visit(new String(key, StandardCharsets.UTF_8), new Entry(segment, position, dataOffset, length));
+            position = end;
+        }
+        return position;
+    }
+
+    /**
+     * Checksum of record without its checksum field
+     */
+    private static int checksum(ByteBuffer buffer, int offset, int end) {
+        ByteBuffer record = buffer.duplicate();
+        record.limit(end).position(offset + 4);
+        CRC32C crc = new CRC32C();
+        crc.update(record);
+        return (int) crc.getValue();
+    }
+
+    private static String key(Path location) {
+        return location.normalize().toString();
+    }
+
+    private interface RecordVisitor {
+        void visit(String key, Entry entry) throws IOException;
+    }
+
+    private static final class Segment {
+        private final int id;
+        private final Path path;
+        private final MappedByteBuffer buffer;
+        private int end;
+        /**
+         * Bytes of replaced and deleted records
+         */
+        private long dead;
+
+        private Segment(int id, Path path, MappedByteBuffer buffer) {
+            this.id = id;
+            this.path = path;
+            this.buffer = buffer;
+        }
+    }
+
+    /**
+     * Record in segment. Mapping of segment stays valid after it is compacted,
+     * so a record found in index before compaction is still read whole.
+     */
+    private static final class Entry {
+        private final Segment segment;
+        private final int offset;
+        private final int dataOffset;
+        private final int length;
+
+        private Entry(Segment segment, int offset, int dataOffset, int length) {
+            this.segment = segment;
+            this.offset = offset;
+            this.dataOffset = dataOffset;
+            this.length = length;
+        }
+
+        private boolean isDeleted() {
+            return length == DELETED;
+        }
+
+        private int size() {
+            return dataOffset - offset + Math.max(length, 0);
+        }
+
+        private ByteBuffer slice(long start, long end) {
+            ByteBuffer buffer = segment.buffer.duplicate();
+            buffer.limit(dataOffset + (int) Math.min(end, length));
+            buffer.position(dataOffset + (int) Math.min(start, length));
+            return buffer.slice();
+        }
+    }
+
+    /**
+     * Channel reading slice of segment mapping
+     */
+    private static final class BufferChannel implements ReadableByteChannel {
+        private final ByteBuffer buffer;
+        private boolean open = true;
+
+        private BufferChannel(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read(ByteBuffer dst) {
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int count = Math.min(dst.remaining(), buffer.remaining());
+            ByteBuffer chunk = buffer.slice();
+            chunk.limit(count);
+            dst.put(chunk);
+            buffer.position(buffer.position() + count);
+            return count;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return open;
+        }
+
+        @Override
+        public void close() {
+            open = false;
+        }
+    }
+}
@@ -0,0 +1,423 @@
+package ru.skypro.homework.component;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.StreamSupport;
+
+/**
+ * Image files as objects of S3 compatible storage, so several application nodes share them.
+ * Location is turned into object key by joining its segments with {@code /}.
+ * Requests are signed with AWS Signature Version 4 and use path style addressing, which MinIO and AWS both accept.
+ * Files larger than {@code ads.images.s3.part-size} are uploaded by multipart upload
+ * and read by parallel range requests, {@code ads.images.s3.parallelism} parts at a time.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "ads.images.storage.backend", havingValue = "s3")
+public class S3ImageStorage implements ImageStorage {
+    private static final String ALGORITHM = "AWS4-HMAC-SHA256";
+    private static final String UNSIGNED_PAYLOAD = "UNSIGNED-PAYLOAD";
+    private static final DateTimeFormatter DATE_TIME = DateTimeFormatter.ofPattern("yyyyMMdd'T'HHmmss'Z'");
+    private static final Pattern UPLOAD_ID = Pattern.compile("<UploadId>([^<]+)</UploadId>");
+
+    private final URI endpoint;
+    private final String bucket;
+    private final String region;
+    private final String accessKey;
+    private final String secretKey;
+    private final long partSize;
+    private final int parallelism;
+    private final HttpClient httpClient;
+
+    public S3ImageStorage(@Value("${ads.images.s3.endpoint}") URI endpoint,
+                          @Value("${ads.images.s3.bucket}") String bucket,
+                          @Value("${ads.images.s3.region}") String region,
+                          @Value("${ads.images.s3.access-key}") String accessKey,
+                          @Value("${ads.images.s3.secret-key}") String secretKey,
+                          @Value("${ads.images.s3.part-size}") DataSize partSize,
+                          @Value("${ads.images.s3.parallelism}") int parallelism) {
+        this.endpoint = endpoint;
+        this.bucket = bucket;
+        this.region = region;
+        this.accessKey = accessKey;
+        this.secretKey = secretKey;
+        this.partSize = partSize.toBytes();
+        this.parallelism = Math.max(1, parallelism);
+        this.httpClient = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(10)).build();
+    }
+
+    @Override
+    public void put(Path location, Path source) throws IOException {
+        await(putAsync(location, source));
+    }
+
+    @Override
+    public CompletableFuture<Void> putAsync(Path location, Path source) {
+        String key = key(location);
+        long size;
+        try {
+            size = Files.size(source);
+        } catch (IOException exception) {
+            return CompletableFuture.failedFuture(exception);
+        }
+        if (size <= partSize) {
+            try {
+                return send(request(key, "PUT", Map.of(), HttpRequest.BodyPublishers.ofFile(source)),
+                        HttpResponse.BodyHandlers.discarding())
+                        .thenApply(response -> null);
+            } catch (IOException exception) {
+                return CompletableFuture.failedFuture(exception);
+            }
+        }
+        return multipartUpload(key, source, size);
+    }
+
+    @Override
+    public ReadableByteChannel open(Path location, long start, long end) throws IOException {
+        String key = key(location);
+        if (end == Long.MAX_VALUE) {
+            end = size(location);
+        }
+        if (end - start <= partSize) {
+            HttpRequest request = request(key, "GET", Map.of(), HttpRequest.BodyPublishers.noBody(), range(start, end));
+            return Channels.newChannel(await(send(request, HttpResponse.BodyHandlers.ofInputStream())).body());
+        }
+        return Channels.newChannel(new RangeInputStream(key, start, end));
+    }
+
+    @Override
+    public long size(Path location) throws IOException {
+        HttpRequest request = request(key(location), "HEAD", Map.of(), HttpRequest.BodyPublishers.noBody());
+        return await(send(request, HttpResponse.BodyHandlers.discarding())).headers()
+                .firstValueAsLong("Content-Length").orElseThrow(() -> new IOException("No size of " + location));
+    }
+
+    @Override
+    public boolean exists(Path location) throws IOException {
+        try {
+            size(location);
+            return true;
+        } catch (NoSuchFileException exception) {
+            return false;
+        }
+    }
+
+    @Override
+    public void delete(Path location) throws IOException {
+        HttpRequest request = request(key(location), "DELETE", Map.of(), HttpRequest.BodyPublishers.noBody());
+        try {
+            await(send(request, HttpResponse.BodyHandlers.discarding()));
+        } catch (NoSuchFileException exception) {
+            // already deleted
+        }
+    }
+
+    /**
+     * Upload parts on {@code parallelism} lanes, each sending its parts one by one,
+     * so no more than {@code parallelism} parts are held in memory. Failed upload is aborted.
+     */
+    private CompletableFuture<Void> multipartUpload(String key, Path source, long size) {
+        return send(request(key, "POST", Map.of("uploads", ""), HttpRequest.BodyPublishers.noBody()),
+                HttpResponse.BodyHandlers.ofString())
+                .thenCompose(created -> {
+                    Matcher matcher = UPLOAD_ID.matcher(created.body());
+                    if (!matcher.find()) {
+                        throw new CompletionException(new IOException("No upload id for " + key));
+                    }
+                    String uploadId = matcher.group(1);
+                    int parts = (int) ((size + partSize - 1) / partSize);
+                    String[] eTags = new String[parts];
+                    List<CompletableFuture<Void>> lanes = new ArrayList<>();
+                    for (int lane = 0; lane < Math.min(parallelism, parts); lane++) {
+                        CompletableFuture<Void> chain = CompletableFuture.completedFuture(null);
+                        for (int part = lane; part < parts; part += parallelism) {
+                            int number = part;
+                            chain = chain.thenCompose(ignored -> uploadPart(key, uploadId, source, size, number, eTags));
+                        }
+                        lanes.add(chain);
+                    }
+                    return CompletableFuture.allOf(lanes.toArray(new CompletableFuture[0]))
+                            .thenCompose(ignored -> completeUpload(key, uploadId, eTags))
+                            .whenComplete((ignored, exception) -> {
+                                if (exception != null) {
+                                    abortUpload(key, uploadId);
+                                }
+                            });
+                });
+    }
+
+    private CompletableFuture<Void> uploadPart(String key, String uploadId, Path source, long size,
+                                               int part, String[] eTags) {
+        long offset = part * partSize;
+        Map<String, String> query = Map.of("partNumber", String.valueOf(part + 1), "uploadId", uploadId);
+        return readPart(source, offset, Math.min(partSize, size - offset))
+                .thenCompose(content -> send(request(key, "PUT", query, HttpRequest.BodyPublishers.ofByteArray(content)),
+                        HttpResponse.BodyHandlers.discarding()))
+                .thenAccept(response -> eTags[part] = response.headers().firstValue("ETag").orElse(""));
+    }
+
+    private CompletableFuture<Void> completeUpload(String key, String uploadId, String[] eTags) {
+        StringBuilder body = new StringBuilder("<CompleteMultipartUpload>");
+        for (int part = 0; part < eTags.length; part++) {
+            body.append("<Part><PartNumber>").append(part + 1).append("</PartNumber><ETag>")
+                    .append(eTags[part]).append("</ETag></Part>");
+        }
+        body.append("</CompleteMultipartUpload>");
+        return send(request(key, "POST", Map.of("uploadId", uploadId),
+                HttpRequest.BodyPublishers.ofString(body.toString())), HttpResponse.BodyHandlers.discarding())
+                .thenApply(response -> null);
+    }
+
+    private void abortUpload(String key, String uploadId) {
+        send(request(key, "DELETE", Map.of("uploadId", uploadId), HttpRequest.BodyPublishers.noBody()),
+                HttpResponse.BodyHandlers.discarding())
+                .exceptionally(exception -> {
+                    log.error("Upload " + uploadId + " of " + key + " not aborted: " + exception.getMessage());
+                    return null;
+                });
+    }
+
+    private static CompletableFuture<byte[]> readPart(Path source, long offset, long length) {
+        return CompletableFuture.supplyAsync(() -> {
+            ByteBuffer buffer = ByteBuffer.allocate((int) length);
+            try (FileChannel channel = FileChannel.open(source, StandardOpenOption.READ)) {
+                while (buffer.hasRemaining() && channel.read(buffer, offset + buffer.position()) >= 0) {
+                    // read until part is complete
+                }
+            } catch (IOException exception) {
+                throw new UncheckedIOException(exception);
+            }
+            return buffer.array();
+        });
+    }
+
+    private CompletableFuture<byte[]> getRange(String key, long start, long end) {
+        return send(request(key, "GET", Map.of(), HttpRequest.BodyPublishers.noBody(), range(start, end)),
+                HttpResponse.BodyHandlers.ofByteArray())
+                .thenApply(HttpResponse::body);
+    }
+
+    /**
+     * Send request, failing with {@link NoSuchFileException} on 404 and {@link IOException} on other errors
+     */
+    private <T> CompletableFuture<HttpResponse<T>> send(HttpRequest request, HttpResponse.BodyHandler<T> handler) {
+        return httpClient.sendAsync(request, handler).thenApply(response -> {
+            int status = response.statusCode();
+            if (status == 404) {
+                throw new CompletionException(new NoSuchFileException(request.uri().getPath()));
+            }
+            if (status / 100 != 2) {
+                throw new CompletionException(new IOException(
+                        request.method() + " " + request.uri().getPath() + " failed with status " + status));
+            }
+            return response;
+        });
+    }
+
+    private HttpRequest request(String key, String method, Map<String, String> query,
+                                HttpRequest.BodyPublisher body, String... headers) {
+        String path = endpoint.getRawPath().replaceAll("/$", "") + "/" + encode(bucket) + "/"
+                + Arrays.stream(key.split("/")).map(S3ImageStorage::encode).collect(Collectors.joining("/"));
+        String canonicalQuery = new TreeMap<>(query).entrySet().stream()
+                .map(entry -> encode(entry.getKey()) + "=" + encode(entry.getValue()))
+                .collect(Collectors.joining("&"));
+        URI uri = endpoint.resolve(path + (canonicalQuery.isEmpty() ? "" : "?" + canonicalQuery));
+        ZonedDateTime now = ZonedDateTime.now(ZoneOffset.UTC);
+        String dateTime = DATE_TIME.format(now);
+        String host = uri.getPort() == -1 ? uri.getHost() : uri.getHost() + ":" + uri.getPort();
+        String canonicalHeaders = "host:" + host + "\n"
+                + "x-amz-content-sha256:" + UNSIGNED_PAYLOAD + "\n"
+                + "x-amz-date:" + dateTime + "\n";
+        String signedHeaders = "host;x-amz-content-sha256;x-amz-date";
+        String canonicalRequest = method + "\n" + path + "\n" + canonicalQuery + "\n"
+                + canonicalHeaders + "\n" + signedHeaders + "\n" + UNSIGNED_PAYLOAD;
+        String scope = dateTime.substring(0, 8) + "/" + region + "/s3/aws4_request";
+        String stringToSign = ALGORITHM + "\n" + dateTime + "\n" + scope + "\n" + hex(sha256(canonicalRequest));
+        byte[] signingKey = hmac(hmac(hmac(hmac(("AWS4" + secretKey).getBytes(StandardCharsets.UTF_8),
+                dateTime.substring(0, 8)), region), "s3"), "aws4_request");
+        HttpRequest.Builder builder = HttpRequest.newBuilder(uri)
+                .method(method, body)
+                .header("x-amz-content-sha256", UNSIGNED_PAYLOAD)
+                .header("x-amz-date", dateTime)
+                .header("Authorization", ALGORITHM + " Credential=" + accessKey + "/" + scope
+                        + ", SignedHeaders=" + signedHeaders + ", Signature=" + hex(hmac(signingKey, stringToSign)));
+        if (headers.length > 0) {
+            builder.headers(headers);
+        }
+        return builder.build();
+    }
+
+    private static String[] range(long start, long end) {
+        return new String[]{"Range", "bytes=" + start + "-" + (end - 1)};
+    }
+
+    private static String key(Path location) {
+        return StreamSupport.stream(location.normalize().spliterator(), false)
+                .map(Path::toString)
+                .collect(Collectors.joining("/"));
+    }
+
+    /**
+     * URI encoding of SigV4: everything except unreserved characters is percent encoded
+     */
+    private static String encode(String value) {
+        StringBuilder encoded = new StringBuilder();
+        for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+            char c = (char) (b & 0xFF);
+            if ((c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z') || (c >= '0' && c <= '9')
+                    || c == '-' || c == '_' || c == '.' || c == '~') {
+                encoded.append(c);
+            } else {
+                encoded.append('%').append(Character.toUpperCase(Character.forDigit((b >> 4) & 0xF, 16)))
+                        .append(Character.toUpperCase(Character.forDigit(b & 0xF, 16)));
+            }
+        }
+        return encoded.toString();
+    }
+
+    private static byte[] sha256(String value) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(value.getBytes(StandardCharsets.UTF_8));
+        } catch (GeneralSecurityException exception) {
+            throw new IllegalStateException(exception);
+        }
+    }
+
+    private static byte[] hmac(byte[] key, String value) {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(key, "HmacSHA256"));
+            return mac.doFinal(value.getBytes(StandardCharsets.UTF_8));
+        } catch (GeneralSecurityException exception) {
+            throw new IllegalStateException(exception);
+        }
+    }
+
+    private static String hex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+
+    /**
+     * Wait for request, unwrapping its {@link IOException}
+     */
+    private static <T> T await(CompletableFuture<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(exception.getMessage());
+        } catch (ExecutionException exception) {
+            Throwable cause = exception.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) cause).getCause();
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * Range of object read by parts of {@code partSize}, keeping {@code parallelism} requests ahead of the reader
+     */
+    private final class RangeInputStream extends InputStream {
+        private final String key;
+        private final long end;
+        private final Deque<CompletableFuture<byte[]>> pending = new ArrayDeque<>();
+        private long next;
+        private byte[] current = new byte[0];
+        private int position;
+
+        private RangeInputStream(String key, long start, long end) {
+            this.key = key;
+            this.end = end;
+            this.next = start;
+            while (pending.size() < parallelism && next < end) {
+                requestNext();
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            return read(single, 0, 1) == -1 ? -1 : single[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            while (position == current.length) {
+                if (pending.isEmpty()) {
+                    return -1;
+                }
+                current = await(pending.poll());
+                position = 0;
+                if (next < end) {
+                    requestNext();
+                }
+            }
+            int read = Math.min(length, current.length - position);
+            System.arraycopy(current, position, buffer, offset, read);
+            position += read;
+            return read;
+        }
+
+        @Override
+        public void close() {
+            pending.forEach(future -> future.cancel(true));
+            pending.clear();
+        }
+
+        private void requestNext() {
+            long partEnd = Math.min(end, next + partSize);
+            pending.add(getRange(key, next, partEnd));
+            next = partEnd;
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package ru.skypro.homework.configuration;
+
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.annotation.EnableAsync;
+import org.springframework.scheduling.annotation.EnableScheduling;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+/**
+ * Background jobs. Each job has its own executor, named in {@code @Async}.
+ * Periodic jobs run on the default scheduler thread.
+ */
+@Configuration
+@EnableAsync
+@EnableScheduling
+public class AsyncConfig {
+    public static final String PURGE_EXECUTOR = "purgeExecutor";
+    public static final String MIGRATION_EXECUTOR = "migrationExecutor";
+    public static final String RECONCILE_EXECUTOR = "reconcileExecutor";
+
+    /**
+     * Single thread for user purges, so they do not compete with each other for locks
+     */
+    @Bean(PURGE_EXECUTOR)
+    public ThreadPoolTaskExecutor purgeExecutor() {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(1);
+        executor.setMaxPoolSize(1);
+        executor.setThreadNamePrefix("ads-purge-");
+        executor.setWaitForTasksToCompleteOnShutdown(true);
+        executor.setAwaitTerminationSeconds(30);
+        return executor;
+    }
+
+    /**
+     * Single thread for image file migrations, so two runs never move the same files
+     */
+    @Bean(MIGRATION_EXECUTOR)
+    public ThreadPoolTaskExecutor migrationExecutor() {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(1);
+        executor.setMaxPoolSize(1);
+        executor.setThreadNamePrefix("ads-migration-");
+        executor.setWaitForTasksToCompleteOnShutdown(true);
+        executor.setAwaitTerminationSeconds(30);
+        return executor;
+    }
+
+    /**
+     * Single thread without queue for image reconciliation, so a run is skipped while the previous one
+     * is still going and long runs do not hold the scheduler thread
+     */
+    @Bean(RECONCILE_EXECUTOR)
+    public ThreadPoolTaskExecutor reconcileExecutor() {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(1);
+        executor.setMaxPoolSize(1);
+        executor.setQueueCapacity(0);
+        executor.setThreadNamePrefix("ads-reconcile-");
+        executor.setWaitForTasksToCompleteOnShutdown(false);
+        return executor;
+    }
+}
@@ -0,0 +1,27 @@
+package ru.skypro.homework.configuration;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.annotation.EnableCaching;
+import org.springframework.cache.caffeine.CaffeineCacheManager;
+import org.springframework.cache.transaction.TransactionAwareCacheManagerProxy;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * In-process caches. Evictions made inside a transaction are applied after commit,
+ * so a concurrent read cannot put stale value back before the change is visible.
+ */
+@Configuration
+@EnableCaching
+public class CacheConfig {
+    public static final String ADVERTS_CACHE = "adverts";
+
+    @Bean
+    public CacheManager cacheManager(@Value("${ads.cache.adverts.spec}") String advertsSpec) {
+        CaffeineCacheManager cacheManager = new CaffeineCacheManager(ADVERTS_CACHE);
+        cacheManager.setCacheSpecification(advertsSpec);
+        cacheManager.setAllowNullValues(false);
+        return new TransactionAwareCacheManagerProxy(cacheManager);
+    }
+}
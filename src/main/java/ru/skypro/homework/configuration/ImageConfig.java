@@ -0,0 +1,54 @@
+package ru.skypro.homework.configuration;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Executors for image file work done outside of request transactions
+ */
+@Configuration
+public class ImageConfig {
+    public static final String VARIANT_EXECUTOR = "variantExecutor";
+    public static final String FILE_EXECUTOR = "imageFileExecutor";
+
+    /**
+     * Bounded pool for resizing images.
+     * When the queue is full new tasks are rejected: original image is served meanwhile
+     * and a missing variant is scheduled again when it is requested.
+     * Rejection is thrown rather than discarded, so the caller forgets the task it could not schedule.
+     */
+    @Bean(VARIANT_EXECUTOR)
+    public ExecutorService variantExecutor(@Value("${ads.images.variant-threads}") int threads) {
+        AtomicInteger counter = new AtomicInteger();
+        return new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(threads * 64),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "ads-variant-" + counter.incrementAndGet());
+                    thread.setDaemon(true);
+                    thread.setPriority(Thread.MIN_PRIORITY);
+                    return thread;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    /**
+     * Single thread deleting files of committed deletes in order they were committed.
+     * Tasks are never dropped, as a skipped delete would leave an orphaned file.
+     */
+    @Bean(FILE_EXECUTOR)
+    public ExecutorService imageFileExecutor() {
+        return Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "ads-image-file");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+}
@@ -0,0 +1,34 @@
+package ru.skypro.homework.configuration;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bounded pool for file I/O of bulk advert import.
+ * When the queue is full the importing thread writes the file itself,
+ * so a large import slows down instead of piling up pending writes.
+ */
+@Configuration
+public class ImportConfig {
+    public static final String IMPORT_EXECUTOR = "importExecutor";
+
+    @Bean(IMPORT_EXECUTOR)
+    public ExecutorService importExecutor(@Value("${ads.import.io-threads}") int threads) {
+        AtomicInteger counter = new AtomicInteger();
+        return new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(threads * 16),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "ads-import-" + counter.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+}
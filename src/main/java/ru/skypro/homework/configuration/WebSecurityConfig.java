@@ -13,6 +13,7 @@ import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
 import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.security.provisioning.JdbcUserDetailsManager;
 import org.springframework.security.web.SecurityFilterChain;
+import ru.skypro.homework.model.Role;
 
 import javax.sql.DataSource;
 
@@ -58,10 +59,15 @@ public class WebSecurityConfig {
                                 authorization
                                         .mvcMatchers(AUTH_WHITELIST)
                                         .permitAll()
-                                        .mvcMatchers(HttpMethod.GET, "/ads", "/ads/*/image", "/users/me/image")
+                                        .mvcMatchers(HttpMethod.GET, "/ads", "/ads/stream", "/ads/search",
+                                                "/ads/*/image", "/users/me/image")
                                         .permitAll()
                                         .mvcMatchers("/ads/**", "/users/**")
                                         .authenticated()
+                                        .mvcMatchers("/actuator/health")
+                                        .permitAll()
+                                        .mvcMatchers("/actuator/**")
+                                        .hasRole(Role.ADMIN.name())
                 )
                 .cors()
                 .and()
@@ -6,23 +6,25 @@ import io.swagger.v3.oas.annotations.media.Schema;
 import io.swagger.v3.oas.annotations.responses.ApiResponse;
 import io.swagger.v3.oas.annotations.tags.Tag;
 import lombok.extern.slf4j.Slf4j;
+import org.springdoc.api.annotations.ParameterObject;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
 import org.springframework.web.multipart.MultipartFile;
+import ru.skypro.homework.component.ImageResponseWriter;
 import ru.skypro.homework.dto.*;
-import ru.skypro.homework.exception.ImageDownloadException;
+import ru.skypro.homework.exception.ResponseWriteException;
 import ru.skypro.homework.model.Image;
 import ru.skypro.homework.model.Photo;
+import ru.skypro.homework.service.AdvertImportService;
 import ru.skypro.homework.service.AdvertService;
 
+import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.OutputStream;
-import java.nio.file.Files;
-import java.nio.file.Path;
 
 @Slf4j
 @CrossOrigin(value = "http://localhost:3000")
@@ -31,9 +33,15 @@ import java.nio.file.Path;
 @Tag(name = "Adverts")
 public class AdvertController {
     private final AdvertService advertService;
+    private final AdvertImportService advertImportService;
+    private final ImageResponseWriter imageResponseWriter;
 
-    public AdvertController(AdvertService advertService) {
+    public AdvertController(AdvertService advertService,
+                            AdvertImportService advertImportService,
+                            ImageResponseWriter imageResponseWriter) {
         this.advertService = advertService;
+        this.advertImportService = advertImportService;
+        this.imageResponseWriter = imageResponseWriter;
     }
 
     @PostMapping(consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
@@ -47,6 +55,19 @@ public class AdvertController {
         return new ResponseEntity<>(advertService.create(properties, file), HttpStatus.CREATED);
     }
 
+    @PostMapping(value = "/import", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+    @Operation(summary = "Import adverts from NDJSON file with images in zip archive", responses = {
+            @ApiResponse(responseCode = "200", content = {@Content(schema = @Schema(
+                    implementation = ResponseWrapperImportDto.class), mediaType = MediaType.APPLICATION_JSON_VALUE)}),
+            @ApiResponse(responseCode = "400", content = {@Content(schema = @Schema())}),
+            @ApiResponse(responseCode = "401", content = {@Content(schema = @Schema())})}
+    )
+    public ResponseEntity<ResponseWrapperImportDto> importAdverts(@RequestPart(name = "adverts") MultipartFile adverts,
+                                                                  @RequestPart(name = "images", required = false)
+                                                                  MultipartFile images) {
+        return ResponseEntity.ok(advertImportService.importAdverts(adverts, images));
+    }
+
     @DeleteMapping("/{id}")
     @Operation(summary = "Delete advert", responses = {
             @ApiResponse(responseCode = "204", content = {@Content(schema = @Schema())}),
@@ -73,11 +94,13 @@ public class AdvertController {
     @PatchMapping(value = "/{id}/image", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
     @Operation(summary = "Update advert image", responses = {
             @ApiResponse(responseCode = "200", content = {@Content(schema = @Schema(
-                    implementation = byte[].class), mediaType = MediaType.APPLICATION_OCTET_STREAM_VALUE)}),
+                    implementation = ImageDto.class), mediaType = MediaType.APPLICATION_JSON_VALUE)}),
             @ApiResponse(responseCode = "401", content = {@Content(schema = @Schema())}),
-            @ApiResponse(responseCode = "403", content = {@Content(schema = @Schema())})}
+            @ApiResponse(responseCode = "403", content = {@Content(schema = @Schema())}),
+            @ApiResponse(responseCode = "413", content = {@Content(schema = @Schema())}),
+            @ApiResponse(responseCode = "415", content = {@Content(schema = @Schema())})}
     )
-    public ResponseEntity<byte[]> updateImage(@PathVariable("id") Integer id,
+    public ResponseEntity<ImageDto> updateImage(@PathVariable("id") Integer id,
                                               @RequestParam("image") MultipartFile file) {
         return ResponseEntity.ok(advertService.updateImage(id, file));
     }
@@ -86,9 +109,14 @@ public class AdvertController {
     @Operation(summary = "Get advert details", responses = {
             @ApiResponse(responseCode = "200", content = {@Content(schema = @Schema(
                     implementation = FullAdsDto.class), mediaType = MediaType.APPLICATION_JSON_VALUE)}),
+            @ApiResponse(responseCode = "304", content = {@Content(schema = @Schema())}),
             @ApiResponse(responseCode = "401", content = {@Content(schema = @Schema())})}
     )
-    public ResponseEntity<FullAdsDto> findById(@PathVariable("id") Integer id) {
+    public ResponseEntity<FullAdsDto> findById(@PathVariable("id") Integer id,
+                                               WebRequest request) {
+        if (request.checkNotModified(advertService.findETag(id))) {
+            return null;
+        }
         return ResponseEntity.ok(advertService.findById(id));
     }
 
@@ -96,36 +124,69 @@ public class AdvertController {
     @Operation(summary = "Get adverts for authorized user", responses = {
             @ApiResponse(responseCode = "200", content = {@Content(schema = @Schema(
                     implementation = ResponseWrapperAdsDto.class), mediaType = MediaType.APPLICATION_JSON_VALUE)}),
+            @ApiResponse(responseCode = "400", content = {@Content(schema = @Schema())}),
             @ApiResponse(responseCode = "401", content = {@Content(schema = @Schema())})}
     )
-    public ResponseEntity<ResponseWrapperAdsDto> findAllByAuthUser() {
-        return ResponseEntity.ok(advertService.findAllByAuthUser());
+    public ResponseEntity<ResponseWrapperAdsDto> findAllByAuthUser(@RequestParam(required = false) String after,
+                                                                   @RequestParam(required = false) Integer limit) {
+        return ResponseEntity.ok(advertService.findAllByAuthUser(after, limit));
     }
 
     @GetMapping
     @Operation(summary = "Get all adverts", responses = {
+            @ApiResponse(responseCode = "200", content = {@Content(schema = @Schema(
+                    implementation = ResponseWrapperAdsDto.class), mediaType = MediaType.APPLICATION_JSON_VALUE)}),
+            @ApiResponse(responseCode = "304", content = {@Content(schema = @Schema())}),
+            @ApiResponse(responseCode = "400", content = {@Content(schema = @Schema())})}
+    )
+    public ResponseEntity<ResponseWrapperAdsDto> findAll(@ParameterObject AdsFilter filter,
+                                                         @RequestParam(required = false) String after,
+                                                         @RequestParam(required = false) Integer limit,
+                                                         WebRequest request) {
+        if (request.checkNotModified(advertService.findAllETag())) {
+            return null;
+        }
+        return ResponseEntity.ok(advertService.findAll(filter, after, limit));
+    }
+
+    @GetMapping("/stream")
+    @Operation(summary = "Stream all adverts without pagination", responses = {
             @ApiResponse(responseCode = "200", content = {@Content(schema = @Schema(
                     implementation = ResponseWrapperAdsDto.class), mediaType = MediaType.APPLICATION_JSON_VALUE)})}
     )
-    public ResponseEntity<ResponseWrapperAdsDto> findAll() {
-        return ResponseEntity.ok(advertService.findAll());
+    public void streamAll(@ParameterObject AdsFilter filter,
+                          HttpServletResponse response) {
+        response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+        try (OutputStream os = response.getOutputStream()) {
+            advertService.streamAll(filter, os);
+        } catch (IOException exception) {
+            throw new ResponseWriteException(exception.getMessage());
+        }
+    }
+
+    @GetMapping("/search")
+    @Operation(summary = "Search adverts by title and description", responses = {
+            @ApiResponse(responseCode = "200", content = {@Content(schema = @Schema(
+                    implementation = ResponseWrapperAdsDto.class), mediaType = MediaType.APPLICATION_JSON_VALUE)})}
+    )
+    public ResponseEntity<ResponseWrapperAdsDto> search(@RequestParam("q") String query,
+                                                        @RequestParam(required = false) Integer page,
+                                                        @RequestParam(required = false) Integer limit) {
+        return ResponseEntity.ok(advertService.search(query, page, limit));
     }
 
     @GetMapping("/{id}/image")
     @Operation(summary = "Download advert image", responses = {
-            @ApiResponse(responseCode = "200", content = {@Content(schema = @Schema())})}
+            @ApiResponse(responseCode = "200", content = {@Content(schema = @Schema())}),
+            @ApiResponse(responseCode = "206", content = {@Content(schema = @Schema())}),
+            @ApiResponse(responseCode = "304", content = {@Content(schema = @Schema())}),
+            @ApiResponse(responseCode = "416", content = {@Content(schema = @Schema())})}
     )
     public void downloadImage(@PathVariable("id") Integer id,
+                              @RequestParam(required = false) Integer size,
+                              HttpServletRequest request,
                               HttpServletResponse response) {
         Image photo = advertService.downloadImage(id);
-        Path path = photo.getFilePath();
-        try (InputStream is = Files.newInputStream(path);
-             OutputStream os = response.getOutputStream();) {
-            response.setContentType(photo.getFileType());
-            response.setContentLength((int) photo.getFileSize());
-            is.transferTo(os);
-        } catch (IOException exception) {
-            throw new ImageDownloadException(exception.getMessage());
-        }
+        imageResponseWriter.write(photo, size, true, request, response);
     }
 }
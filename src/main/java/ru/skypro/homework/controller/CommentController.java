@@ -12,8 +12,13 @@ import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import ru.skypro.homework.dto.CommentDto;
 import ru.skypro.homework.dto.ResponseWrapperCommentDto;
+import ru.skypro.homework.exception.ResponseWriteException;
 import ru.skypro.homework.service.CommentService;
 
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.OutputStream;
+
 @Slf4j
 @CrossOrigin(value = "http://localhost:3000")
 @RestController
@@ -71,4 +76,20 @@ public class CommentController {
     public ResponseEntity<ResponseWrapperCommentDto> findAllByAdvert(@PathVariable("id") Integer id) {
         return ResponseEntity.ok(commentService.findAll(id));
     }
+
+    @GetMapping("/{id}/comments/stream")
+    @Operation(summary = "Stream all comments for advert", responses = {
+            @ApiResponse(responseCode = "200", content = {@Content(schema = @Schema(
+                    implementation = ResponseWrapperCommentDto.class), mediaType = MediaType.APPLICATION_JSON_VALUE)}),
+            @ApiResponse(responseCode = "401", content = {@Content(schema = @Schema())})}
+    )
+    public void streamAllByAdvert(@PathVariable("id") Integer id,
+                                  HttpServletResponse response) {
+        response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+        try (OutputStream os = response.getOutputStream()) {
+            commentService.streamAll(id, os);
+        } catch (IOException exception) {
+            throw new ResponseWriteException(exception.getMessage());
+        }
+    }
 }
@@ -6,22 +6,22 @@ import io.swagger.v3.oas.annotations.media.Schema;
 import io.swagger.v3.oas.annotations.responses.ApiResponse;
 import io.swagger.v3.oas.annotations.tags.Tag;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
 import org.springframework.web.multipart.MultipartFile;
+import ru.skypro.homework.component.ImageResponseWriter;
+import ru.skypro.homework.dto.ImageDto;
 import ru.skypro.homework.dto.NewPasswordDto;
 import ru.skypro.homework.dto.UserDto;
-import ru.skypro.homework.exception.ImageDownloadException;
 import ru.skypro.homework.model.Avatar;
 import ru.skypro.homework.model.Image;
 import ru.skypro.homework.service.UserService;
 
+import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
-import java.nio.file.Files;
 
 @Slf4j
 @CrossOrigin(value = "http://localhost:3000")
@@ -30,9 +30,12 @@ import java.nio.file.Files;
 @Tag(name = "Users")
 public class UserController {
     private final UserService userService;
+    private final ImageResponseWriter imageResponseWriter;
 
-    public UserController(UserService userService) {
+    public UserController(UserService userService,
+                          ImageResponseWriter imageResponseWriter) {
         this.userService = userService;
+        this.imageResponseWriter = imageResponseWriter;
     }
 
     @PostMapping("/set_password")
@@ -46,6 +49,17 @@ public class UserController {
         return ResponseEntity.ok().build();
     }
 
+    @DeleteMapping("/{id}")
+    @Operation(summary = "Delete user with adverts and comments", responses = {
+            @ApiResponse(responseCode = "202", content = {@Content(schema = @Schema())}),
+            @ApiResponse(responseCode = "401", content = {@Content(schema = @Schema())}),
+            @ApiResponse(responseCode = "403", content = {@Content(schema = @Schema())})}
+    )
+    public ResponseEntity<?> delete(@PathVariable("id") Integer id) {
+        userService.delete(id);
+        return ResponseEntity.status(HttpStatus.ACCEPTED).build();
+    }
+
     @PatchMapping("/me")
     @Operation(summary = "Update data of authorized user", responses = {
             @ApiResponse(responseCode = "200", content = {@Content(schema = @Schema(
@@ -58,10 +72,13 @@ public class UserController {
 
     @PatchMapping(value = "/me/image", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
     @Operation(summary = "Update avatar of authorized user", responses = {
-            @ApiResponse(responseCode = "200", content = {@Content(schema = @Schema())}),
-            @ApiResponse(responseCode = "401", content = {@Content(schema = @Schema())})}
+            @ApiResponse(responseCode = "200", content = {@Content(schema = @Schema(
+                    implementation = ImageDto.class), mediaType = MediaType.APPLICATION_JSON_VALUE)}),
+            @ApiResponse(responseCode = "401", content = {@Content(schema = @Schema())}),
+            @ApiResponse(responseCode = "413", content = {@Content(schema = @Schema())}),
+            @ApiResponse(responseCode = "415", content = {@Content(schema = @Schema())})}
     )
-    public ResponseEntity<byte[]> updateAvatar(@RequestParam("image") MultipartFile avatar) {
+    public ResponseEntity<ImageDto> updateAvatar(@RequestParam("image") MultipartFile avatar) {
         return ResponseEntity.ok(userService.updateImage(avatar));
     }
 
@@ -69,41 +86,49 @@ public class UserController {
     @Operation(summary = "Get info of authorized user", responses = {
             @ApiResponse(responseCode = "200", content = {@Content(schema = @Schema(
                     implementation = UserDto.class), mediaType = MediaType.APPLICATION_JSON_VALUE)}),
+            @ApiResponse(responseCode = "304", content = {@Content(schema = @Schema())}),
             @ApiResponse(responseCode = "401", content = {@Content(schema = @Schema())})}
     )
-    public ResponseEntity<UserDto> findInfo() {
+    public ResponseEntity<UserDto> findInfo(WebRequest request) {
+        if (request.checkNotModified(userService.findInfoETag())) {
+            return null;
+        }
         return ResponseEntity.ok(userService.findInfo());
     }
 
     @GetMapping("/me/image")
     @Operation(summary = "Get avatar of authorized user", responses = {
-            @ApiResponse(responseCode = "200", content = {@Content(schema = @Schema())})}
+            @ApiResponse(responseCode = "200", content = {@Content(schema = @Schema())}),
+            @ApiResponse(responseCode = "206", content = {@Content(schema = @Schema())}),
+            @ApiResponse(responseCode = "304", content = {@Content(schema = @Schema())}),
+            @ApiResponse(responseCode = "416", content = {@Content(schema = @Schema())})}
     )
-    public void downloadImage(HttpServletResponse response) {
+    public void downloadImage(@RequestParam(required = false) Integer size,
+                              HttpServletRequest request,
+                              HttpServletResponse response) {
         Image avatar = userService.downloadImage();
-        downloadAvatar(response, avatar);
+        downloadAvatar(avatar, size, false, request, response);
     }
 
     @GetMapping("/{id}/image")
     @Operation(summary = "Get avatar of user by id", responses = {
-            @ApiResponse(responseCode = "200", content = {@Content(schema = @Schema())})}
+            @ApiResponse(responseCode = "200", content = {@Content(schema = @Schema())}),
+            @ApiResponse(responseCode = "206", content = {@Content(schema = @Schema())}),
+            @ApiResponse(responseCode = "304", content = {@Content(schema = @Schema())}),
+            @ApiResponse(responseCode = "416", content = {@Content(schema = @Schema())})}
     )
     public void downloadImage(@PathVariable("id") Integer id,
+                              @RequestParam(required = false) Integer size,
+                              HttpServletRequest request,
                               HttpServletResponse response) {
         Image avatar = userService.downloadImageByUserId(id);
-        downloadAvatar(response, avatar);
+        downloadAvatar(avatar, size, true, request, response);
     }
 
-    private void downloadAvatar(HttpServletResponse response, Image avatar) {
+    private void downloadAvatar(Image avatar, Integer size, boolean shared,
+                                HttpServletRequest request, HttpServletResponse response) {
         if (avatar != null) {
-            try (InputStream is = Files.newInputStream(avatar.getFilePath());
-                 OutputStream os = response.getOutputStream();) {
-                response.setContentType(avatar.getFileType());
-                response.setContentLength((int) avatar.getFileSize());
-                is.transferTo(os);
-            } catch (IOException exception) {
-                throw new ImageDownloadException(exception.getMessage());
-            }
+            imageResponseWriter.write(avatar, size, shared, request, response);
         }
     }
 }
@@ -0,0 +1,109 @@
+package ru.skypro.homework.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import ru.skypro.homework.exception.InvalidCursorException;
+import ru.skypro.homework.repository.projection.AdvertSummary;
+
+import java.nio.charset.StandardCharsets;
+import java.time.DateTimeException;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Base64;
+
+/**
+ * Opaque keyset cursor for advert listings.
+ * Points to the last advert of the previous page, so the next page starts right after it.
+ */
+@Data
+@AllArgsConstructor
+public class AdsCursor {
+    private AdsSort sort;
+    private long key;
+    private int id;
+
+    /**
+     * Cursor which points to advert in given sort order
+     *
+     * @param sort   {@link AdsSort}
+     * @param advert {@link AdvertSummary}
+     * @return {@link AdsCursor}
+     */
+    public static AdsCursor of(AdsSort sort, AdvertSummary advert) {
+        return new AdsCursor(sort, sort.keyOf(advert), advert.getId());
+    }
+
+    /**
+     * Decode cursor from token sent by client. Token is not trusted, so its key
+     * must fit the type of sort attribute.
+     *
+     * @param token token, null or empty means first page
+     * @param sort  sort order of requested listing
+     * @return {@link AdsCursor} or null for the first page
+     */
+    public static AdsCursor decode(String token, AdsSort sort) {
+        if (token == null || token.isBlank()) {
+            return null;
+        }
+        try {
+            String value = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+            String[] parts = value.split(":");
+            if (parts.length != 3 || AdsSort.valueOf(parts[0]) != sort) {
+                throw new InvalidCursorException("Invalid cursor");
+            }
+            AdsCursor cursor = new AdsCursor(sort, Long.parseLong(parts[1]), Integer.parseInt(parts[2]));
+            cursor.checkKey();
+            return cursor;
+        } catch (IllegalArgumentException | ArithmeticException | DateTimeException exception) {
+            throw new InvalidCursorException("Invalid cursor");
+        }
+    }
+
+    private void checkKey() {
+        switch (sort) {
+            case PRICE_ASC:
+            case PRICE_DESC:
+                getPrice();
+                break;
+            case CREATED_ASC:
+            case CREATED_DESC:
+                // year range every database stores as timestamp
+                int year = getCreatedAt().getYear();
+                if (year < 1 || year > 9999) {
+                    throw new DateTimeException("Creation time out of range: " + key);
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Encode cursor to token for client
+     *
+     * @return token
+     */
+    public String encode() {
+        String value = sort.name() + ":" + key + ":" + id;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Sort key as price, for {@link AdsSort#PRICE_ASC} and {@link AdsSort#PRICE_DESC}
+     *
+     * @return price
+     */
+    public int getPrice() {
+        return Math.toIntExact(key);
+    }
+
+    /**
+     * Sort key as creation time, for {@link AdsSort#CREATED_ASC} and {@link AdsSort#CREATED_DESC}
+     *
+     * @return creation time
+     */
+    public LocalDateTime getCreatedAt() {
+        return LocalDateTime.ofEpochSecond(Math.floorDiv(key, AdsSort.MICROS_PER_SECOND),
+                (int) Math.floorMod(key, AdsSort.MICROS_PER_SECOND) * AdsSort.NANOS_PER_MICRO, ZoneOffset.UTC);
+    }
+}
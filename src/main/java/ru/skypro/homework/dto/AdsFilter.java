@@ -0,0 +1,14 @@
+package ru.skypro.homework.dto;
+
+import lombok.Data;
+
+/**
+ * Filter and sort order of advert listing
+ */
+@Data
+public class AdsFilter {
+    private Integer minPrice;
+    private Integer maxPrice;
+    private Integer authorId;
+    private AdsSort sort = AdsSort.ID;
+}
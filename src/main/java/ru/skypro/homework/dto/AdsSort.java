@@ -0,0 +1,65 @@
+package ru.skypro.homework.dto;
+
+import ru.skypro.homework.model.Advert;
+import ru.skypro.homework.repository.projection.AdvertSummary;
+
+import java.time.Instant;
+import java.time.ZoneOffset;
+
+/**
+ * Sort order of advert listing. Every order is made total by advert id,
+ * so it can be continued with {@link AdsCursor}.
+ */
+public enum AdsSort {
+    ID("id", true),
+    PRICE_ASC("price", true),
+    PRICE_DESC("price", false),
+    CREATED_ASC("createdAt", true),
+    CREATED_DESC("createdAt", false);
+
+    static final long MICROS_PER_SECOND = 1_000_000L;
+    static final int NANOS_PER_MICRO = 1_000;
+
+    private final String attribute;
+    private final boolean ascending;
+
+    AdsSort(String attribute, boolean ascending) {
+        this.attribute = attribute;
+        this.ascending = ascending;
+    }
+
+    /**
+     * Name of {@link Advert} attribute to sort by
+     *
+     * @return attribute name
+     */
+    public String getAttribute() {
+        return attribute;
+    }
+
+    public boolean isAscending() {
+        return ascending;
+    }
+
+    /**
+     * Value of sort attribute of advert, packed to long for {@link AdsCursor}.
+     * Creation time is packed as epoch microseconds, the precision it is stored with,
+     * so adverts created within one millisecond are still told apart.
+     *
+     * @param advert {@link AdvertSummary}
+     * @return sort key
+     */
+    public long keyOf(AdvertSummary advert) {
+        switch (this) {
+            case PRICE_ASC:
+            case PRICE_DESC:
+                return advert.getPrice();
+            case CREATED_ASC:
+            case CREATED_DESC:
+                Instant createdAt = advert.getCreatedAt().toInstant(ZoneOffset.UTC);
+                return createdAt.getEpochSecond() * MICROS_PER_SECOND + createdAt.getNano() / NANOS_PER_MICRO;
+            default:
+                return advert.getId();
+        }
+    }
+}
@@ -0,0 +1,10 @@
+package ru.skypro.homework.dto;
+
+import lombok.Data;
+
+@Data
+public class ImageDto {
+    private String url;
+    private String type;
+    private long size;
+}
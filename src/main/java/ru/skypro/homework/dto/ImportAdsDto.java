@@ -0,0 +1,11 @@
+package ru.skypro.homework.dto;
+
+import lombok.Data;
+
+@Data
+public class ImportAdsDto {
+    private String title;
+    private String description;
+    private int price;
+    private String image;
+}
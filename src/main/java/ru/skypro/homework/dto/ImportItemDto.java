@@ -0,0 +1,14 @@
+package ru.skypro.homework.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ImportItemDto {
+    private int line;
+    private Integer pk;
+    private String error;
+}
@@ -7,4 +7,5 @@ import java.util.List;
 public class ResponseWrapperAdsDto {
     private int count;
     private List<AdsDto> results;
+    private String next;
 }
@@ -0,0 +1,12 @@
+package ru.skypro.homework.dto;
+
+import lombok.Data;
+
+import java.util.List;
+
+@Data
+public class ResponseWrapperImportDto {
+    private int count;
+    private int created;
+    private List<ImportItemDto> results;
+}
@@ -0,0 +1,7 @@
+package ru.skypro.homework.exception;
+
+public class AdvertImportException extends RuntimeException {
+    public AdvertImportException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,7 @@
+package ru.skypro.homework.exception;
+
+public class ImageTooLargeException extends ImageUploadException {
+    public ImageTooLargeException(String message) {
+        super(message);
+    }
+}
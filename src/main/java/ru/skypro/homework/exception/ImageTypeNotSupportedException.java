@@ -0,0 +1,7 @@
+package ru.skypro.homework.exception;
+
+public class ImageTypeNotSupportedException extends ImageUploadException {
+    public ImageTypeNotSupportedException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,7 @@
+package ru.skypro.homework.exception;
+
+public class InvalidCursorException extends RuntimeException {
+    public InvalidCursorException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,7 @@
+package ru.skypro.homework.exception;
+
+public class ResponseWriteException extends RuntimeException {
+    public ResponseWriteException(String message) {
+        super(message);
+    }
+}
@@ -6,8 +6,12 @@ import org.mapstruct.MappingTarget;
 import ru.skypro.homework.dto.AdsDto;
 import ru.skypro.homework.dto.CreateAdsDto;
 import ru.skypro.homework.dto.FullAdsDto;
+import ru.skypro.homework.dto.ImageDto;
+import ru.skypro.homework.dto.ImportAdsDto;
 import ru.skypro.homework.dto.ResponseWrapperAdsDto;
 import ru.skypro.homework.model.Advert;
+import ru.skypro.homework.model.Image;
+import ru.skypro.homework.repository.projection.AdvertSummary;
 
 import java.util.List;
 
@@ -15,6 +19,8 @@ import java.util.List;
 public interface AdvertMapper {
     Advert createAdsDtoToAdvert(CreateAdsDto createAdsDto);
 
+    Advert importAdsDtoToAdvert(ImportAdsDto importAdsDto);
+
     @Mapping(target = "pk", source = "id")
     @Mapping(target = "author", source = "author.id")
     @Mapping(target = "image", expression = "java(getUrlToImage(advert))")
@@ -28,8 +34,20 @@ public interface AdvertMapper {
     @Mapping(target = "image", expression = "java(getUrlToImage(advert))")
     FullAdsDto advertToFullAdsDto(Advert advert);
 
+    @Mapping(target = "pk", source = "id")
+    @Mapping(target = "author", source = "authorId")
+    @Mapping(target = "image", expression = "java(getUrlToImage(advert))")
+    AdsDto advertSummaryToAdsDto(AdvertSummary advert);
+
+    @Mapping(target = "url", expression = "java(getUrlToImage(advert))")
+    @Mapping(target = "type", source = "photo.fileType")
+    @Mapping(target = "size", source = "photo.fileSize")
+    ImageDto advertToImageDto(Advert advert);
+
     List<AdsDto> advertListToAdsDtoList(List<Advert> adverts);
 
+    List<AdsDto> advertSummaryListToAdsDtoList(List<AdvertSummary> adverts);
+
     void updateAdvert(CreateAdsDto createAdsDto, @MappingTarget Advert advert);
 
     default ResponseWrapperAdsDto listToRespWrapperAdsDto(List<Advert> adverts) {
@@ -39,10 +57,24 @@ public interface AdvertMapper {
         return result;
     }
 
+    default ResponseWrapperAdsDto summaryListToRespWrapperAdsDto(List<AdvertSummary> adverts) {
+        ResponseWrapperAdsDto result = new ResponseWrapperAdsDto();
+        result.setCount(adverts.size());
+        result.setResults(advertSummaryListToAdsDtoList(adverts));
+        return result;
+    }
+
+    default String getUrlToImage(AdvertSummary advert) {
+        if (advert.getPhotoId() == null) {
+            return null;
+        }
+        return Image.versionedUrl("/ads/" + advert.getId() + "/image", advert.getPhotoHash());
+    }
+
     default String getUrlToImage(Advert advert) {
         if (advert.getPhoto() == null) {
             return null;
         }
-        return "/ads/" + advert.getId() + "/image";
+        return Image.versionedUrl("/ads/" + advert.getId() + "/image", advert.getPhoto().getContentHash());
     }
 }
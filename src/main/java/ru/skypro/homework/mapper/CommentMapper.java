@@ -6,6 +6,8 @@ import org.mapstruct.MappingTarget;
 import ru.skypro.homework.dto.CommentDto;
 import ru.skypro.homework.dto.ResponseWrapperCommentDto;
 import ru.skypro.homework.model.Comment;
+import ru.skypro.homework.model.Image;
+import ru.skypro.homework.repository.projection.CommentSummary;
 
 import java.time.Instant;
 import java.time.LocalDateTime;
@@ -36,6 +38,10 @@ public interface CommentMapper {
     @Mapping(expression = "java(getUrlToAvatar(comment))", target = "authorImage")
     CommentDto commentToCommentDto(Comment comment);
 
+    @Mapping(source = "id", target = "pk")
+    @Mapping(source = "authorId", target = "author")
+    @Mapping(expression = "java(getUrlToAvatar(comment))", target = "authorImage")
+    CommentDto commentSummaryToCommentDto(CommentSummary comment);
 
     @Mapping(target = "id", source = "pk")
     @Mapping(source = "author", target = "author.id")
@@ -48,6 +54,8 @@ public interface CommentMapper {
 
     List<CommentDto> commentListToCommentDtoList(List<Comment> comments);
 
+    List<CommentDto> commentSummaryListToCommentDtoList(List<CommentSummary> comments);
+
     default ResponseWrapperCommentDto listToRespWrapperCommentDto(List<Comment> comments) {
         ResponseWrapperCommentDto result = new ResponseWrapperCommentDto();
         result.setCount(comments.size());
@@ -55,10 +63,25 @@ public interface CommentMapper {
         return result;
     }
 
+    default ResponseWrapperCommentDto summaryListToRespWrapperCommentDto(List<CommentSummary> comments) {
+        ResponseWrapperCommentDto result = new ResponseWrapperCommentDto();
+        result.setCount(comments.size());
+        result.setResults(commentSummaryListToCommentDtoList(comments));
+        return result;
+    }
+
+    default String getUrlToAvatar(CommentSummary comment) {
+        if (comment.getAuthorAvatarId() == null) {
+            return null;
+        }
+        return Image.versionedUrl("/users/" + comment.getAuthorId() + "/image", comment.getAuthorAvatarHash());
+    }
+
     default String getUrlToAvatar(Comment comment) {
         if (comment.getAuthor().getAvatar() == null) {
             return null;
         }
-        return "/users/" + comment.getAuthor().getId() + "/image";
+        return Image.versionedUrl("/users/" + comment.getAuthor().getId() + "/image",
+                comment.getAuthor().getAvatar().getContentHash());
     }
 }
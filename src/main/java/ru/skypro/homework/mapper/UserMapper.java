@@ -3,8 +3,10 @@ package ru.skypro.homework.mapper;
 import org.mapstruct.Mapper;
 import org.mapstruct.Mapping;
 import org.mapstruct.MappingTarget;
+import ru.skypro.homework.dto.ImageDto;
 import ru.skypro.homework.dto.RegisterReqDto;
 import ru.skypro.homework.dto.UserDto;
+import ru.skypro.homework.model.Image;
 import ru.skypro.homework.model.User;
 
 @Mapper(componentModel = "spring")
@@ -15,6 +17,11 @@ public interface UserMapper {
     @Mapping(target = "image", expression = "java(getUrlToAvatar(user))")
     UserDto userToUserDto(User user);
 
+    @Mapping(target = "url", expression = "java(getUrlToAvatar(user))")
+    @Mapping(target = "type", source = "avatar.fileType")
+    @Mapping(target = "size", source = "avatar.fileSize")
+    ImageDto userToImageDto(User user);
+
     @Mapping(target = "username", ignore = true)
     @Mapping(target = "password", ignore = true)
     @Mapping(target = "id", expression = "java(user.getId())")
@@ -28,6 +35,6 @@ public interface UserMapper {
         if (user.getAvatar() == null){
             return null;
         }
-        return "/users/me/image";
+        return Image.versionedUrl("/users/me/image", user.getAvatar().getContentHash());
     }
 }
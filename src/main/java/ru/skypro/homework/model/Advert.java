@@ -4,6 +4,7 @@ import lombok.Getter;
 import lombok.Setter;
 
 import javax.persistence.*;
+import java.time.LocalDateTime;
 import java.util.List;
 import java.util.Objects;
 
@@ -11,21 +12,44 @@ import java.util.Objects;
 @Setter
 @Entity
 @Table(name = "adverts")
+@NamedEntityGraph(name = Advert.DETAIL_GRAPH, attributeNodes = {
+        @NamedAttributeNode("author"),
+        @NamedAttributeNode("photo")
+})
+@NamedEntityGraph(name = Advert.OWNER_GRAPH, attributeNodes = @NamedAttributeNode("author"))
+@NamedEntityGraph(name = Advert.PHOTO_GRAPH, attributeNodes = @NamedAttributeNode("photo"))
 public class Advert {
+    /**
+     * Advert with author and photo, for advert detail
+     */
+    public static final String DETAIL_GRAPH = "Advert.detail";
+    /**
+     * Advert with author, for ownership checks
+     */
+    public static final String OWNER_GRAPH = "Advert.owner";
+    /**
+     * Advert with photo, for image download
+     */
+    public static final String PHOTO_GRAPH = "Advert.photo";
+
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "adverts_id_seq")
+    @SequenceGenerator(name = "adverts_id_seq", sequenceName = "adverts_id_seq", allocationSize = 50)
     @Column(nullable = false)
     private int id;
     private String title;
     private String description;
     private int price;
-    @ManyToOne
+    private LocalDateTime createdAt;
+    @Version
+    private long version;
+    @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "user_id", referencedColumnName = "id")
     private User author;
-    @ManyToOne(cascade = CascadeType.REMOVE)
+    @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "image_id", referencedColumnName = "id")
     private Photo photo;
-    @OneToMany(mappedBy = "advert", cascade = CascadeType.REMOVE)
+    @OneToMany(mappedBy = "advert")
     private List<Comment> comments;
 
     @Override
@@ -0,0 +1,45 @@
+package ru.skypro.homework.model;
+
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Table;
+import java.util.Objects;
+
+/**
+ * One of a few rows counting changes of advert listings, so their ETag is read from a tiny table
+ * instead of aggregating all adverts
+ */
+@Getter
+@Setter
+@NoArgsConstructor
+@Entity
+@Table(name = "advert_listing")
+public class AdvertListing {
+    @Id
+    @Column(nullable = false)
+    private int id;
+    private long version;
+
+    public AdvertListing(int id, long version) {
+        this.id = id;
+        this.version = version;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        AdvertListing listing = (AdvertListing) o;
+        return id == listing.id;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(id);
+    }
+}
@@ -12,17 +12,26 @@ import java.util.Objects;
 @Setter
 @Entity
 @Table (name = "comments")
+@NamedEntityGraph(name = Comment.OWNER_GRAPH, attributeNodes = @NamedAttributeNode("author"))
 public class Comment {
+    /**
+     * Comment with author, for ownership checks
+     */
+    public static final String OWNER_GRAPH = "Comment.owner";
+
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "comments_id_seq")
+    @SequenceGenerator(name = "comments_id_seq", sequenceName = "comments_id_seq", allocationSize = 50)
     @Column(name = "id", nullable = false)
     private int id;
     private LocalDateTime createdAt;
     private String text;
-    @ManyToOne
+    @Version
+    private long version;
+    @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "author_id", referencedColumnName = "id")
     private User author;
-    @ManyToOne
+    @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "advert_id", referencedColumnName = "id")
     private Advert advert;
 
@@ -16,8 +16,18 @@ import java.util.Objects;
 @Inheritance(strategy = InheritanceType.SINGLE_TABLE)
 @DiscriminatorColumn(name = "image_type", discriminatorType = DiscriminatorType.STRING)
 public abstract class Image {
+    /**
+     * Query parameter of image URL carrying content version
+     */
+    public static final String VERSION_PARAM = "v";
+    /**
+     * Number of content hash characters used as version in image URL
+     */
+    public static final int VERSION_LENGTH = 16;
+
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "images_id_seq")
+    @SequenceGenerator(name = "images_id_seq", sequenceName = "images_id_seq", allocationSize = 50)
     @Column(nullable = false)
     private int id;
     private String imageDir;
@@ -25,9 +35,115 @@ public abstract class Image {
     private String fileName;
     private String fileExtension;
     private long fileSize;
+    private String contentHash;
+    /**
+     * Whether file is a blob shared by images with the same content, see {@link ImageBlob}
+     */
+    private boolean contentAddressed;
+    /**
+     * Whether file is stored in two levels of shard directories instead of flat image directory
+     */
+    private boolean sharded;
+    /**
+     * Content version in own file name, so new content is published under a new name
+     * and readers of the previous version are not affected. Null for files stored before versioning.
+     */
+    private String fileVersion;
+    /**
+     * Pixel size read from image header on upload, null for images uploaded before it was stored
+     */
+    private Integer width;
+    private Integer height;
 
+    /**
+     * Path of image file. Own file is named {@code id-version.ext}, see {@link #fileVersion}.
+     * Sharded file of image {@code id} is stored in {@code dir/ab/cd/},
+     * where {@code ab} and {@code cd} are the lowest and the next byte of id in hex,
+     * so consecutive ids are spread over all shards. Blobs are sharded by hash prefix.
+     *
+     * @return file path
+     */
     public Path getFilePath() {
-        return Paths.get(this.getImageDir(), this.getId() + "." + this.getFileExtension());
+        return getFilePath(sharded);
+    }
+
+    /**
+     * Path of image file in given directory layout, used while files are migrated between layouts
+     *
+     * @param sharded whether file is in shard directories
+     * @return file path
+     */
+    public Path getFilePath(boolean sharded) {
+        if (contentAddressed) {
+            return blobPath(this.getImageDir(), this.getContentHash(), sharded);
+        }
+        Path dir = Paths.get(this.getImageDir());
+        if (sharded) {
+            dir = dir.resolve(String.format("%02x", id & 0xFF)).resolve(String.format("%02x", (id >> 8) & 0xFF));
+        }
+        return dir.resolve(this.getId() + (fileVersion == null ? "" : "-" + fileVersion) + "." + this.getFileExtension());
+    }
+
+    /**
+     * Path of resized variant, next to original file
+     *
+     * @param width variant width
+     * @return variant path
+     */
+    public Path getVariantPath(int width) {
+        return variantPath(getFilePath(), width);
+    }
+
+    /**
+     * Content type of resized variants: JPEG stays JPEG, other formats become PNG to keep transparency
+     *
+     * @return content type
+     */
+    public String getVariantType() {
+        return "image/jpeg".equals(fileType) ? "image/jpeg" : "image/png";
+    }
+
+    /**
+     * Path of resized variant of file
+     *
+     * @param original original file
+     * @param width    variant width
+     * @return variant path
+     */
+    public static Path variantPath(Path original, int width) {
+        String name = original.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        return original.resolveSibling((dot < 0 ? name : name.substring(0, dot)) + "_" + width);
+    }
+
+    /**
+     * Path of shared blob
+     *
+     * @param dir         blobs directory
+     * @param contentHash SHA-256 of content
+     * @param sharded     whether blob is in shard directories
+     * @return blob path
+     */
+    public static Path blobPath(String dir, String contentHash, boolean sharded) {
+        Path root = Paths.get(dir);
+        if (sharded) {
+            root = root.resolve(contentHash.substring(0, 2)).resolve(contentHash.substring(2, 4));
+        }
+        return root.resolve(contentHash);
+    }
+
+    /**
+     * Append content version to image URL, so URL changes whenever image content changes
+     *
+     * @param url         image URL
+     * @param contentHash SHA-256 of image content, null for images stored before hashing
+     * @return versioned URL
+     */
+    public static String versionedUrl(String url, String contentHash) {
+        if (contentHash == null) {
+            return url;
+        }
+        return url + "?" + VERSION_PARAM + "=" + contentHash.substring(0, VERSION_LENGTH);
     }
 
     @Override
@@ -0,0 +1,60 @@
+package ru.skypro.homework.model;
+
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import org.springframework.data.domain.Persistable;
+
+import javax.persistence.*;
+import java.util.Objects;
+
+/**
+ * Image content stored once under its hash and shared by all images with that content.
+ * Hash is assigned id, so new blob is tracked explicitly to be inserted without prior select.
+ */
+@Getter
+@Setter
+@NoArgsConstructor
+@Entity
+@Table(name = "image_blobs")
+public class ImageBlob implements Persistable<String> {
+    @Id
+    private String contentHash;
+    private int refCount;
+    @Transient
+    private boolean persisted;
+
+    public ImageBlob(String contentHash, int refCount) {
+        this.contentHash = contentHash;
+        this.refCount = refCount;
+    }
+
+    @Override
+    public String getId() {
+        return contentHash;
+    }
+
+    @Override
+    public boolean isNew() {
+        return !persisted;
+    }
+
+    @PostLoad
+    @PostPersist
+    void markPersisted() {
+        persisted = true;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        ImageBlob blob = (ImageBlob) o;
+        return Objects.equals(contentHash, blob.contentHash);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(contentHash);
+    }
+}
@@ -0,0 +1,51 @@
+package ru.skypro.homework.model;
+
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import javax.persistence.*;
+import java.time.LocalDateTime;
+import java.util.Objects;
+
+/**
+ * File of replaced image version, deleted once readers that loaded the previous version are done with it.
+ * Recorded in the transaction that replaces image, so it is not lost on crash.
+ */
+@Getter
+@Setter
+@NoArgsConstructor
+@Entity
+@Table(name = "image_garbage")
+public class ImageGarbage {
+    @Id
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "image_garbage_id_seq")
+    @SequenceGenerator(name = "image_garbage_id_seq", sequenceName = "image_garbage_id_seq", allocationSize = 50)
+    @Column(nullable = false)
+    private long id;
+    private String path;
+    /**
+     * Hash of shared blob, which is kept if it got referenced again meanwhile
+     */
+    private String contentHash;
+    private LocalDateTime deleteAfter;
+
+    public ImageGarbage(String path, String contentHash, LocalDateTime deleteAfter) {
+        this.path = path;
+        this.contentHash = contentHash;
+        this.deleteAfter = deleteAfter;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        ImageGarbage garbage = (ImageGarbage) o;
+        return id == garbage.id;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(id);
+    }
+}
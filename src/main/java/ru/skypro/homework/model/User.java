@@ -4,6 +4,7 @@ import lombok.Getter;
 import lombok.Setter;
 
 import javax.persistence.*;
+import java.time.LocalDateTime;
 import java.util.Objects;
 import java.util.Set;
 
@@ -11,9 +12,16 @@ import java.util.Set;
 @Setter
 @Entity
 @Table(name = "users")
+@NamedEntityGraph(name = User.AVATAR_GRAPH, attributeNodes = @NamedAttributeNode("avatar"))
 public class User {
+    /**
+     * User with avatar, for avatar download
+     */
+    public static final String AVATAR_GRAPH = "User.avatar";
+
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "users_id_seq")
+    @SequenceGenerator(name = "users_id_seq", sequenceName = "users_id_seq", allocationSize = 50)
     @Column(nullable = false)
     private int id;
     private String username;
@@ -21,15 +29,21 @@ public class User {
     private String firstName;
     private String lastName;
     private String phone;
-    @ManyToOne
+    @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "image_id", referencedColumnName = "id")
     private Avatar avatar;
     @Enumerated(EnumType.STRING)
     private Role role;
     @Column(name = "enabled")
     private boolean isEnabled;
+    /**
+     * When purge of deleted user was requested or last made progress, null for active user
+     */
+    private LocalDateTime purgeRequestedAt;
+    @Version
+    private long version;
 
-    @OneToMany(mappedBy = "author", cascade = CascadeType.REMOVE)
+    @OneToMany(mappedBy = "author")
     private Set<Advert> adverts;
 
     @Override
@@ -0,0 +1,18 @@
+package ru.skypro.homework.repository;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import ru.skypro.homework.model.AdvertListing;
+
+@Repository
+public interface AdvertListingRepository extends JpaRepository<AdvertListing, Integer> {
+    @Modifying
+    @Query("update AdvertListing l set l.version = l.version + 1 where l.id = :id")
+    int increment(@Param("id") int id);
+
+    @Query("select sum(l.version) from AdvertListing l")
+    Long sumVersions();
+}
@@ -1,13 +1,69 @@
 package ru.skypro.homework.repository;
 
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 import ru.skypro.homework.model.Advert;
-import ru.skypro.homework.model.User;
+import ru.skypro.homework.repository.projection.AdvertVersion;
 
+import javax.persistence.LockModeType;
+import java.util.Collection;
 import java.util.List;
+import java.util.Optional;
 
 @Repository
-public interface AdvertRepository extends JpaRepository<Advert, Integer> {
+public interface AdvertRepository extends JpaRepository<Advert, Integer>, AdvertRepositoryCustom {
     List<Advert> findByAuthorId(int userId);
+
+    @Query("select new ru.skypro.homework.repository.projection.AdvertVersion(a.version, coalesce(u.version, 0)) " +
+            "from Advert a left join a.author u where a.id = :id")
+    Optional<AdvertVersion> findVersionById(@Param("id") int id);
+
+    @Query("select a.id from Advert a where a.author.id = :authorId")
+    List<Integer> findIdsByAuthorId(@Param("authorId") int authorId);
+
+    @EntityGraph(Advert.DETAIL_GRAPH)
+    Optional<Advert> findDetailById(int id);
+
+    @EntityGraph(Advert.OWNER_GRAPH)
+    Optional<Advert> findWithAuthorById(int id);
+
+    /**
+     * Image url is part of advert, so replacing image has to change advert version
+     */
+    @Lock(LockModeType.OPTIMISTIC_FORCE_INCREMENT)
+    @EntityGraph(Advert.OWNER_GRAPH)
+    Optional<Advert> findForImageUpdateById(int id);
+
+    @EntityGraph(Advert.PHOTO_GRAPH)
+    Optional<Advert> findWithPhotoById(int id);
+
+    @EntityGraph(Advert.PHOTO_GRAPH)
+    List<Advert> findWithPhotoByAuthorId(int authorId, Pageable pageable);
+
+    @Modifying
+    @Query("delete from Advert a where a.id in :ids")
+    int deleteByIds(@Param("ids") Collection<Integer> ids);
+
+    List<Advert> findByIdGreaterThanOrderByIdAsc(int id, Pageable pageable);
+
+    @EntityGraph(Advert.PHOTO_GRAPH)
+    List<Advert> findWithPhotoByIdIn(Collection<Integer> ids);
+
+    @Query(value = "select a.id from adverts a " +
+            "where a.search_vector @@ plainto_tsquery('russian', :query) " +
+            "order by ts_rank(a.search_vector, plainto_tsquery('russian', :query)) desc, a.id",
+            nativeQuery = true)
+    List<Integer> searchIdsFullText(@Param("query") String query, Pageable pageable);
+
+    @EntityGraph(Advert.PHOTO_GRAPH)
+    @Query("select a from Advert a " +
+            "where lower(a.title) like :pattern escape '\\' or lower(a.description) like :pattern escape '\\' " +
+            "order by case when lower(a.title) like :pattern escape '\\' then 0 else 1 end, a.id")
+    List<Advert> searchByPattern(@Param("pattern") String pattern, Pageable pageable);
 }
@@ -0,0 +1,29 @@
+package ru.skypro.homework.repository;
+
+import ru.skypro.homework.dto.AdsCursor;
+import ru.skypro.homework.dto.AdsFilter;
+import ru.skypro.homework.repository.projection.AdvertSummary;
+
+import java.util.List;
+import java.util.stream.Stream;
+
+public interface AdvertRepositoryCustom {
+    /**
+     * Find page of adverts matching filter, in filter sort order, right after cursor
+     *
+     * @param filter {@link AdsFilter}
+     * @param cursor {@link AdsCursor}, null for the first page
+     * @param limit  max number of adverts
+     * @return {@link AdvertSummary} list
+     */
+    List<AdvertSummary> findPage(AdsFilter filter, AdsCursor cursor, int limit);
+
+    /**
+     * Stream all adverts matching filter, in filter sort order.
+     * Rows are fetched from database in batches, stream must be consumed inside transaction and closed.
+     *
+     * @param filter {@link AdsFilter}
+     * @return {@link AdvertSummary} stream
+     */
+    Stream<AdvertSummary> streamAll(AdsFilter filter);
+}
@@ -0,0 +1,119 @@
+package ru.skypro.homework.repository;
+
+import org.hibernate.jpa.QueryHints;
+import ru.skypro.homework.dto.AdsCursor;
+import ru.skypro.homework.dto.AdsFilter;
+import ru.skypro.homework.dto.AdsSort;
+import ru.skypro.homework.model.Advert;
+import ru.skypro.homework.repository.projection.AdvertSummary;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.persistence.criteria.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Keyset pagination over adverts with optional filters.
+ * Sort key and id are compared as a pair, expanded to {@code key > last or (key = last and id > lastId)}
+ * as criteria queries have no row values. A redundant {@code key >= last} bound is added, so the planner
+ * starts the scan of composite index on (sort key, id) at the cursor instead of filtering from the start.
+ * Only listing columns are selected.
+ */
+public class AdvertRepositoryImpl implements AdvertRepositoryCustom {
+    private static final int STREAM_FETCH_SIZE = 500;
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Override
+    public List<AdvertSummary> findPage(AdsFilter filter, AdsCursor cursor, int limit) {
+        return entityManager.createQuery(select(filter, cursor))
+                .setMaxResults(limit)
+                .getResultList();
+    }
+
+    @Override
+    public Stream<AdvertSummary> streamAll(AdsFilter filter) {
+        return entityManager.createQuery(select(filter, null))
+                .setHint(QueryHints.HINT_FETCH_SIZE, STREAM_FETCH_SIZE)
+                .getResultStream();
+    }
+
+    private CriteriaQuery<AdvertSummary> select(AdsFilter filter, AdsCursor cursor) {
+        AdsSort sort = filter.getSort() == null ? AdsSort.ID : filter.getSort();
+        CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+        CriteriaQuery<AdvertSummary> query = cb.createQuery(AdvertSummary.class);
+        Root<Advert> advert = query.from(Advert.class);
+        Join<Object, Object> author = advert.join("author", JoinType.LEFT);
+        Join<Object, Object> photo = advert.join("photo", JoinType.LEFT);
+
+        List<Predicate> predicates = new ArrayList<>();
+        if (filter.getMinPrice() != null) {
+            predicates.add(cb.ge(advert.get("price"), filter.getMinPrice()));
+        }
+        if (filter.getMaxPrice() != null) {
+            predicates.add(cb.le(advert.get("price"), filter.getMaxPrice()));
+        }
+        if (filter.getAuthorId() != null) {
+            predicates.add(cb.equal(author.get("id"), filter.getAuthorId()));
+        }
+        if (cursor != null) {
+            predicates.add(after(cb, advert, sort, cursor));
+        }
+
+        List<Order> orders = new ArrayList<>();
+        if (sort != AdsSort.ID) {
+            orders.add(order(cb, advert.get(sort.getAttribute()), sort.isAscending()));
+        }
+        orders.add(order(cb, advert.get("id"), sort.isAscending()));
+
+        query.select(cb.construct(AdvertSummary.class,
+                        advert.get("id"),
+                        advert.get("title"),
+                        advert.get("price"),
+                        advert.get("createdAt"),
+                        author.get("id"),
+                        photo.get("id"),
+                        photo.get("contentHash")))
+                .where(predicates.toArray(new Predicate[0]))
+                .orderBy(orders);
+        return query;
+    }
+
+    private Predicate after(CriteriaBuilder cb, Root<Advert> advert, AdsSort sort, AdsCursor cursor) {
+        Path<Integer> id = advert.get("id");
+        switch (sort) {
+            case PRICE_ASC:
+            case PRICE_DESC:
+                return after(cb, advert.get(sort.getAttribute()), cursor.getPrice(), id, cursor.getId(),
+                        sort.isAscending());
+            case CREATED_ASC:
+            case CREATED_DESC:
+                return after(cb, advert.get(sort.getAttribute()), cursor.getCreatedAt(), id, cursor.getId(),
+                        sort.isAscending());
+            default:
+                return sort.isAscending() ? cb.gt(id, cursor.getId()) : cb.lt(id, cursor.getId());
+        }
+    }
+
+    /**
+     * (key, id) strictly after (lastKey, lastId) in given direction, with key bounded by lastKey
+     */
+    private <T extends Comparable<? super T>> Predicate after(CriteriaBuilder cb,
+                                                             Path<T> key, T lastKey,
+                                                             Path<Integer> id, int lastId,
+                                                             boolean ascending) {
+        if (ascending) {
+            return cb.and(cb.greaterThanOrEqualTo(key, lastKey),
+                    cb.or(cb.greaterThan(key, lastKey), cb.and(cb.equal(key, lastKey), cb.gt(id, lastId))));
+        }
+        return cb.and(cb.lessThanOrEqualTo(key, lastKey),
+                cb.or(cb.lessThan(key, lastKey), cb.and(cb.equal(key, lastKey), cb.lt(id, lastId))));
+    }
+
+    private Order order(CriteriaBuilder cb, Expression<?> expression, boolean ascending) {
+        return ascending ? cb.asc(expression) : cb.desc(expression);
+    }
+}
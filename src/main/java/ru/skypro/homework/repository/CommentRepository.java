@@ -1,12 +1,52 @@
 package ru.skypro.homework.repository;
 
+import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 import ru.skypro.homework.model.Comment;
+import ru.skypro.homework.repository.projection.CommentSummary;
 
+import javax.persistence.QueryHint;
+import java.util.Collection;
 import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+import static org.hibernate.jpa.QueryHints.HINT_FETCH_SIZE;
 
 @Repository
 public interface CommentRepository extends JpaRepository<Comment, Integer> {
-    List<Comment> findAllByAdvertId(Integer advertId);
+    @EntityGraph(Comment.OWNER_GRAPH)
+    Optional<Comment> findWithAuthorById(int id);
+
+    @Modifying
+    @Query("delete from Comment c where c.advert.id = :advertId")
+    int deleteByAdvertId(@Param("advertId") int advertId);
+
+    @Modifying
+    @Query("delete from Comment c where c.advert.id in :advertIds")
+    int deleteByAdvertIds(@Param("advertIds") Collection<Integer> advertIds);
+
+    @Modifying
+    @Query(value = "delete from comments where id in " +
+            "(select id from comments where author_id = :authorId limit :limit)",
+            nativeQuery = true)
+    int deleteChunkByAuthorId(@Param("authorId") int authorId, @Param("limit") int limit);
+
+    @Query("select new ru.skypro.homework.repository.projection.CommentSummary(" +
+            "c.id, c.text, c.createdAt, u.id, u.firstName, av.id, av.contentHash) " +
+            "from Comment c left join c.author u left join u.avatar av " +
+            "where c.advert.id = :advertId order by c.id")
+    List<CommentSummary> findSummariesByAdvertId(@Param("advertId") Integer advertId);
+
+    @QueryHints(@QueryHint(name = HINT_FETCH_SIZE, value = "500"))
+    @Query("select new ru.skypro.homework.repository.projection.CommentSummary(" +
+            "c.id, c.text, c.createdAt, u.id, u.firstName, av.id, av.contentHash) " +
+            "from Comment c left join c.author u left join u.avatar av " +
+            "where c.advert.id = :advertId order by c.id")
+    Stream<CommentSummary> streamSummariesByAdvertId(@Param("advertId") Integer advertId);
 }
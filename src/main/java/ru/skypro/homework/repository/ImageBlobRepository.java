@@ -0,0 +1,48 @@
+package ru.skypro.homework.repository;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import ru.skypro.homework.model.ImageBlob;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+
+@Repository
+public interface ImageBlobRepository extends JpaRepository<ImageBlob, String> {
+    /**
+     * Insert blob without references unless it exists. A concurrent insert of the same hash
+     * waits for the first one instead of failing on primary key.
+     */
+    @Modifying
+    @Query(value = "insert into image_blobs (content_hash, ref_count) values (:hash, 0) " +
+            "on conflict do nothing",
+            nativeQuery = true)
+    int insertIfMissing(@Param("hash") String hash);
+
+    @Modifying
+    @Query("update ImageBlob b set b.refCount = b.refCount + 1 where b.contentHash = :hash")
+    int reference(@Param("hash") String hash);
+
+    @Modifying
+    @Query("update ImageBlob b set b.refCount = b.refCount - :count where b.contentHash = :hash")
+    int release(@Param("hash") String hash, @Param("count") int count);
+
+    @Query("select b.contentHash from ImageBlob b where b.contentHash in :hashes and b.refCount <= 0")
+    List<String> findUnreferencedHashes(@Param("hashes") Collection<String> hashes);
+
+    /**
+     * Delete blob left without references, unless it was released again and waits for a later grace period.
+     * Deleted row stays locked until commit, so an upload of the same content waits for its file to be deleted.
+     */
+    @Modifying
+    @Query("delete from ImageBlob b where b.contentHash = :hash and b.refCount <= 0 " +
+            "and not exists (select g.id from ImageGarbage g where g.contentHash = :hash and g.deleteAfter > :now)")
+    int deleteUnreferenced(@Param("hash") String hash, @Param("now") LocalDateTime now);
+
+    @Query("select b.contentHash from ImageBlob b where b.contentHash in :hashes")
+    List<String> findExistingHashes(@Param("hashes") Collection<String> hashes);
+}
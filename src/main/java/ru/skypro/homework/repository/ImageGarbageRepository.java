@@ -0,0 +1,32 @@
+package ru.skypro.homework.repository;
+
+import org.hibernate.LockOptions;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import ru.skypro.homework.model.ImageGarbage;
+
+import javax.persistence.LockModeType;
+import javax.persistence.QueryHint;
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+
+@Repository
+public interface ImageGarbageRepository extends JpaRepository<ImageGarbage, Long> {
+    /**
+     * Lock records which are due, skipping records locked by a sweep on another node.
+     * Lock timeout {@link LockOptions#SKIP_LOCKED} is rendered as {@code for update skip locked} where supported.
+     */
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @QueryHints(@QueryHint(name = "javax.persistence.lock.timeout", value = "" + LockOptions.SKIP_LOCKED))
+    @Query("select g from ImageGarbage g where g.deleteAfter <= :now order by g.deleteAfter")
+    List<ImageGarbage> lockDue(@Param("now") LocalDateTime now, Pageable pageable);
+
+    @Query("select distinct g.contentHash from ImageGarbage g where g.contentHash in :hashes")
+    List<String> findPendingHashes(@Param("hashes") Collection<String> hashes);
+}
@@ -1,10 +1,57 @@
 package ru.skypro.homework.repository;
 
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 import ru.skypro.homework.model.Image;
 
+import javax.persistence.LockModeType;
+import java.util.Collection;
+import java.util.List;
+
 @Repository
 public interface ImageRepository extends JpaRepository<Image, Integer> {
+    @Modifying
+    @Query("delete from images i where i.id in :ids")
+    int deleteByIds(@Param("ids") Collection<Integer> ids);
+
+    @Query("select i from images i where i.contentAddressed = false and i.sharded <> :sharded" +
+            " and i.id > :afterId order by i.id")
+    List<Image> findOwnFilesToMigrate(@Param("sharded") boolean sharded, @Param("afterId") int afterId,
+                                      Pageable pageable);
+
+    @Query("select distinct i.contentHash from images i where i.contentAddressed = true and i.sharded <> :sharded" +
+            " and i.contentHash > :after order by i.contentHash")
+    List<String> findBlobsToMigrate(@Param("sharded") boolean sharded, @Param("after") String after,
+                                    Pageable pageable);
+
+    @Query("select count(i) from images i where i.sharded <> :sharded")
+    long countToMigrate(@Param("sharded") boolean sharded);
+
+    @Modifying
+    @Query("update images i set i.sharded = :sharded where i.id in :ids")
+    int updateLayoutByIds(@Param("ids") Collection<Integer> ids, @Param("sharded") boolean sharded);
+
+    @Modifying
+    @Query("update images i set i.sharded = :sharded where i.contentAddressed = true and i.contentHash in :hashes")
+    int updateLayoutByHashes(@Param("hashes") Collection<String> hashes, @Param("sharded") boolean sharded);
+
+    @Query("select i from images i where i.id > :afterId" +
+            " and not exists (select a.id from Advert a where a.photo = i)" +
+            " and not exists (select u.id from User u where u.avatar = i) order by i.id")
+    List<Image> findUnowned(@Param("afterId") int afterId, Pageable pageable);
+
+    @Query("select i from images i where i.id > :afterId order by i.id")
+    List<Image> findPage(@Param("afterId") int afterId, Pageable pageable);
+
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("select i from images i where i.id in :ids")
+    List<Image> lockByIds(@Param("ids") Collection<Integer> ids);
 
+    @Query("select i.id from images i where i.id in :ids")
+    List<Integer> findExistingIds(@Param("ids") Collection<Integer> ids);
 }
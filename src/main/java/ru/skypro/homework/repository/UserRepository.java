@@ -1,10 +1,50 @@
 package ru.skypro.homework.repository;
 
+import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 import ru.skypro.homework.model.User;
 
+import javax.persistence.LockModeType;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+
 @Repository
 public interface UserRepository extends JpaRepository<User, Integer> {
     User findByUsername(String email);
+
+    @Query("select u.version from User u where u.username = :username")
+    Long findVersionByUsername(@Param("username") String username);
+
+    @EntityGraph(User.AVATAR_GRAPH)
+    User findWithAvatarByUsername(String email);
+
+    @EntityGraph(User.AVATAR_GRAPH)
+    Optional<User> findWithAvatarById(int id);
+
+    /**
+     * Avatar url is part of user, so replacing avatar has to change user version
+     */
+    @Lock(LockModeType.OPTIMISTIC_FORCE_INCREMENT)
+    @EntityGraph(User.AVATAR_GRAPH)
+    User findForImageUpdateByUsername(String email);
+
+    @Query("select u.id from User u where u.purgeRequestedAt <= :before order by u.purgeRequestedAt")
+    List<Integer> findIdsByPurgeRequestedAtBefore(@Param("before") LocalDateTime before, Pageable pageable);
+
+    /**
+     * Move purge mark of user to {@code now}, if it is not later than {@code before}.
+     * Only one of concurrent callers with the same {@code before} succeeds.
+     *
+     * @return 1 if mark was moved, 0 otherwise
+     */
+    @Modifying
+    @Query("update User u set u.purgeRequestedAt = :now where u.id = :id and u.purgeRequestedAt <= :before")
+    int renewPurge(@Param("id") int id, @Param("before") LocalDateTime before, @Param("now") LocalDateTime now);
 }
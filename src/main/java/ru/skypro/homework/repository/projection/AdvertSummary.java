@@ -0,0 +1,21 @@
+package ru.skypro.homework.repository.projection;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.time.LocalDateTime;
+
+/**
+ * Columns of advert needed for listings, selected without loading {@link ru.skypro.homework.model.Advert}
+ */
+@Data
+@AllArgsConstructor
+public class AdvertSummary {
+    private int id;
+    private String title;
+    private int price;
+    private LocalDateTime createdAt;
+    private Integer authorId;
+    private Integer photoId;
+    private String photoHash;
+}
@@ -0,0 +1,14 @@
+package ru.skypro.homework.repository.projection;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * Versions of advert and its author, both change advert details
+ */
+@Data
+@AllArgsConstructor
+public class AdvertVersion {
+    private long version;
+    private long authorVersion;
+}
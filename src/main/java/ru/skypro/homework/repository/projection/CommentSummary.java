@@ -0,0 +1,22 @@
+package ru.skypro.homework.repository.projection;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.time.LocalDateTime;
+
+/**
+ * Columns of comment and its author needed for listings,
+ * selected without loading {@link ru.skypro.homework.model.Comment}
+ */
+@Data
+@AllArgsConstructor
+public class CommentSummary {
+    private int id;
+    private String text;
+    private LocalDateTime createdAt;
+    private Integer authorId;
+    private String authorFirstName;
+    private Integer authorAvatarId;
+    private String authorAvatarHash;
+}
@@ -0,0 +1,421 @@
+package ru.skypro.homework.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.multipart.MultipartFile;
+import ru.skypro.homework.component.AdvertListingVersion;
+import ru.skypro.homework.component.AdvertSearchIndex;
+import ru.skypro.homework.component.AuthenticationComponent;
+import ru.skypro.homework.configuration.ImportConfig;
+import ru.skypro.homework.dto.ImportAdsDto;
+import ru.skypro.homework.dto.ImportItemDto;
+import ru.skypro.homework.dto.ResponseWrapperImportDto;
+import ru.skypro.homework.exception.AdvertImportException;
+import ru.skypro.homework.exception.ImageUploadException;
+import ru.skypro.homework.exception.UserUnauthorizedException;
+import ru.skypro.homework.mapper.AdvertMapper;
+import ru.skypro.homework.model.Advert;
+import ru.skypro.homework.model.Photo;
+import ru.skypro.homework.model.User;
+import ru.skypro.homework.repository.AdvertRepository;
+import ru.skypro.homework.repository.ImageRepository;
+import ru.skypro.homework.repository.UserRepository;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Service for bulk import of adverts via {@link AdvertRepository}.
+ * Adverts are persisted in chunks, one transaction and one JDBC batch per chunk,
+ * while image files of a chunk are staged in parallel on a bounded pool before its transaction.
+ */
+@Service
+@Slf4j
+public class AdvertImportService {
+    /**
+     * Column limits of {@code adverts.title} and {@code images.file_name}
+     */
+    private static final int TITLE_LENGTH = 100;
+    private static final int FILE_NAME_LENGTH = 100;
+
+    @Value("${path.to.photos.folder}")
+    private String photosDir;
+    @Value("${ads.import.chunk-size}")
+    private int chunkSize;
+    private final AdvertRepository advertRepository;
+    private final ImageRepository imageRepository;
+    private final UserRepository userRepository;
+    private final AdvertMapper advertMapper;
+    private final AuthenticationComponent auth;
+    private final AdvertSearchIndex searchIndex;
+    private final AdvertListingVersion listingVersion;
+    private final ImageService imageService;
+    private final ObjectMapper objectMapper;
+    private final TransactionTemplate transactionTemplate;
+    private final ExecutorService importExecutor;
+
+    public AdvertImportService(AdvertRepository advertRepository,
+                               ImageRepository imageRepository,
+                               UserRepository userRepository,
+                               AdvertMapper advertMapper,
+                               AuthenticationComponent auth,
+                               AdvertSearchIndex searchIndex,
+                               AdvertListingVersion listingVersion,
+                               ImageService imageService,
+                               ObjectMapper objectMapper,
+                               PlatformTransactionManager transactionManager,
+                               @Qualifier(ImportConfig.IMPORT_EXECUTOR) ExecutorService importExecutor) {
+        this.advertRepository = advertRepository;
+        this.imageRepository = imageRepository;
+        this.userRepository = userRepository;
+        this.advertMapper = advertMapper;
+        this.auth = auth;
+        this.searchIndex = searchIndex;
+        this.listingVersion = listingVersion;
+        this.imageService = imageService;
+        this.objectMapper = objectMapper;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.importExecutor = importExecutor;
+    }
+
+    /**
+     * Import adverts of authorized user. Every line of {@code adverts} is one {@link ImportAdsDto},
+     * its {@code image} refers to an entry of {@code images} zip archive.
+     * A failed line does not stop the import and is reported in results.
+     *
+     * @param adverts NDJSON file of {@link ImportAdsDto}
+     * @param images  zip archive of images, may be null
+     * @return {@link ResponseWrapperImportDto}
+     */
+    public ResponseWrapperImportDto importAdverts(MultipartFile adverts, MultipartFile images) {
+        log.info("Import adverts from file: " + adverts.getOriginalFilename());
+        int authorId = findAuthUser().getId();
+        List<ImportItemDto> results = new ArrayList<>();
+        try (ImageArchive archive = ImageArchive.open(images);
+             BufferedReader reader = new BufferedReader(
+                     new InputStreamReader(adverts.getInputStream(), StandardCharsets.UTF_8))) {
+            List<ImportItem> chunk = new ArrayList<>(chunkSize);
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (line.isBlank()) {
+                    continue;
+                }
+                ImportItem item = parse(lineNumber, line, archive);
+                if (item.error != null) {
+                    results.add(new ImportItemDto(item.line, null, item.error));
+                    continue;
+                }
+                chunk.add(item);
+                if (chunk.size() == chunkSize) {
+                    importChunk(chunk, authorId, archive, results);
+                    chunk.clear();
+                }
+            }
+            if (!chunk.isEmpty()) {
+                importChunk(chunk, authorId, archive, results);
+            }
+        } catch (IOException exception) {
+            log.error(exception.getMessage());
+            throw new AdvertImportException(exception.getMessage());
+        }
+        results.sort(Comparator.comparingInt(ImportItemDto::getLine));
+        ResponseWrapperImportDto result = new ResponseWrapperImportDto();
+        result.setCount(results.size());
+        result.setCreated((int) results.stream().filter(item -> item.getPk() != null).count());
+        result.setResults(results);
+        log.info("Imported " + result.getCreated() + " of " + result.getCount() + " adverts");
+        return result;
+    }
+
+    private ImportItem parse(int line, String json, ImageArchive archive) {
+        ImportItem item = new ImportItem(line);
+        try {
+            item.dto = objectMapper.readValue(json, ImportAdsDto.class);
+        } catch (JsonProcessingException exception) {
+            item.error = "Invalid advert: " + exception.getOriginalMessage();
+            return item;
+        }
+        if (item.dto.getTitle() == null || item.dto.getTitle().isBlank()) {
+            item.error = "Title is empty";
+        } else if (item.dto.getTitle().length() > TITLE_LENGTH) {
+            item.error = "Title is longer than " + TITLE_LENGTH + " characters";
+        } else if (item.dto.getPrice() < 0) {
+            item.error = "Price is negative";
+        } else if (item.dto.getImage() != null) {
+            item.image = archive.find(item.dto.getImage());
+            if (item.image == null) {
+                item.error = "Image not found in archive: " + item.dto.getImage();
+            } else if (fileName(item.image).length() > FILE_NAME_LENGTH) {
+                item.error = "Image name is longer than " + FILE_NAME_LENGTH + " characters";
+            }
+        }
+        return item;
+    }
+
+    /**
+     * Stage images of chunk and persist chunk in one transaction, which publishes its images before commit,
+     * so an advert reported as created always has its image.
+     * A failed chunk is retried item by item, so only the rows that fail are reported.
+     * Staging files are released whether chunk is committed or not.
+     */
+    private void importChunk(List<ImportItem> chunk, int authorId, ImageArchive archive, List<ImportItemDto> results) {
+        try {
+            stage(chunk, archive);
+            chunk.forEach(ImportItem::staged);
+            try {
+                transactionTemplate.executeWithoutResult(status -> persist(chunk, authorId));
+            } catch (RuntimeException exception) {
+                if (chunk.size() == 1) {
+                    throw exception;
+                }
+                log.error("Chunk failed, retrying item by item: " + exception.getMessage());
+                for (ImportItem item : chunk) {
+                    persistAlone(item, authorId, archive);
+                }
+            }
+            for (ImportItem item : chunk) {
+                results.add(item.error == null
+                        ? new ImportItemDto(item.line, item.advert.getId(), null)
+                        : new ImportItemDto(item.line, null, item.error));
+            }
+        } catch (RuntimeException exception) {
+            log.error(exception.getMessage());
+            for (ImportItem item : chunk) {
+                results.add(new ImportItemDto(item.line, null,
+                        item.error == null ? exception.getMessage() : item.error));
+            }
+        } finally {
+            for (ImportItem item : chunk) {
+                imageService.release(item.staged);
+            }
+        }
+    }
+
+    /**
+     * Persist item of failed chunk in its own transaction, recording its error.
+     * Image is staged again, as the rolled back chunk may have moved its staging file to storage.
+     */
+    private void persistAlone(ImportItem item, int authorId, ImageArchive archive) {
+        item.reset();
+        if (item.error != null) {
+            return;
+        }
+        if (item.image != null) {
+            imageService.release(item.staged);
+            item.staged = null;
+            stage(List.of(item), archive);
+            if (item.error != null) {
+                return;
+            }
+        }
+        try {
+            transactionTemplate.executeWithoutResult(status -> persist(List.of(item), authorId));
+        } catch (RuntimeException exception) {
+            log.error("Line " + item.line + " not imported: " + exception.getMessage());
+            item.reset();
+            item.error = exception.getMessage();
+        }
+    }
+
+    /**
+     * Images are copied in parallel to staging files, hashing them on the way,
+     * before the transaction of chunk is opened
+     */
+    private void stage(List<ImportItem> chunk, ImageArchive archive) {
+        List<Future<?>> uploads = new ArrayList<>();
+        for (ImportItem item : chunk) {
+            uploads.add(item.image == null ? null
+                    : importExecutor.submit(() -> stage(archive, item)));
+        }
+        for (int i = 0; i < chunk.size(); i++) {
+            await(uploads.get(i), chunk.get(i));
+        }
+    }
+
+    /**
+     * Insert adverts and photos of staged items. An item whose image fails to publish
+     * is reported with its error and its photo is deleted, the rest of chunk is inserted.
+     */
+    private void persist(List<ImportItem> chunk, int authorId) {
+        User author = userRepository.getReferenceById(authorId);
+        LocalDateTime createdAt = LocalDateTime.now().truncatedTo(ChronoUnit.MICROS);
+        List<Photo> photos = new ArrayList<>();
+        for (ImportItem item : chunk) {
+            if (item.error != null) {
+                continue;
+            }
+            item.advert = advertMapper.importAdsDtoToAdvert(item.dto);
+            item.advert.setAuthor(author);
+            item.advert.setCreatedAt(createdAt);
+            if (item.image != null) {
+                item.photo = new Photo(photosDir);
+                imageService.fill(item.photo, item.staged);
+                item.advert.setPhoto(item.photo);
+                photos.add(item.photo);
+            }
+        }
+        imageRepository.saveAll(photos);
+        List<Photo> failed = new ArrayList<>();
+        List<Advert> adverts = new ArrayList<>();
+        for (ImportItem item : chunk) {
+            if (item.error != null) {
+                continue;
+            }
+            if (item.photo != null) {
+                try {
+                    imageService.attach(item.photo, item.staged);
+                } catch (ImageUploadException exception) {
+                    item.error = "Image upload failed: " + exception.getMessage();
+                    failed.add(item.photo);
+                    continue;
+                }
+            }
+            adverts.add(item.advert);
+        }
+        imageService.delete(failed);
+        advertRepository.saveAll(adverts);
+        listingVersion.changed();
+        adverts.forEach(searchIndex::add);
+    }
+
+    private void stage(ImageArchive archive, ImportItem item) {
+        String fileName = fileName(item.image);
+        try (InputStream in = archive.open(item.image)) {
+            item.staged = imageService.stage(in, fileName);
+        } catch (IOException exception) {
+            throw new ImageUploadException(exception.getMessage());
+        }
+    }
+
+    /**
+     * Wait for image upload of item, recording its error
+     */
+    private void await(Future<?> upload, ImportItem item) {
+        if (upload == null) {
+            return;
+        }
+        try {
+            upload.get();
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+            throw new ImageUploadException("Import interrupted");
+        } catch (ExecutionException exception) {
+            log.error(exception.getCause().getMessage());
+            item.error = "Image upload failed: " + exception.getCause().getMessage();
+        }
+    }
+
+    private static String fileName(ZipEntry entry) {
+        return Path.of(entry.getName()).getFileName().toString();
+    }
+
+    private User findAuthUser() {
+        User user = userRepository.findByUsername(auth.getAuth().getName());
+        if (user == null) {
+            throw new UserUnauthorizedException("User not found");
+        }
+        return user;
+    }
+
+    /**
+     * One line of import and entities created for it
+     */
+    private static final class ImportItem {
+        private final int line;
+        private ImportAdsDto dto;
+        private ZipEntry image;
+        private StagedImage staged;
+        private Photo photo;
+        private Advert advert;
+        private String error;
+        private String stageError;
+
+        private ImportItem(int line) {
+            this.line = line;
+        }
+
+        /**
+         * Remember outcome of staging, which a retry of persisting keeps
+         */
+        private void staged() {
+            stageError = error;
+        }
+
+        /**
+         * Forget entities and error of a rolled back persist
+         */
+        private void reset() {
+            advert = null;
+            photo = null;
+            error = stageError;
+        }
+    }
+
+    /**
+     * Uploaded zip archive spooled to temporary file, so entries can be read concurrently
+     */
+    private static final class ImageArchive implements Closeable {
+        private final Path file;
+        private final ZipFile zip;
+
+        private ImageArchive(Path file, ZipFile zip) {
+            this.file = file;
+            this.zip = zip;
+        }
+
+        private static ImageArchive open(MultipartFile images) throws IOException {
+            if (images == null || images.isEmpty()) {
+                return new ImageArchive(null, null);
+            }
+            Path file = Files.createTempFile("ads-import", ".zip");
+            try {
+                images.transferTo(file);
+                return new ImageArchive(file, new ZipFile(file.toFile()));
+            } catch (IOException exception) {
+                Files.deleteIfExists(file);
+                throw exception;
+            }
+        }
+
+        private ZipEntry find(String name) {
+            if (zip == null) {
+                return null;
+            }
+            ZipEntry entry = zip.getEntry(name);
+            return entry == null || entry.isDirectory() ? null : entry;
+        }
+
+        private InputStream open(ZipEntry entry) throws IOException {
+            return zip.getInputStream(entry);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (zip != null) {
+                try {
+                    zip.close();
+                } finally {
+                    Files.deleteIfExists(file);
+                }
+            }
+        }
+    }
+}
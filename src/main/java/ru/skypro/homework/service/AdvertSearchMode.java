@@ -0,0 +1,19 @@
+package ru.skypro.homework.service;
+
+/**
+ * Strategy used by {@link AdvertService#search} to match adverts
+ */
+public enum AdvertSearchMode {
+    /**
+     * PostgreSQL full-text search over generated tsvector column
+     */
+    FULL_TEXT,
+    /**
+     * Case-insensitive substring match, works on any database
+     */
+    LIKE,
+    /**
+     * In-memory inverted index, see {@link ru.skypro.homework.component.AdvertSearchIndex}
+     */
+    INDEX
+}
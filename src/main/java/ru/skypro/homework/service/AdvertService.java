@@ -1,13 +1,25 @@
 package ru.skypro.homework.service;
 
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cache.annotation.CacheEvict;
+import org.springframework.cache.annotation.Cacheable;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.multipart.MultipartFile;
+import ru.skypro.homework.component.AdvertListingVersion;
+import ru.skypro.homework.component.AdvertSearchIndex;
 import ru.skypro.homework.component.AuthenticationComponent;
+import ru.skypro.homework.component.JsonStreamWriter;
+import ru.skypro.homework.configuration.CacheConfig;
+import ru.skypro.homework.dto.AdsCursor;
 import ru.skypro.homework.dto.AdsDto;
+import ru.skypro.homework.dto.AdsFilter;
+import ru.skypro.homework.dto.AdsSort;
 import ru.skypro.homework.dto.CreateAdsDto;
 import ru.skypro.homework.dto.FullAdsDto;
+import ru.skypro.homework.dto.ImageDto;
 import ru.skypro.homework.dto.ResponseWrapperAdsDto;
 import ru.skypro.homework.exception.*;
 import ru.skypro.homework.mapper.AdvertMapper;
@@ -16,11 +28,18 @@ import ru.skypro.homework.model.Image;
 import ru.skypro.homework.model.Photo;
 import ru.skypro.homework.model.User;
 import ru.skypro.homework.repository.AdvertRepository;
+import ru.skypro.homework.repository.CommentRepository;
 import ru.skypro.homework.repository.UserRepository;
+import ru.skypro.homework.repository.projection.AdvertSummary;
+import ru.skypro.homework.repository.projection.AdvertVersion;
 
-import java.io.IOException;
-import java.util.List;
-import java.util.Optional;
+import java.io.OutputStream;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.*;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
  * Service for maintain adverts via {@link AdvertRepository}
@@ -28,53 +47,80 @@ import java.util.Optional;
 @Service
 @Slf4j
 public class AdvertService {
+    public static final int DEFAULT_PAGE_SIZE = 20;
+    public static final int MAX_PAGE_SIZE = 100;
+
+    @Value("${ads.search.mode}")
+    private AdvertSearchMode searchMode;
     private final AdvertRepository advertRepository;
+    private final CommentRepository commentRepository;
     private final AdvertMapper advertMapper;
     private final UserRepository userRepository;
     private final ImageService imageService;
     private final AuthenticationComponent auth;
+    private final AdvertSearchIndex searchIndex;
+    private final JsonStreamWriter jsonStreamWriter;
+    private final AdvertListingVersion listingVersion;
 
     public AdvertService(AdvertRepository advertRepository,
+                         CommentRepository commentRepository,
                          AdvertMapper advertMapper,
                          UserRepository userRepository,
                          ImageService imageService,
-                         AuthenticationComponent auth) {
+                         AuthenticationComponent auth,
+                         AdvertSearchIndex searchIndex,
+                         JsonStreamWriter jsonStreamWriter,
+                         AdvertListingVersion listingVersion) {
         this.advertRepository = advertRepository;
+        this.commentRepository = commentRepository;
         this.advertMapper = advertMapper;
         this.userRepository = userRepository;
         this.imageService = imageService;
         this.auth = auth;
+        this.searchIndex = searchIndex;
+        this.jsonStreamWriter = jsonStreamWriter;
+        this.listingVersion = listingVersion;
     }
 
     /**
-     * Create advert via {@link AdvertRepository}
+     * Create advert via {@link AdvertRepository}.
+     * Photo is written outside of the transaction, see {@link ImageService#withUpload}.
      *
      * @param properties {@link CreateAdsDto}
      * @param file       {@link MultipartFile}
      * @return {@link AdsDto}
      */
-    @Transactional
     public AdsDto create(CreateAdsDto properties, MultipartFile file) {
         log.info("Creat advert with properties: " + properties);
-        Photo photo = imageService.uploadPhoto(file);
-        Advert advert = advertMapper.createAdsDtoToAdvert(properties);
-        advert.setAuthor(userRepository.findByUsername(auth.getAuth().getName()));
-        advert.setPhoto(photo);
-        return advertMapper.advertToAdsDto(advertRepository.save(advert));
+        return imageService.withUpload(file, staged -> {
+            Photo photo = imageService.uploadPhoto(staged);
+            Advert advert = advertMapper.createAdsDtoToAdvert(properties);
+            advert.setAuthor(userRepository.findByUsername(auth.getAuth().getName()));
+            advert.setPhoto(photo);
+            advert.setCreatedAt(LocalDateTime.now().truncatedTo(ChronoUnit.MICROS));
+            advert = advertRepository.save(advert);
+            listingVersion.changed();
+            searchIndex.add(advert);
+            return advertMapper.advertToAdsDto(advert);
+        });
     }
 
     /**
-     * Delete advert by Id via {@link AdvertRepository}
+     * Delete advert by Id with its comments and photo via {@link AdvertRepository} and {@link CommentRepository},
+     * one statement per table
      *
      * @param id advert id
      */
     @Transactional
+    @CacheEvict(value = CacheConfig.ADVERTS_CACHE, key = "#id")
     public void delete(int id) {
         log.info("Delete advert with id: " + id);
-        Advert advert = findAdvertWithAuth(id);
-        Photo photo = advert.getPhoto();
-        advertRepository.delete(advert);
-        imageService.deleteFile(photo);
+        Advert advert = checkOwner(advertRepository.findDetailById(id));
+        commentRepository.deleteByAdvertId(id);
+        advertRepository.deleteByIds(List.of(id));
+        listingVersion.changed();
+        imageService.delete(Collections.singletonList(advert.getPhoto()));
+        searchIndex.remove(advert);
     }
 
     /**
@@ -85,32 +131,35 @@ public class AdvertService {
      * @return {@link AdsDto}
      */
     @Transactional
+    @CacheEvict(value = CacheConfig.ADVERTS_CACHE, key = "#id")
     public AdsDto update(int id, CreateAdsDto properties) {
         log.info("Update advert with id: " + id);
         Advert advert = findAdvertWithAuth(id);
+        AdvertSearchIndex.Document indexed = searchIndex.document(advert);
         advertMapper.updateAdvert(properties, advert);
         advertRepository.save(advert);
+        listingVersion.changed();
+        searchIndex.update(indexed, advert);
         return advertMapper.advertToAdsDto(advert);
     }
 
     /**
-     * Update advert image
+     * Update advert image.
+     * Image is written outside of the transaction, see {@link ImageService#withUpload}.
      *
      * @param id   advert id
      * @param file {@link MultipartFile}
-     * @return image bytes
+     * @return {@link ImageDto}
      */
-    @Transactional
-    public byte[] updateImage(int id, MultipartFile file) {
+    @CacheEvict(value = CacheConfig.ADVERTS_CACHE, key = "#id")
+    public ImageDto updateImage(int id, MultipartFile file) {
         log.info("Update advert image with id: " + id);
-        try {
-            Advert advert = findAdvertWithAuth(id);
-            imageService.uploadPhoto(advert, file);
-            return file.getBytes();
-        } catch (IOException exception) {
-            log.error(exception.getMessage());
-            throw new ImageUploadException(exception.getMessage());
-        }
+        return imageService.withUpload(file, staged -> {
+            Advert advert = checkOwner(advertRepository.findForImageUpdateById(id));
+            imageService.uploadPhoto(advert, staged);
+            listingVersion.changed();
+            return advertMapper.advertToImageDto(advert);
+        });
     }
 
     /**
@@ -121,50 +170,127 @@ public class AdvertService {
      */
     public Image downloadImage(int id) {
         log.info("Download advert image with id: " + id);
-        Advert advert = findAdvert(id);
+        Advert advert = advertRepository.findWithPhotoById(id)
+                .orElseThrow(() -> new AdvertNotFoundException("Advert not found"));
         return advert.getPhoto();
     }
 
     /**
-     * Find all adverts via {@link AdvertRepository}
+     * Find page of adverts matching filter via {@link AdvertRepository}
+     *
+     * @param filter {@link AdsFilter}
+     * @param after  cursor of previous page, null for the first page
+     * @param limit  page size, bounded by {@link #MAX_PAGE_SIZE}
+     * @return {@link ResponseWrapperAdsDto}
+     */
+    public ResponseWrapperAdsDto findAll(AdsFilter filter, String after, Integer limit) {
+        log.info("Find adverts by filter: " + filter + " after cursor: " + after);
+        AdsCursor cursor = AdsCursor.decode(after, filter.getSort());
+        int size = pageSize(limit);
+        List<AdvertSummary> adverts = advertRepository.findPage(filter, cursor, size + 1);
+        return toPage(adverts, size, filter.getSort());
+    }
+
+    /**
+     * Write all adverts matching filter to output stream as {@link ResponseWrapperAdsDto},
+     * reading them from {@link AdvertRepository} one by one
+     *
+     * @param filter {@link AdsFilter}
+     * @param out    response output stream
+     */
+    @Transactional(readOnly = true)
+    public void streamAll(AdsFilter filter, OutputStream out) {
+        log.info("Stream adverts by filter: " + filter);
+        try (Stream<AdvertSummary> adverts = advertRepository.streamAll(filter)) {
+            jsonStreamWriter.writeWrapper(out, adverts.map(advertMapper::advertSummaryToAdsDto));
+        }
+    }
+
+    /**
+     * Search adverts by title and description via {@link AdvertRepository}.
+     * Results are ordered by relevance.
      *
+     * @param query search query
+     * @param page  page number, starting from 0
+     * @param limit page size, bounded by {@link #MAX_PAGE_SIZE}
      * @return {@link ResponseWrapperAdsDto}
      */
-    public ResponseWrapperAdsDto findAll() {
-        log.info("Find all adverts");
-        List<Advert> adverts = advertRepository.findAll();
+    public ResponseWrapperAdsDto search(String query, Integer page, Integer limit) {
+        log.info("Search adverts by query: " + query);
+        if (query == null || query.isBlank()) {
+            return advertMapper.listToRespWrapperAdsDto(List.of());
+        }
+        PageRequest pageable = PageRequest.of(page == null ? 0 : Math.max(page, 0), pageSize(limit));
+        List<Advert> adverts;
+        if (searchMode == AdvertSearchMode.FULL_TEXT) {
+            adverts = findIndexed(advertRepository.searchIdsFullText(query, pageable).stream()
+                    .mapToInt(Integer::intValue).toArray());
+        } else if (searchMode == AdvertSearchMode.INDEX) {
+            adverts = findIndexed(searchIndex.search(query, (int) pageable.getOffset(), pageable.getPageSize()));
+        } else {
+            adverts = advertRepository.searchByPattern(toLikePattern(query), pageable);
+        }
         return advertMapper.listToRespWrapperAdsDto(adverts);
     }
 
     /**
-     * Find advert by id via {@link AdvertRepository}
+     * Strong ETag of advert details, built from versions of advert and its author
+     *
+     * @param id advert id
+     * @return ETag
+     */
+    public String findETag(int id) {
+        AdvertVersion version = advertRepository.findVersionById(id)
+                .orElseThrow(() -> new AdvertNotFoundException("Advert not found"));
+        return "\"" + id + "." + version.getVersion() + "." + version.getAuthorVersion() + "\"";
+    }
+
+    /**
+     * Strong ETag of advert listings, built from {@link AdvertListingVersion} bumped by every advert write.
+     * Validators are compared per request URL, so filter and cursor need not be part of it.
+     *
+     * @return ETag
+     */
+    public String findAllETag() {
+        return "\"" + listingVersion.current() + "\"";
+    }
+
+    /**
+     * Find advert by id via {@link AdvertRepository}, cached in {@link CacheConfig#ADVERTS_CACHE}
      *
      * @param id advert id
      * @return {@link FullAdsDto}
      */
+    @Cacheable(value = CacheConfig.ADVERTS_CACHE, key = "#id", sync = true)
     public FullAdsDto findById(int id) {
         log.info("Find advert by id: " + id);
-        Advert advert = findAdvert(id);
+        Advert advert = advertRepository.findDetailById(id)
+                .orElseThrow(() -> new AdvertNotFoundException("Advert not found"));
         return advertMapper.advertToFullAdsDto(advert);
     }
 
     /**
-     * Find all adverts for authorized user via {@link AdvertRepository} and {@link UserRepository}
+     * Find page of adverts for authorized user via {@link AdvertRepository} and {@link UserRepository}
      *
+     * @param after cursor of previous page, null for the first page
+     * @param limit page size, bounded by {@link #MAX_PAGE_SIZE}
      * @return {@link ResponseWrapperAdsDto}
      */
-    public ResponseWrapperAdsDto findAllByAuthUser() {
-        log.info("Find adverts by user name");
-        List<Advert> adverts = findAdvertsWithAuth();
-        return advertMapper.listToRespWrapperAdsDto(adverts);
+    public ResponseWrapperAdsDto findAllByAuthUser(String after, Integer limit) {
+        log.info("Find adverts by user name after cursor: " + after);
+        AdsFilter filter = new AdsFilter();
+        filter.setAuthorId(findAuthUser().getId());
+        AdsCursor cursor = AdsCursor.decode(after, filter.getSort());
+        int size = pageSize(limit);
+        List<AdvertSummary> adverts = advertRepository.findPage(filter, cursor, size + 1);
+        return toPage(adverts, size, filter.getSort());
     }
 
-    private Advert findAdvert(int id) {
-        return advertRepository.findById(id).orElseThrow(() -> new AdvertNotFoundException("Advert not found"));
+    private Advert findAdvertWithAuth(int id) {
+        return checkOwner(advertRepository.findWithAuthorById(id));
     }
 
-    private Advert findAdvertWithAuth(int id) {
-        Optional<Advert> advert = advertRepository.findById(id);
+    private Advert checkOwner(Optional<Advert> advert) {
         if (advert.isEmpty()) {
             throw new AdvertNotFoundException("Advert not found");
         }
@@ -174,11 +300,52 @@ public class AdvertService {
         return advert.get();
     }
 
-    private List<Advert> findAdvertsWithAuth() {
+    private User findAuthUser() {
         User user = userRepository.findByUsername(auth.getAuth().getName());
         if (user == null) {
             throw new UserUnauthorizedException("User not found");
         }
-        return advertRepository.findByAuthorId(user.getId());
+        return user;
+    }
+
+    /**
+     * Load adverts with photos by ids found by search, keeping order of ids
+     */
+    private List<Advert> findIndexed(int[] ids) {
+        List<Integer> idList = Arrays.stream(ids).boxed().collect(Collectors.toList());
+        Map<Integer, Advert> adverts = advertRepository.findWithPhotoByIdIn(idList).stream()
+                .collect(Collectors.toMap(Advert::getId, Function.identity()));
+        return idList.stream()
+                .map(adverts::get)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toList());
+    }
+
+    private String toLikePattern(String query) {
+        String escaped = query.trim().toLowerCase()
+                .replace("\\", "\\\\")
+                .replace("%", "\\%")
+                .replace("_", "\\_");
+        return "%" + escaped + "%";
+    }
+
+    private int pageSize(Integer limit) {
+        if (limit == null) {
+            return DEFAULT_PAGE_SIZE;
+        }
+        return Math.max(1, Math.min(limit, MAX_PAGE_SIZE));
+    }
+
+    /**
+     * Cut extra advert fetched to detect next page and build cursor for it
+     */
+    private ResponseWrapperAdsDto toPage(List<AdvertSummary> adverts, int size, AdsSort sort) {
+        if (adverts.size() <= size) {
+            return advertMapper.summaryListToRespWrapperAdsDto(adverts);
+        }
+        List<AdvertSummary> page = adverts.subList(0, size);
+        ResponseWrapperAdsDto result = advertMapper.summaryListToRespWrapperAdsDto(page);
+        result.setNext(AdsCursor.of(sort, page.get(size - 1)).encode());
+        return result;
     }
 }
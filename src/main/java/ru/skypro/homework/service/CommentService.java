@@ -4,6 +4,7 @@ import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 import ru.skypro.homework.component.AuthenticationComponent;
+import ru.skypro.homework.component.JsonStreamWriter;
 import ru.skypro.homework.dto.CommentDto;
 import ru.skypro.homework.dto.ResponseWrapperCommentDto;
 import ru.skypro.homework.exception.ActionForbiddenException;
@@ -16,10 +17,13 @@ import ru.skypro.homework.model.User;
 import ru.skypro.homework.repository.AdvertRepository;
 import ru.skypro.homework.repository.CommentRepository;
 import ru.skypro.homework.repository.UserRepository;
+import ru.skypro.homework.repository.projection.CommentSummary;
 
+import java.io.OutputStream;
 import java.time.LocalDateTime;
 import java.util.List;
 import java.util.Optional;
+import java.util.stream.Stream;
 
 /**
  * Service for maintain comments via {@link CommentRepository}
@@ -32,17 +36,20 @@ public class CommentService {
     private final AdvertRepository advertRepository;
     private final CommentMapper commentMapper;
     private final AuthenticationComponent auth;
+    private final JsonStreamWriter jsonStreamWriter;
 
     public CommentService(UserRepository userRepository,
                           AdvertRepository advertRepository,
                           CommentRepository commentRepository,
                           CommentMapper commentMapper,
-                          AuthenticationComponent auth) {
+                          AuthenticationComponent auth,
+                          JsonStreamWriter jsonStreamWriter) {
         this.userRepository = userRepository;
         this.advertRepository = advertRepository;
         this.commentRepository = commentRepository;
         this.commentMapper = commentMapper;
         this.auth = auth;
+        this.jsonStreamWriter = jsonStreamWriter;
     }
 
     /**
@@ -104,8 +111,23 @@ public class CommentService {
      */
     public ResponseWrapperCommentDto findAll(Integer advertId) {
         log.info("Get all comments for advert with id: " + advertId);
-        List<Comment> comments = commentRepository.findAllByAdvertId(advertId);
-        return commentMapper.listToRespWrapperCommentDto(comments);
+        List<CommentSummary> comments = commentRepository.findSummariesByAdvertId(advertId);
+        return commentMapper.summaryListToRespWrapperCommentDto(comments);
+    }
+
+    /**
+     * Write all comments for advert to output stream as {@link ResponseWrapperCommentDto},
+     * reading them from {@link CommentRepository} one by one
+     *
+     * @param advertId advert id
+     * @param out      response output stream
+     */
+    @Transactional(readOnly = true)
+    public void streamAll(Integer advertId, OutputStream out) {
+        log.info("Stream all comments for advert with id: " + advertId);
+        try (Stream<CommentSummary> comments = commentRepository.streamSummariesByAdvertId(advertId)) {
+            jsonStreamWriter.writeWrapper(out, comments.map(commentMapper::commentSummaryToCommentDto));
+        }
     }
 
     private Advert findAdvert(int id) {
@@ -114,7 +136,7 @@ public class CommentService {
     }
 
     private Comment findCommentWithAuth(Advert advert, int id) {
-        Optional<Comment> comment = commentRepository.findById(id);
+        Optional<Comment> comment = commentRepository.findWithAuthorById(id);
         if (comment.isEmpty()) {
             throw new CommentNotFoundException("Comment not found");
         }
@@ -0,0 +1,80 @@
+package ru.skypro.homework.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.skypro.homework.model.ImageGarbage;
+import ru.skypro.homework.repository.ImageBlobRepository;
+import ru.skypro.homework.repository.ImageGarbageRepository;
+
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * Deletes files of replaced image versions once their grace period is over, see {@link ImageGarbage}.
+ * Each batch is one transaction: its records are locked with {@code skip locked}, so sweeps on several
+ * nodes share the work, and files are deleted before the transaction deletes the records.
+ * A crash in between only repeats deletion on next sweep.
+ */
+@Service
+@Slf4j
+public class ImageGarbageCollector {
+    @Value("${ads.images.garbage.batch-size}")
+    private int batchSize;
+    private final ImageGarbageRepository imageGarbageRepository;
+    private final ImageBlobRepository imageBlobRepository;
+    private final ImageService imageService;
+    private final TransactionTemplate transactionTemplate;
+
+    public ImageGarbageCollector(ImageGarbageRepository imageGarbageRepository,
+                                 ImageBlobRepository imageBlobRepository,
+                                 ImageService imageService,
+                                 PlatformTransactionManager transactionManager) {
+        this.imageGarbageRepository = imageGarbageRepository;
+        this.imageBlobRepository = imageBlobRepository;
+        this.imageService = imageService;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    /**
+     * Delete files which are due, batch by batch
+     *
+     * @return number of collected records
+     */
+    @Scheduled(fixedDelayString = "${ads.images.garbage.sweep-delay}")
+    public int sweep() {
+        int collected = 0;
+        int swept;
+        do {
+            swept = transactionTemplate.execute(status -> sweepBatch());
+            collected += swept;
+        } while (swept == batchSize);
+        if (collected > 0) {
+            log.info("Collected replaced image files: " + collected);
+        }
+        return collected;
+    }
+
+    /**
+     * Blob file is deleted only together with its unreferenced row. The deleted row stays locked
+     * until commit, so an upload referencing the same content meanwhile waits and stores the file again.
+     */
+    private int sweepBatch() {
+        LocalDateTime now = LocalDateTime.now();
+        List<ImageGarbage> due = imageGarbageRepository.lockDue(now, PageRequest.of(0, batchSize));
+        for (ImageGarbage garbage : due) {
+            if (garbage.getContentHash() == null) {
+                imageService.discard(Path.of(garbage.getPath()));
+            } else if (imageBlobRepository.deleteUnreferenced(garbage.getContentHash(), now) > 0) {
+                imageService.discardBlob(garbage.getContentHash());
+            }
+        }
+        imageGarbageRepository.deleteAllInBatch(due);
+        return due.size();
+    }
+}
@@ -0,0 +1,272 @@
+package ru.skypro.homework.service;
+
+/**
+ * Detects format and pixel size of an image from its header, fed with the bytes of upload as they are read.
+ * Nothing is decoded: PNG, GIF, BMP and WebP keep their size at a fixed offset of the first 30 bytes,
+ * JPEG segments are skipped by their length until the frame header.
+ * So only a few bytes are ever buffered, whatever the file declares.
+ */
+final class ImageHeaderReader {
+    /**
+     * Image format with its content type and canonical file extension
+     */
+    enum Format {
+        JPEG("image/jpeg", "jpg"),
+        PNG("image/png", "png"),
+        GIF("image/gif", "gif"),
+        WEBP("image/webp", "webp"),
+        BMP("image/bmp", "bmp");
+
+        private final String type;
+        private final String extension;
+
+        Format(String type, String extension) {
+            this.type = type;
+            this.extension = extension;
+        }
+
+        String getType() {
+            return type;
+        }
+
+        String getExtension() {
+            return extension;
+        }
+    }
+
+    private enum Step {
+        SIGNATURE, FIXED, JPEG_MARKER, JPEG_FRAME, DONE, FAILED
+    }
+
+    private final byte[] header = new byte[30];
+    private int filled;
+    private int wanted = 2;
+    private long skip;
+    private Step step = Step.SIGNATURE;
+    private Format format;
+    private int width;
+    private int height;
+
+    /**
+     * Consume next bytes of image
+     *
+     * @return true once format and size are known or header is found invalid, later bytes are not needed
+     */
+    boolean feed(byte[] bytes, int offset, int length) {
+        while (length > 0 && !isComplete()) {
+            if (skip > 0) {
+                int skipped = (int) Math.min(skip, length);
+                skip -= skipped;
+                offset += skipped;
+                length -= skipped;
+                continue;
+            }
+            int copied = Math.min(wanted - filled, length);
+            System.arraycopy(bytes, offset, header, filled, copied);
+            filled += copied;
+            offset += copied;
+            length -= copied;
+            if (filled == wanted) {
+                advance();
+            }
+        }
+        return isComplete();
+    }
+
+    boolean isComplete() {
+        return step == Step.DONE || step == Step.FAILED;
+    }
+
+    /**
+     * @return detected format, null when image is not recognized or its header is not read yet
+     */
+    Format getFormat() {
+        return step == Step.DONE ? format : null;
+    }
+
+    int getWidth() {
+        return width;
+    }
+
+    int getHeight() {
+        return height;
+    }
+
+    private void advance() {
+        switch (step) {
+            case SIGNATURE:
+                detect();
+                break;
+            case FIXED:
+                readFixed();
+                break;
+            case JPEG_MARKER:
+                readMarker();
+                break;
+            case JPEG_FRAME:
+                size(u16be(7), u16be(5));
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void detect() {
+        int first = header[0] & 0xFF;
+        int second = header[1] & 0xFF;
+        if (first == 0xFF && second == 0xD8) {
+            format = Format.JPEG;
+            nextMarker();
+            return;
+        }
+        if (first == 0x89 && second == 'P') {
+            format = Format.PNG;
+            wanted = 24;
+        } else if (first == 'G' && second == 'I') {
+            format = Format.GIF;
+            wanted = 10;
+        } else if (first == 'B' && second == 'M') {
+            format = Format.BMP;
+            wanted = 26;
+        } else if (first == 'R' && second == 'I') {
+            format = Format.WEBP;
+            wanted = 30;
+        } else {
+            step = Step.FAILED;
+            return;
+        }
+        step = Step.FIXED;
+    }
+
+    private void readFixed() {
+        switch (format) {
+            case PNG:
+                if (matches(0, 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n') && matches(12, 'I', 'H', 'D', 'R')) {
+                    size(s32be(16), s32be(20));
+                    return;
+                }
+                break;
+            case GIF:
+                if (matches(0, 'G', 'I', 'F', '8') && (matches(4, '7', 'a') || matches(4, '9', 'a'))) {
+                    size(u16le(6), u16le(8));
+                    return;
+                }
+                break;
+            case BMP:
+                if (s32le(14) == 12) {
+                    size(u16le(18), u16le(20));
+                } else {
+                    // negative height marks top-down bitmap
+                    size(s32le(18), Math.abs(s32le(22)));
+                }
+                return;
+            case WEBP:
+                if (matches(0, 'R', 'I', 'F', 'F') && matches(8, 'W', 'E', 'B', 'P')) {
+                    readWebp();
+                    return;
+                }
+                break;
+            default:
+                break;
+        }
+        step = Step.FAILED;
+    }
+
+    private void readWebp() {
+        if (matches(12, 'V', 'P', '8', ' ') && matches(23, 0x9D, 0x01, 0x2A)) {
+            size(u16le(26) & 0x3FFF, u16le(28) & 0x3FFF);
+        } else if (matches(12, 'V', 'P', '8', 'L') && (header[20] & 0xFF) == 0x2F) {
+            int bits = s32le(21);
+            size((bits & 0x3FFF) + 1, ((bits >> 14) & 0x3FFF) + 1);
+        } else if (matches(12, 'V', 'P', '8', 'X')) {
+            size(u24le(24) + 1, u24le(27) + 1);
+        } else {
+            step = Step.FAILED;
+        }
+    }
+
+    private void nextMarker() {
+        step = Step.JPEG_MARKER;
+        filled = 0;
+        wanted = 4;
+    }
+
+    private void readMarker() {
+        if ((header[0] & 0xFF) != 0xFF) {
+            step = Step.FAILED;
+            return;
+        }
+        int marker = header[1] & 0xFF;
+        if (marker == 0xFF) {
+            // fill byte before marker
+            shift(1);
+            return;
+        }
+        if (marker == 0x01 || marker >= 0xD0 && marker <= 0xD7) {
+            // marker without segment
+            shift(2);
+            return;
+        }
+        if (marker == 0xD8 || marker == 0xD9 || marker == 0xDA) {
+            // image data starts before any frame header
+            step = Step.FAILED;
+            return;
+        }
+        if (marker >= 0xC0 && marker <= 0xCF && marker != 0xC4 && marker != 0xC8 && marker != 0xCC) {
+            step = Step.JPEG_FRAME;
+            wanted = 9;
+            return;
+        }
+        int length = u16be(2);
+        if (length < 2) {
+            step = Step.FAILED;
+            return;
+        }
+        nextMarker();
+        skip = length - 2;
+    }
+
+    private void shift(int count) {
+        System.arraycopy(header, count, header, 0, filled - count);
+        filled -= count;
+    }
+
+    private void size(int width, int height) {
+        if (width <= 0 || height <= 0) {
+            step = Step.FAILED;
+            return;
+        }
+        this.width = width;
+        this.height = height;
+        step = Step.DONE;
+    }
+
+    private boolean matches(int offset, int... expected) {
+        for (int i = 0; i < expected.length; i++) {
+            if ((header[offset + i] & 0xFF) != expected[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int u16be(int offset) {
+        return (header[offset] & 0xFF) << 8 | header[offset + 1] & 0xFF;
+    }
+
+    private int u16le(int offset) {
+        return header[offset] & 0xFF | (header[offset + 1] & 0xFF) << 8;
+    }
+
+    private int u24le(int offset) {
+        return u16le(offset) | (header[offset + 2] & 0xFF) << 16;
+    }
+
+    private int s32be(int offset) {
+        return u16be(offset) << 16 | u16be(offset + 2);
+    }
+
+    private int s32le(int offset) {
+        return u16le(offset) | u16le(offset + 2) << 16;
+    }
+}
@@ -0,0 +1,202 @@
+package ru.skypro.homework.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Async;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.skypro.homework.component.FileSystemImageStorage;
+import ru.skypro.homework.component.ImageVariants;
+import ru.skypro.homework.configuration.AsyncConfig;
+import ru.skypro.homework.model.Image;
+import ru.skypro.homework.repository.ImageRepository;
+
+import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Moves image files to the directory layout set by {@code ads.images.sharded}.
+ * Files are moved in batches of {@code ads.images.migration.batch-size} images: each file is hard linked
+ * to its new path, the batch is switched to the new layout in one transaction and old paths are removed
+ * after commit. So a file is readable by the path stored in its row at any moment of the migration.
+ */
+@Service
+@Slf4j
+public class ImageLayoutMigrator {
+    private static final String FILESYSTEM_BACKEND = "filesystem";
+
+    @Value("${ads.images.storage.backend}")
+    private String backend;
+    @Value("${path.to.blobs.folder}")
+    private String blobsDir;
+    @Value("${ads.images.sharded}")
+    private boolean sharded;
+    @Value("${ads.images.migration.batch-size}")
+    private int batchSize;
+    private final ImageRepository imageRepository;
+    private final ImageVariants imageVariants;
+    private final TransactionTemplate transactionTemplate;
+
+    public ImageLayoutMigrator(ImageRepository imageRepository,
+                               ImageVariants imageVariants,
+                               PlatformTransactionManager transactionManager) {
+        this.imageRepository = imageRepository;
+        this.imageVariants = imageVariants;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    /**
+     * Count images not yet in current layout
+     *
+     * @return number of images
+     */
+    public long remaining() {
+        return imageRepository.countToMigrate(sharded);
+    }
+
+    /**
+     * Move own files of images, then shared blobs, to current layout.
+     * Files which fail to move are logged and left in old layout until next run.
+     * Only {@link FileSystemImageStorage} is migrated, as files are moved by hard links:
+     * packed storage keeps small files by their location inside segments, so they have no file to link.
+     *
+     * @return number of moved images and blobs
+     */
+    @Async(AsyncConfig.MIGRATION_EXECUTOR)
+    public CompletableFuture<Integer> migrate() {
+        if (!FILESYSTEM_BACKEND.equals(backend)) {
+            log.error("Image files are not migrated: storage backend is " + backend);
+            return CompletableFuture.completedFuture(0);
+        }
+        log.info("Migrate image files to " + (sharded ? "sharded" : "flat") + " layout");
+        AtomicInteger migrated = new AtomicInteger();
+        List<Image> images = Collections.emptyList();
+        do {
+            int afterId = images.isEmpty() ? 0 : images.get(images.size() - 1).getId();
+            images = transactionTemplate.execute(status -> migrateOwnFiles(afterId, migrated));
+        } while (images.size() == batchSize);
+        List<String> hashes = Collections.emptyList();
+        do {
+            String after = hashes.isEmpty() ? "" : hashes.get(hashes.size() - 1);
+            hashes = transactionTemplate.execute(status -> migrateBlobs(after, migrated));
+        } while (hashes.size() == batchSize);
+        log.info("Migrated image files: " + migrated + ", left in old layout: " + remaining());
+        return CompletableFuture.completedFuture(migrated.get());
+    }
+
+    /**
+     * Move batch of images with own files, ordered by id
+     *
+     * @return batch, including images which failed to move
+     */
+    private List<Image> migrateOwnFiles(int afterId, AtomicInteger migrated) {
+        List<Image> images = imageRepository.findOwnFilesToMigrate(sharded, afterId, PageRequest.of(0, batchSize));
+        List<Integer> ids = new ArrayList<>();
+        List<Path> old = new ArrayList<>();
+        for (Image image : images) {
+            if (image.getFileName() == null || relink(image.getFilePath(), image.getFilePath(sharded), old)) {
+                ids.add(image.getId());
+            }
+        }
+        if (!ids.isEmpty()) {
+            imageRepository.updateLayoutByIds(ids, sharded);
+        }
+        deleteAfterCommit(old);
+        migrated.addAndGet(ids.size());
+        return images;
+    }
+
+    /**
+     * Move batch of shared blobs, ordered by hash
+     *
+     * @return batch, including blobs which failed to move
+     */
+    private List<String> migrateBlobs(String after, AtomicInteger migrated) {
+        List<String> hashes = imageRepository.findBlobsToMigrate(sharded, after, PageRequest.of(0, batchSize));
+        List<String> moved = new ArrayList<>();
+        List<Path> old = new ArrayList<>();
+        for (String hash : hashes) {
+            if (relink(Image.blobPath(blobsDir, hash, !sharded), Image.blobPath(blobsDir, hash, sharded), old)) {
+                moved.add(hash);
+            }
+        }
+        if (!moved.isEmpty()) {
+            imageRepository.updateLayoutByHashes(moved, sharded);
+        }
+        deleteAfterCommit(old);
+        migrated.addAndGet(moved.size());
+        return hashes;
+    }
+
+    /**
+     * Link file and its variants to new path, copying when file system has no hard links.
+     * A missing file, or file already present at new path, does not stop migration of image.
+     *
+     * @param source file in old layout
+     * @param target file in new layout
+     * @param old    collects paths to remove after commit
+     * @return false if file could not be moved
+     */
+    private boolean relink(Path source, Path target, List<Path> old) {
+        List<Path> sources = new ArrayList<>();
+        sources.add(source);
+        sources.addAll(imageVariants.paths(source));
+        try {
+            Files.createDirectories(target.getParent());
+            for (Path path : sources) {
+                if (link(path, target.resolveSibling(path.getFileName()))) {
+                    old.add(path);
+                }
+            }
+            return true;
+        } catch (IOException exception) {
+            log.error("File " + source + " not moved to " + target + ": " + exception.getMessage());
+            return false;
+        }
+    }
+
+    private static boolean link(Path source, Path target) throws IOException {
+        try {
+            try {
+                Files.createLink(target, source);
+            } catch (UnsupportedOperationException exception) {
+                Files.copy(source, target);
+            }
+        } catch (NoSuchFileException exception) {
+            return false;
+        } catch (FileAlreadyExistsException exception) {
+            return Files.exists(source);
+        }
+        return true;
+    }
+
+    private static void deleteAfterCommit(List<Path> paths) {
+        if (paths.isEmpty()) {
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                for (Path path : paths) {
+                    try {
+                        Files.deleteIfExists(path);
+                    } catch (IOException exception) {
+                        log.error("Old file " + path + " not deleted: " + exception.getMessage());
+                    }
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,340 @@
+package ru.skypro.homework.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.skypro.homework.component.ImageStorage;
+import ru.skypro.homework.configuration.AsyncConfig;
+import ru.skypro.homework.model.Image;
+import ru.skypro.homework.repository.ImageBlobRepository;
+import ru.skypro.homework.repository.ImageGarbageRepository;
+import ru.skypro.homework.repository.ImageRepository;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Brings image rows and image files back in line, while the application serves traffic.
+ * A run deletes images no advert or user refers to, counts images whose file is gone
+ * and deletes files of image directories no image refers to.
+ * Work is done in batches of {@code ads.images.reconcile.batch-size}, paced to
+ * {@code ads.images.reconcile.rate} rows or files per second.
+ */
+@Service
+@Slf4j
+public class ImageReconciler {
+    static final String METRIC_PREFIX = "ads.images.reconcile";
+    private static final Pattern CONTENT_HASH = Pattern.compile("[0-9a-f]{64}");
+    private static final Pattern IMAGE_ID = Pattern.compile("\\d{1,9}");
+
+    @Value("${path.to.photos.folder}")
+    private String photosDir;
+    @Value("${path.to.avatars.folder}")
+    private String avatarsDir;
+    @Value("${path.to.blobs.folder}")
+    private String blobsDir;
+    @Value("${ads.images.reconcile.batch-size}")
+    private int batchSize;
+    @Value("${ads.images.reconcile.rate}")
+    private int rate;
+    @Value("${ads.images.reconcile.min-age}")
+    private Duration minAge;
+    private final ImageRepository imageRepository;
+    private final ImageBlobRepository imageBlobRepository;
+    private final ImageGarbageRepository imageGarbageRepository;
+    private final ImageService imageService;
+    private final ImageStorage imageStorage;
+    private final TransactionTemplate transactionTemplate;
+    private final TaskExecutor reconcileExecutor;
+    private final Counter deletedRows;
+    private final Counter deletedFiles;
+    private final Counter reclaimedBytes;
+    private final AtomicLong missingFiles = new AtomicLong();
+
+    public ImageReconciler(ImageRepository imageRepository,
+                           ImageBlobRepository imageBlobRepository,
+                           ImageGarbageRepository imageGarbageRepository,
+                           ImageService imageService,
+                           ImageStorage imageStorage,
+                           MeterRegistry meterRegistry,
+                           PlatformTransactionManager transactionManager,
+                           @Qualifier(AsyncConfig.RECONCILE_EXECUTOR) TaskExecutor reconcileExecutor) {
+        this.imageRepository = imageRepository;
+        this.imageBlobRepository = imageBlobRepository;
+        this.imageGarbageRepository = imageGarbageRepository;
+        this.imageService = imageService;
+        this.imageStorage = imageStorage;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.reconcileExecutor = reconcileExecutor;
+        this.deletedRows = Counter.builder(METRIC_PREFIX + ".deleted")
+                .tag("kind", "row")
+                .description("Images deleted as no advert or user refers to them")
+                .register(meterRegistry);
+        this.deletedFiles = Counter.builder(METRIC_PREFIX + ".deleted")
+                .tag("kind", "file")
+                .description("Image files deleted as no image refers to them")
+                .register(meterRegistry);
+        this.reclaimedBytes = Counter.builder(METRIC_PREFIX + ".reclaimed")
+                .baseUnit("bytes")
+                .description("Size of deleted orphan files and of own files of deleted images")
+                .register(meterRegistry);
+        Gauge.builder(METRIC_PREFIX + ".missing", missingFiles, AtomicLong::get)
+                .description("Images whose file was missing in the last run")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Start a run on its own thread, unless the previous one is still going
+     */
+    @Scheduled(initialDelayString = "${ads.images.reconcile.delay}", fixedDelayString = "${ads.images.reconcile.delay}")
+    public void schedule() {
+        try {
+            reconcileExecutor.execute(this::reconcile);
+        } catch (TaskRejectedException exception) {
+            log.info("Image reconciliation is still running");
+        }
+    }
+
+    /**
+     * Run all steps of reconciliation
+     *
+     * @return number of deleted images and files
+     */
+    public int reconcile() {
+        log.info("Reconcile images and image files");
+        Pacer pacer = new Pacer(rate);
+        try {
+            int deleted = deleteUnowned(pacer);
+            countMissingFiles(pacer);
+            deleted += deleteOrphanFiles(pacer);
+            log.info("Image reconciliation deleted " + deleted + " images and files, images without file: "
+                    + missingFiles.get());
+            return deleted;
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+            log.info("Image reconciliation interrupted");
+            return 0;
+        }
+    }
+
+    /**
+     * Delete images left by deleted adverts and users. An image gets its owner in the transaction
+     * it is saved in and is never attached to another owner, so an image without owner stays one.
+     * Own files of deleted images are counted as reclaimed by their recorded size, a shared blob
+     * is reclaimed later by {@link ImageGarbageCollector} and only if no other image refers to it.
+     */
+    private int deleteUnowned(Pacer pacer) throws InterruptedException {
+        int deleted = 0;
+        int afterId = 0;
+        List<Image> unowned;
+        do {
+            unowned = imageRepository.findUnowned(afterId, PageRequest.of(0, batchSize));
+            if (unowned.isEmpty()) {
+                break;
+            }
+            List<Integer> ids = unowned.stream().map(Image::getId).collect(Collectors.toList());
+            // rows deleted meanwhile by another instance are skipped by the lock, so blobs are released once
+            List<Image> locked = transactionTemplate.execute(status -> {
+                List<Image> images = imageRepository.lockByIds(ids);
+                imageService.delete(images);
+                return images;
+            });
+            deletedRows.increment(locked.size());
+            reclaimedBytes.increment(locked.stream()
+                    .filter(image -> !image.isContentAddressed())
+                    .mapToLong(Image::getFileSize)
+                    .sum());
+            deleted += locked.size();
+            afterId = ids.get(ids.size() - 1);
+            pacer.pace(unowned.size());
+        } while (unowned.size() == batchSize);
+        return deleted;
+    }
+
+    /**
+     * Count images whose file is found in neither directory layout. They are only reported:
+     * file of a just committed upload appears a moment later, see {@link ImageService#withUpload},
+     * and content of the others is lost anyway.
+     */
+    private void countMissingFiles(Pacer pacer) throws InterruptedException {
+        long missing = 0;
+        int afterId = 0;
+        List<Image> images;
+        do {
+            images = imageRepository.findPage(afterId, PageRequest.of(0, batchSize));
+            List<Integer> ids = new ArrayList<>();
+            for (Image image : images) {
+                if (!fileExists(image)) {
+                    ids.add(image.getId());
+                }
+            }
+            if (!ids.isEmpty()) {
+                log.error("Images without file: " + ids);
+                missing += ids.size();
+            }
+            if (!images.isEmpty()) {
+                afterId = images.get(images.size() - 1).getId();
+            }
+            pacer.pace(images.size());
+        } while (images.size() == batchSize);
+        missingFiles.set(missing);
+    }
+
+    private boolean fileExists(Image image) {
+        try {
+            return imageStorage.exists(image.getFilePath(image.isSharded()))
+                    || imageStorage.exists(image.getFilePath(!image.isSharded()));
+        } catch (IOException | RuntimeException exception) {
+            log.error(exception.getMessage());
+            return true;
+        }
+    }
+
+    /**
+     * Walk image directories and delete files no image refers to. Own file is kept while any image
+     * has its id, blob while it is referenced or waits for {@link ImageGarbageCollector}, so versions
+     * replaced within grace period are left to the collector. Files younger than
+     * {@code ads.images.reconcile.min-age} and temporary files are skipped.
+     * Only local {@link ImageStorage} is walked.
+     */
+    private int deleteOrphanFiles(Pacer pacer) throws InterruptedException {
+        if (imageStorage.localFile(Path.of(blobsDir)).isEmpty()) {
+            log.info("Image directories are not walked: storage is not local");
+            return 0;
+        }
+        int deleted = 0;
+        for (String dir : new LinkedHashSet<>(List.of(photosDir, avatarsDir))) {
+            deleted += walk(Path.of(dir), false, pacer);
+        }
+        deleted += walk(Path.of(blobsDir), true, pacer);
+        return deleted;
+    }
+
+    private int walk(Path root, boolean blobs, Pacer pacer) throws InterruptedException {
+        if (!Files.isDirectory(root)) {
+            return 0;
+        }
+        Instant deadline = Instant.now().minus(minAge);
+        int deleted = 0;
+        Map<Path, String> batch = new LinkedHashMap<>();
+        try (Stream<Path> files = Files.walk(root)) {
+            Iterator<Path> iterator = files.iterator();
+            while (iterator.hasNext()) {
+                Path file = iterator.next();
+                String key = key(file, blobs, deadline);
+                if (key != null) {
+                    batch.put(file, key);
+                }
+                if (batch.size() == batchSize || !iterator.hasNext() && !batch.isEmpty()) {
+                    deleted += deleteUnreferenced(batch, blobs);
+                    pacer.pace(batch.size());
+                    batch.clear();
+                }
+            }
+        } catch (IOException | UncheckedIOException exception) {
+            log.error(exception.getMessage());
+        }
+        return deleted;
+    }
+
+    /**
+     * Image id or content hash file belongs to, for original file and its variants alike
+     *
+     * @return key, null when file is not an old enough image file
+     */
+    private static String key(Path file, boolean blobs, Instant deadline) {
+        String name = file.getFileName().toString();
+        try {
+            if (!Files.isRegularFile(file) || name.endsWith(ImageService.STAGED_SUFFIX)
+                    || !Files.getLastModifiedTime(file).toInstant().isBefore(deadline)) {
+                return null;
+            }
+        } catch (IOException exception) {
+            // deleted while walking
+            return null;
+        }
+        int dot = name.lastIndexOf('.');
+        int underscore = name.lastIndexOf('_');
+        String stem = dot >= 0 ? name.substring(0, dot) : underscore >= 0 ? name.substring(0, underscore) : name;
+        if (blobs) {
+            return CONTENT_HASH.matcher(stem).matches() ? stem : null;
+        }
+        int dash = stem.indexOf('-');
+        String id = dash < 0 ? stem : stem.substring(0, dash);
+        return IMAGE_ID.matcher(id).matches() ? id : null;
+    }
+
+    private int deleteUnreferenced(Map<Path, String> batch, boolean blobs) {
+        if (batch.isEmpty()) {
+            return 0;
+        }
+        Set<String> referenced = new HashSet<>();
+        Set<String> keys = new HashSet<>(batch.values());
+        if (blobs) {
+            referenced.addAll(imageBlobRepository.findExistingHashes(keys));
+            referenced.addAll(imageGarbageRepository.findPendingHashes(keys));
+        } else {
+            List<Integer> ids = new ArrayList<>();
+            keys.forEach(key -> ids.add(Integer.valueOf(key)));
+            imageRepository.findExistingIds(ids).forEach(id -> referenced.add(String.valueOf(id)));
+        }
+        int deleted = 0;
+        for (Map.Entry<Path, String> entry : batch.entrySet()) {
+            if (referenced.contains(entry.getValue())) {
+                continue;
+            }
+            try {
+                long size = Files.size(entry.getKey());
+                imageStorage.delete(entry.getKey());
+                log.info("Delete orphan image file: " + entry.getKey());
+                deletedFiles.increment();
+                reclaimedBytes.increment(size);
+                deleted++;
+            } catch (IOException exception) {
+                log.error(exception.getMessage());
+            }
+        }
+        return deleted;
+    }
+
+    /**
+     * Sleeps between batches, so items are processed no faster than given rate
+     */
+    private static final class Pacer {
+        private final long started = System.nanoTime();
+        private final int rate;
+        private long items;
+
+        private Pacer(int rate) {
+            this.rate = rate;
+        }
+
+        private void pace(int processed) throws InterruptedException {
+            items += processed;
+            long due = started + items * 1_000_000_000L / rate;
+            long wait = due - System.nanoTime();
+            if (wait > 0) {
+                Thread.sleep(wait / 1_000_000, (int) (wait % 1_000_000));
+            }
+        }
+    }
+}
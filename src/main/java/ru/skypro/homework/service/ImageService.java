@@ -1,138 +1,571 @@
 package ru.skypro.homework.service;
 
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.transaction.annotation.Transactional;
-import org.springframework.util.StringUtils;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.unit.DataSize;
 import org.springframework.web.multipart.MultipartFile;
+import ru.skypro.homework.component.ImageMemoryCache;
+import ru.skypro.homework.component.ImageStorage;
+import ru.skypro.homework.component.ImageVariants;
+import ru.skypro.homework.configuration.ImageConfig;
+import ru.skypro.homework.exception.ImageTooLargeException;
+import ru.skypro.homework.exception.ImageTypeNotSupportedException;
 import ru.skypro.homework.exception.ImageUploadException;
 import ru.skypro.homework.model.*;
+import ru.skypro.homework.repository.ImageBlobRepository;
+import ru.skypro.homework.repository.ImageGarbageRepository;
 import ru.skypro.homework.repository.ImageRepository;
 import ru.skypro.homework.repository.UserRepository;
 
 import java.io.*;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 /**
- * Service for maintain images via {@link ImageRepository}
+ * Service for maintain images via {@link ImageRepository}.
+ * In {@link ImageStorageMode#CONTENT_ADDRESSED} mode equal images share one blob file,
+ * which is removed when the last image referring to it is deleted.
+ * Image bytes are staged before a transaction is opened and moved to storage before it is committed,
+ * see {@link #withUpload}.
  */
 @Service
 @Slf4j
 public class ImageService {
+    private static final int BUFFER_SIZE = 64 * 1024;
+    static final String STAGED_PREFIX = "upload-";
+    static final String STAGED_SUFFIX = ".part";
+
     @Value("${path.to.photos.folder}")
     private String photosDir;
     @Value("${path.to.avatars.folder}")
     private String avatarsDir;
+    @Value("${path.to.blobs.folder}")
+    private String blobsDir;
+    @Value("${path.to.staging.folder}")
+    private String stagingDir;
+    @Value("${ads.images.storage-mode}")
+    private ImageStorageMode storageMode;
+    @Value("${ads.images.sharded}")
+    private boolean sharded;
+    @Value("${ads.images.max-size}")
+    private DataSize maxSize;
+    @Value("${ads.images.max-pixels}")
+    private long maxPixels;
+    @Value("${ads.images.types}")
+    private Set<String> allowedTypes;
+    @Value("${ads.images.garbage.grace}")
+    private Duration garbageGrace;
 
     private final ImageRepository imageRepository;
     private final UserRepository userRepository;
+    private final ImageBlobRepository imageBlobRepository;
+    private final ImageVariants imageVariants;
+    private final ImageMemoryCache imageMemoryCache;
+    private final ImageStorage imageStorage;
+    private final ImageGarbageRepository imageGarbageRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final Executor fileExecutor;
 
-    public ImageService(ImageRepository imageRepository, UserRepository userRepository) {
+    public ImageService(ImageRepository imageRepository,
+                        UserRepository userRepository,
+                        ImageBlobRepository imageBlobRepository,
+                        ImageVariants imageVariants,
+                        ImageMemoryCache imageMemoryCache,
+                        ImageStorage imageStorage,
+                        ImageGarbageRepository imageGarbageRepository,
+                        PlatformTransactionManager transactionManager,
+                        @Qualifier(ImageConfig.FILE_EXECUTOR) Executor fileExecutor) {
         this.imageRepository = imageRepository;
         this.userRepository = userRepository;
+        this.imageBlobRepository = imageBlobRepository;
+        this.imageVariants = imageVariants;
+        this.imageMemoryCache = imageMemoryCache;
+        this.imageStorage = imageStorage;
+        this.imageGarbageRepository = imageGarbageRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.fileExecutor = fileExecutor;
     }
 
     /**
-     * Upload new advert photo
+     * Stage upload outside of transaction and run action with it in a new transaction,
+     * which publishes staged file to its storage before commit, see {@link #attach}.
+     * Database connection is thus never held while the upload is received.
      *
-     * @param file {@link MultipartFile}
+     * @param file   {@link MultipartFile}
+     * @param action database work saving image for {@link StagedImage}
+     * @return result of action
+     */
+    public <R> R withUpload(MultipartFile file, Function<StagedImage, R> action) {
+        StagedImage staged = stage(file);
+        try {
+            return transactionTemplate.execute(status -> action.apply(staged));
+        } finally {
+            release(staged);
+        }
+    }
+
+    /**
+     * Save new advert photo for staged upload
+     *
+     * @param staged {@link StagedImage}
      * @return {@link Photo}
      */
     @Transactional
-    public Photo uploadPhoto(MultipartFile file) {
+    public Photo uploadPhoto(StagedImage staged) {
         log.info("Upload new advert photo");
-        try {
-            Photo photo = new Photo(photosDir);
-            mapFileToImage(file, photo);
-            photo = imageRepository.save(photo);
-            upload(photo, file);
-            return photo;
-        } catch (Exception exception) {
-            log.error(exception.getMessage());
-            throw new ImageUploadException(exception.getMessage());
-        }
+        return upload(new Photo(photosDir), staged);
     }
 
     /**
-     * Update advert photo
+     * Update advert photo for staged upload
      *
      * @param advert {@link Advert}
-     * @param file   {@link MultipartFile}
+     * @param staged {@link StagedImage}
      * @return {@link Photo}
      */
     @Transactional
-    public Photo uploadPhoto(Advert advert, MultipartFile file) {
+    public Photo uploadPhoto(Advert advert, StagedImage staged) {
         log.info("Upload advert photo");
-        try {
-            Photo photo = advert.getPhoto();
-            mapFileToImage(file, photo);
-            photo = imageRepository.save(photo);
-            upload(photo, file);
-            return photo;
-        } catch (Exception exception) {
-            log.error(exception.getMessage());
-            throw new ImageUploadException(exception.getMessage());
+        Photo photo = advert.getPhoto();
+        if (photo == null) {
+            photo = new Photo(photosDir);
         }
+        Runnable release = releaseOnReplace(photo);
+        photo = upload(photo, staged);
+        release.run();
+        advert.setPhoto(photo);
+        return photo;
     }
 
     /**
-     * Update user avatar
+     * Update user avatar for staged upload
      *
-     * @param user {@link User}
-     * @param file {@link MultipartFile}
+     * @param user   {@link User}
+     * @param staged {@link StagedImage}
      * @return {@link Avatar}
      */
     @Transactional
-    public Avatar uploadAvatar(User user, MultipartFile file) {
+    public Avatar uploadAvatar(User user, StagedImage staged) {
         log.info("Upload user avatar");
+        Avatar avatar = user.getAvatar();
+        if (avatar == null) {
+            avatar = new Avatar(avatarsDir);
+        }
+        Runnable release = releaseOnReplace(avatar);
+        avatar = upload(avatar, staged);
+        release.run();
+        user.setAvatar(avatar);
+        userRepository.save(user);
+        return avatar;
+    }
+
+    /**
+     * Stream upload to staging file through fixed size buffer, hashing it on the way.
+     * Declared size is checked before reading, while format, pixel size and byte size
+     * are checked on the bytes actually read, see {@link #stage(InputStream, String, long)}.
+     *
+     * @param file {@link MultipartFile}
+     * @return {@link StagedImage}
+     */
+    public StagedImage stage(MultipartFile file) {
+        if (file.getSize() > maxSize.toBytes()) {
+            log.error("Image is larger than " + maxSize);
+            throw new ImageTooLargeException("Image is larger than " + maxSize);
+        }
+        try (InputStream in = file.getInputStream()) {
+            return stage(in, file.getOriginalFilename(), maxSize.toBytes());
+        } catch (ImageUploadException exception) {
+            log.error(exception.getMessage());
+            throw exception;
+        } catch (IOException exception) {
+            log.error(exception.getMessage());
+            throw new ImageUploadException(exception.getMessage());
+        }
+    }
+
+    /**
+     * Stream image without declared size, such as archive entry, to staging file.
+     * Size is limited by {@code ads.images.max-size} like for a multipart upload,
+     * so a small entry which inflates to gigabytes is cut off.
+     *
+     * @param in       image content
+     * @param fileName original file name
+     * @return {@link StagedImage}
+     */
+    StagedImage stage(InputStream in, String fileName) throws IOException {
+        return stage(in, fileName, maxSize.toBytes());
+    }
+
+    /**
+     * Copy image content to staging file, hashing it on the way.
+     * Format and pixel size are taken from the image header by {@link ImageHeaderReader}, not from
+     * the client, so an image which is not of allowed type or declares more than
+     * {@code ads.images.max-pixels} pixels is rejected as soon as its header is read.
+     *
+     * @param in       image content
+     * @param fileName original file name
+     * @param limit    max size in bytes
+     * @return {@link StagedImage}
+     */
+    private StagedImage stage(InputStream in, String fileName, long limit) throws IOException {
+        Path dir = Path.of(stagingDir);
+        Files.createDirectories(dir);
+        Path staged = Files.createTempFile(dir, STAGED_PREFIX, STAGED_SUFFIX);
+        MessageDigest digest = newDigest();
+        ImageHeaderReader header = new ImageHeaderReader();
+        long size = 0;
+        byte[] buffer = new byte[BUFFER_SIZE];
+        try (OutputStream out = Files.newOutputStream(staged)) {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                size += read;
+                if (size > limit) {
+                    throw new ImageTooLargeException("Image is larger than " + DataSize.ofBytes(limit));
+                }
+                if (!header.isComplete() && header.feed(buffer, 0, read)) {
+                    checkHeader(header);
+                }
+                digest.update(buffer, 0, read);
+                out.write(buffer, 0, read);
+            }
+            if (!header.isComplete()) {
+                checkHeader(header);
+            }
+        } catch (IOException | RuntimeException exception) {
+            deleteStaged(staged);
+            throw exception;
+        }
+        ImageHeaderReader.Format format = header.getFormat();
+        return new StagedImage(staged, format.getType(), fileName, format.getExtension(), size,
+                toHex(digest.digest()), header.getWidth(), header.getHeight());
+    }
+
+    private void checkHeader(ImageHeaderReader header) {
+        ImageHeaderReader.Format format = header.getFormat();
+        if (format == null || !allowedTypes.contains(format.getType())) {
+            throw new ImageTypeNotSupportedException("Image type not supported: "
+                    + (format == null ? "unknown" : format.getType()));
+        }
+        if ((long) header.getWidth() * header.getHeight() > maxPixels) {
+            throw new ImageTooLargeException("Image is larger than " + maxPixels + " pixels: "
+                    + header.getWidth() + "x" + header.getHeight());
+        }
+    }
+
+    /**
+     * Describe image by staged content and point it to its storage, before it is saved
+     *
+     * @param image  {@link Image}
+     * @param staged {@link StagedImage}
+     */
+    void fill(Image image, StagedImage staged) {
+        image.setFileType(staged.getFileType());
+        image.setFileName(staged.getFileName());
+        image.setFileExtension(staged.getFileExtension());
+        image.setFileSize(staged.getFileSize());
+        image.setContentHash(staged.getContentHash());
+        image.setWidth(staged.getWidth());
+        image.setHeight(staged.getHeight());
+        locate(image);
+        version(image);
+    }
+
+    /**
+     * Bind saved image to staged content, referencing shared blob, and publish staged file
+     * to {@link ImageStorage} in the same transaction, so a committed image always has its file.
+     * File is published under a new versioned name nothing refers to yet, so readers of the previous
+     * version are not affected. A failed write rolls the transaction back, and a file written for
+     * a rolled back transaction is deleted. Blob is left to {@link ImageReconciler} instead,
+     * as a concurrent upload of the same content may find it meanwhile.
+     * Resized variants are scheduled after commit.
+     *
+     * @param saved  saved {@link Image}
+     * @param staged {@link StagedImage}
+     */
+    void attach(Image saved, StagedImage staged) {
+        staged.attach(saved);
+        if (saved.isContentAddressed()) {
+            referenceBlob(saved.getContentHash());
+        }
+        Path filePath;
+        boolean written;
         try {
-            Avatar avatar = user.getAvatar();
-            if (avatar == null) {
-                avatar = new Avatar(avatarsDir);
+            filePath = saved.getFilePath();
+            written = !imageStorage.exists(filePath);
+            if (written) {
+                imageStorage.put(filePath, staged.getPath());
             }
-            mapFileToImage(file, avatar);
-            avatar = imageRepository.save(avatar);
-            upload(avatar, file);
-            user.setAvatar(avatar);
-            userRepository.save(user);
-            return avatar;
-        } catch (Exception exception) {
-            log.error(exception.getMessage());
+        } catch (IOException | RuntimeException exception) {
+            log.error("Image " + saved.getId() + " not published: " + exception.getMessage());
             throw new ImageUploadException(exception.getMessage());
         }
+        boolean own = written && !saved.isContentAddressed();
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            imageVariants.schedule(saved);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                imageVariants.schedule(saved);
+            }
+
+            @Override
+            public void afterCompletion(int status) {
+                if (status != STATUS_COMMITTED && own) {
+                    fileExecutor.execute(() -> deleteFile(filePath));
+                }
+            }
+        });
     }
 
     /**
-     * Delete image from file system
+     * Delete staging file, whether it was published or not
      *
-     * @param image {@link Image}
+     * @param staged {@link StagedImage}, may be null
+     */
+    public void release(StagedImage staged) {
+        if (staged != null) {
+            deleteStaged(staged.getPath());
+        }
+    }
+
+    /**
+     * Delete images via {@link ImageRepository} with one statement.
+     * Files are removed from file system after commit, so a rollback keeps them.
+     * Shared blobs are released only when no other image refers to them and are left to
+     * {@link ImageGarbageCollector}, which keeps a blob uploaded again meanwhile.
+     *
+     * @param images {@link Image} list, null values are skipped
      */
     @Transactional
-    public void deleteFile(Image image) {
-        if (image != null) {
-            try {
-                log.info("Delete image id " + image.getId());
-                Files.deleteIfExists(image.getFilePath().toAbsolutePath().toFile().toPath());
-            } catch (IOException exception) {
-                log.error(exception.getMessage());
-                throw new ImageUploadException(exception.getMessage());
+    public void delete(Collection<? extends Image> images) {
+        List<Integer> ids = new ArrayList<>();
+        List<Path> paths = new ArrayList<>();
+        List<String> blobs = new ArrayList<>();
+        for (Image image : images) {
+            if (image == null) {
+                continue;
             }
+            ids.add(image.getId());
+            if (image.isContentAddressed()) {
+                blobs.add(image.getContentHash());
+            } else {
+                paths.add(image.getFilePath());
+            }
+        }
+        if (ids.isEmpty()) {
+            return;
+        }
+        log.info("Delete images with ids: " + ids);
+        imageRepository.deleteByIds(ids);
+        collectBlobsAfterGrace(releaseBlobs(blobs));
+        deleteAfterCommit(paths);
+    }
+
+    /**
+     * Point new image to storage of current {@link ImageStorageMode} and directory layout, before it is saved
+     *
+     * @param image {@link Image}
+     */
+    void locate(Image image) {
+        if (storageMode == ImageStorageMode.CONTENT_ADDRESSED) {
+            image.setContentAddressed(true);
+            image.setImageDir(blobsDir);
+        } else if (image.isContentAddressed()) {
+            image.setContentAddressed(false);
+            image.setImageDir(image instanceof Avatar ? avatarsDir : photosDir);
         }
+        image.setSharded(sharded);
+    }
+
+    /**
+     * Delete stored file with its variants
+     *
+     * @param filePath file location
+     */
+    void discard(Path filePath) {
+        deleteFile(filePath);
+    }
+
+    /**
+     * Delete file of blob with its variants, in both directory layouts as a blob
+     * may not be migrated to the current one yet
+     *
+     * @param contentHash blob hash
+     */
+    void discardBlob(String contentHash) {
+        deleteFile(Image.blobPath(blobsDir, contentHash, sharded));
+        deleteFile(Image.blobPath(blobsDir, contentHash, !sharded));
+    }
+
+    /**
+     * Name own file of image by its content version, so new content never overwrites a file being read
+     *
+     * @param image {@link Image} with content hash, located by {@link #locate}
+     */
+    void version(Image image) {
+        image.setFileVersion(image.isContentAddressed() || image.getContentHash() == null
+                ? null : image.getContentHash().substring(0, Image.VERSION_LENGTH));
     }
 
-    private void upload(Image image, MultipartFile file) throws IOException {
+    /**
+     * Capture content image refers to, so it is released once image points to new content.
+     * Released file is deleted by {@link ImageGarbageCollector} after grace period,
+     * as requests that loaded the previous version may still be sending it.
+     */
+    private Runnable releaseOnReplace(Image image) {
+        if (image.getFileName() == null) {
+            return () -> {
+            };
+        }
+        if (image.isContentAddressed()) {
+            String hash = image.getContentHash();
+            return () -> collectBlobsAfterGrace(releaseBlobs(List.of(hash)));
+        }
         Path filePath = image.getFilePath();
-        Files.createDirectories(filePath.getParent());
-        Files.deleteIfExists(filePath);
-        Files.write(filePath, file.getBytes());
+        return () -> {
+            if (!filePath.equals(image.getFilePath())) {
+                collectAfterGrace(filePath);
+            }
+        };
+    }
+
+    /**
+     * Record released blobs as garbage, one record per blob, see {@link #discardBlob}
+     */
+    private void collectBlobsAfterGrace(List<String> contentHashes) {
+        LocalDateTime deleteAfter = LocalDateTime.now().plus(garbageGrace);
+        imageGarbageRepository.saveAll(contentHashes.stream()
+                .map(hash -> new ImageGarbage(Image.blobPath(blobsDir, hash, sharded).toString(), hash, deleteAfter))
+                .collect(Collectors.toList()));
     }
 
-    private void mapFileToImage(MultipartFile file, Image image) {
-        image.setFileType(file.getContentType());
-        image.setFileName(file.getOriginalFilename());
-        image.setFileExtension(StringUtils.getFilenameExtension(file.getOriginalFilename()));
-        image.setFileSize(file.getSize());
+    private void collectAfterGrace(Path filePath) {
+        imageGarbageRepository.save(new ImageGarbage(filePath.toString(), null, LocalDateTime.now().plus(garbageGrace)));
+    }
+
+    /**
+     * Add reference to blob, creating it when missing. Increment locks the row, so
+     * {@link ImageGarbageCollector} cannot delete the blob before this transaction ends.
+     */
+    private void referenceBlob(String contentHash) {
+        imageBlobRepository.insertIfMissing(contentHash);
+        imageBlobRepository.reference(contentHash);
+    }
+
+    /**
+     * Drop references to blobs, one per list element. Unreferenced blobs keep their rows
+     * and are left to {@link ImageGarbageCollector}, which deletes row and file together,
+     * as an upload of the same content may reference the blob again meanwhile.
+     *
+     * @return hashes of unreferenced blobs
+     */
+    private List<String> releaseBlobs(List<String> contentHashes) {
+        if (contentHashes.isEmpty()) {
+            return Collections.emptyList();
+        }
+        Map<String, Long> counts = contentHashes.stream()
+                .collect(Collectors.groupingBy(Function.identity(), Collectors.counting()));
+        counts.forEach((hash, count) -> imageBlobRepository.release(hash, count.intValue()));
+        List<String> unreferenced = imageBlobRepository.findUnreferencedHashes(counts.keySet());
+        if (unreferenced.isEmpty()) {
+            return Collections.emptyList();
+        }
+        log.info("Release unreferenced blobs: " + unreferenced);
+        return unreferenced;
+    }
+
+    /**
+     * Files of a transaction are deleted on {@link ImageConfig#FILE_EXECUTOR} after commit,
+     * so its connection is not held while storage is slow to respond
+     */
+    private void deleteAfterCommit(List<Path> paths) {
+        if (paths.isEmpty()) {
+            return;
+        }
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            paths.forEach(this::deleteFile);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                fileExecutor.execute(() -> paths.forEach(ImageService.this::deleteFile));
+            }
+        });
+    }
+
+    private void deleteFile(Path filePath) {
+        try {
+            imageStorage.delete(filePath);
+            imageMemoryCache.evict(filePath);
+            for (Path variant : imageVariants.paths(filePath)) {
+                imageStorage.delete(variant);
+                imageMemoryCache.evict(variant);
+            }
+        } catch (IOException exception) {
+            log.error(exception.getMessage());
+        }
+    }
+
+    /**
+     * Save image described by staged content
+     */
+    private <T extends Image> T upload(T image, StagedImage staged) {
+        fill(image, staged);
+        T saved = imageRepository.save(image);
+        attach(saved, staged);
+        return saved;
+    }
+
+    private void deleteStaged(Path staged) {
+        try {
+            Files.deleteIfExists(staged);
+        } catch (IOException exception) {
+            log.error(exception.getMessage());
+        }
+    }
+
+    /**
+     * Digest for {@link Image#getContentHash()}
+     *
+     * @return SHA-256 {@link MessageDigest}
+     */
+    static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException exception) {
+            throw new IllegalStateException(exception);
+        }
+    }
+
+    /**
+     * Lower case hex of digest
+     *
+     * @param digest digest bytes
+     * @return hex string
+     */
+    static String toHex(byte[] digest) {
+        StringBuilder hex = new StringBuilder(digest.length * 2);
+        for (byte b : digest) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
     }
 }
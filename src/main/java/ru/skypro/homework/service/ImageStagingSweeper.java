@@ -0,0 +1,61 @@
+package ru.skypro.homework.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+
+/**
+ * Deletes staging files left behind by uploads, see {@link StagedImage}.
+ * Every upload releases its file when it completes, so a file older than
+ * {@code ads.images.staging.max-age} belongs to a request that was killed with the process.
+ */
+@Service
+@Slf4j
+public class ImageStagingSweeper {
+    @Value("${path.to.staging.folder}")
+    private String stagingDir;
+    @Value("${ads.images.staging.max-age}")
+    private Duration maxAge;
+
+    /**
+     * Delete staging files older than max age
+     *
+     * @return number of deleted files
+     */
+    @Scheduled(fixedDelayString = "${ads.images.staging.sweep-delay}")
+    public int sweep() {
+        Path dir = Path.of(stagingDir);
+        if (!Files.isDirectory(dir)) {
+            return 0;
+        }
+        Instant deadline = Instant.now().minus(maxAge);
+        int deleted = 0;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir,
+                ImageService.STAGED_PREFIX + "*" + ImageService.STAGED_SUFFIX)) {
+            for (Path file : files) {
+                try {
+                    if (Files.getLastModifiedTime(file).toInstant().isBefore(deadline) && Files.deleteIfExists(file)) {
+                        deleted++;
+                    }
+                } catch (NoSuchFileException exception) {
+                    // released by its upload meanwhile
+                }
+            }
+        } catch (IOException exception) {
+            log.error(exception.getMessage());
+        }
+        if (deleted > 0) {
+            log.info("Deleted abandoned staging files: " + deleted);
+        }
+        return deleted;
+    }
+}
@@ -0,0 +1,16 @@
+package ru.skypro.homework.service;
+
+/**
+ * Layout used by {@link ImageService} to store image files
+ */
+public enum ImageStorageMode {
+    /**
+     * Every image has its own file named by image id
+     */
+    FILE_PER_IMAGE,
+    /**
+     * Image content is stored once under its SHA-256 hash and shared by reference count,
+     * see {@link ru.skypro.homework.model.ImageBlob}
+     */
+    CONTENT_ADDRESSED
+}
@@ -0,0 +1,43 @@
+package ru.skypro.homework.service;
+
+import lombok.Getter;
+import ru.skypro.homework.model.Image;
+
+import java.nio.file.Path;
+
+/**
+ * Image content written to a local staging file before any transaction is opened.
+ * The image saved for it publishes the file to its storage before commit,
+ * see {@link ImageService#attach}, and the staging file is released either way.
+ */
+@Getter
+public class StagedImage {
+    private final Path path;
+    private final String fileType;
+    private final String fileName;
+    private final String fileExtension;
+    private final long fileSize;
+    private final String contentHash;
+    private final int width;
+    private final int height;
+    /**
+     * Image saved for this content, null until it is attached
+     */
+    private Image image;
+
+    StagedImage(Path path, String fileType, String fileName, String fileExtension, long fileSize, String contentHash,
+                int width, int height) {
+        this.path = path;
+        this.fileType = fileType;
+        this.fileName = fileName;
+        this.fileExtension = fileExtension;
+        this.fileSize = fileSize;
+        this.contentHash = contentHash;
+        this.width = width;
+        this.height = height;
+    }
+
+    void attach(Image image) {
+        this.image = image;
+    }
+}
@@ -0,0 +1,170 @@
+package ru.skypro.homework.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Async;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.security.provisioning.JdbcUserDetailsManager;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.skypro.homework.component.AdvertListingVersion;
+import ru.skypro.homework.component.AdvertSearchIndex;
+import ru.skypro.homework.configuration.AsyncConfig;
+import ru.skypro.homework.configuration.CacheConfig;
+import ru.skypro.homework.model.Advert;
+import ru.skypro.homework.model.User;
+import ru.skypro.homework.repository.AdvertRepository;
+import ru.skypro.homework.repository.CommentRepository;
+import ru.skypro.homework.repository.UserRepository;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+
+/**
+ * Service for removing users with everything they own.
+ * Work is split into short transactions of {@code ads.purge.chunk-size} rows,
+ * so a large account never holds locks for long.
+ * Every chunk renews purge mark of user, a purge whose mark stops moving is resumed by {@link #resume}.
+ */
+@Service
+@Slf4j
+public class UserPurgeService {
+    @Value("${ads.purge.chunk-size}")
+    private int chunkSize;
+    @Value("${ads.purge.resume-delay}")
+    private Duration resumeDelay;
+    private final UserRepository userRepository;
+    private final AdvertRepository advertRepository;
+    private final CommentRepository commentRepository;
+    private final ImageService imageService;
+    private final AdvertSearchIndex searchIndex;
+    private final AdvertListingVersion listingVersion;
+    private final CacheManager cacheManager;
+    private final JdbcUserDetailsManager manager;
+    private final TransactionTemplate transactionTemplate;
+
+    public UserPurgeService(UserRepository userRepository,
+                            AdvertRepository advertRepository,
+                            CommentRepository commentRepository,
+                            ImageService imageService,
+                            AdvertSearchIndex searchIndex,
+                            AdvertListingVersion listingVersion,
+                            CacheManager cacheManager,
+                            JdbcUserDetailsManager manager,
+                            PlatformTransactionManager transactionManager) {
+        this.userRepository = userRepository;
+        this.advertRepository = advertRepository;
+        this.commentRepository = commentRepository;
+        this.imageService = imageService;
+        this.searchIndex = searchIndex;
+        this.listingVersion = listingVersion;
+        this.cacheManager = cacheManager;
+        this.manager = manager;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    /**
+     * Delete adverts of user with their comments and photos, then comments of user,
+     * then user with avatar
+     *
+     * @param userId user id
+     * @return completion of purge
+     */
+    @Async(AsyncConfig.PURGE_EXECUTOR)
+    public CompletableFuture<Void> purge(int userId) {
+        log.info("Purge user with id: " + userId);
+        int adverts = 0;
+        int deleted;
+        do {
+            deleted = transactionTemplate.execute(status -> deleteAdvertsChunk(userId));
+            adverts += deleted;
+        } while (deleted == chunkSize);
+        int comments = 0;
+        do {
+            deleted = transactionTemplate.execute(status -> deleteCommentsChunk(userId));
+            comments += deleted;
+        } while (deleted == chunkSize);
+        transactionTemplate.executeWithoutResult(status -> deleteUser(userId));
+        log.info("Purged user with id: " + userId + ", adverts: " + adverts + ", comments: " + comments);
+        return CompletableFuture.completedFuture(null);
+    }
+
+    /**
+     * Resume purges whose mark has not moved for {@code ads.purge.resume-delay},
+     * as the process running them died. A purge is claimed by moving its mark,
+     * so only one node resumes it, and it runs in the calling thread.
+     *
+     * @return number of resumed purges
+     */
+    @Scheduled(initialDelayString = "${ads.purge.resume-delay}", fixedDelayString = "${ads.purge.resume-delay}")
+    public int resume() {
+        LocalDateTime before = LocalDateTime.now().minus(resumeDelay);
+        List<Integer> ids = userRepository.findIdsByPurgeRequestedAtBefore(before, PageRequest.of(0, chunkSize));
+        int resumed = 0;
+        for (int id : ids) {
+            Integer claimed = transactionTemplate.execute(status ->
+                    userRepository.renewPurge(id, before, LocalDateTime.now()));
+            if (claimed == null || claimed == 0) {
+                continue;
+            }
+            try {
+                purge(id);
+                resumed++;
+            } catch (RuntimeException exception) {
+                log.error("Purge of user with id " + id + " failed: " + exception.getMessage());
+            }
+        }
+        if (resumed > 0) {
+            log.info("Resumed purges: " + resumed);
+        }
+        return resumed;
+    }
+
+    private int deleteAdvertsChunk(int userId) {
+        renewPurge(userId);
+        List<Advert> adverts = advertRepository.findWithPhotoByAuthorId(userId, PageRequest.of(0, chunkSize));
+        if (adverts.isEmpty()) {
+            return 0;
+        }
+        List<Integer> ids = adverts.stream().map(Advert::getId).collect(Collectors.toList());
+        commentRepository.deleteByAdvertIds(ids);
+        advertRepository.deleteByIds(ids);
+        listingVersion.changed();
+        imageService.delete(adverts.stream().map(Advert::getPhoto).collect(Collectors.toList()));
+        Cache cache = cacheManager.getCache(CacheConfig.ADVERTS_CACHE);
+        for (Advert advert : adverts) {
+            searchIndex.remove(advert);
+            if (cache != null) {
+                cache.evict(advert.getId());
+            }
+        }
+        return adverts.size();
+    }
+
+    private int deleteCommentsChunk(int userId) {
+        renewPurge(userId);
+        return commentRepository.deleteChunkByAuthorId(userId, chunkSize);
+    }
+
+    private void renewPurge(int userId) {
+        LocalDateTime now = LocalDateTime.now();
+        userRepository.renewPurge(userId, now, now);
+    }
+
+    private void deleteUser(int userId) {
+        User user = userRepository.findWithAvatarById(userId).orElse(null);
+        if (user == null) {
+            return;
+        }
+        manager.deleteUser(user.getUsername());
+        imageService.delete(Collections.singletonList(user.getAvatar()));
+    }
+}
@@ -1,16 +1,22 @@
 package ru.skypro.homework.service;
 
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
 import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.security.provisioning.JdbcUserDetailsManager;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 import org.springframework.web.multipart.MultipartFile;
 import ru.skypro.homework.component.AuthenticationComponent;
+import ru.skypro.homework.configuration.CacheConfig;
+import ru.skypro.homework.dto.ImageDto;
 import ru.skypro.homework.dto.NewPasswordDto;
 import ru.skypro.homework.dto.RegisterReqDto;
-import ru.skypro.homework.exception.ImageUploadException;
+import ru.skypro.homework.exception.ActionForbiddenException;
 import ru.skypro.homework.model.Image;
 import ru.skypro.homework.model.Role;
 import ru.skypro.homework.dto.UserDto;
@@ -18,11 +24,13 @@ import ru.skypro.homework.exception.UserNotFoundException;
 import ru.skypro.homework.exception.UserUnauthorizedException;
 import ru.skypro.homework.mapper.UserMapper;
 import ru.skypro.homework.model.User;
+import ru.skypro.homework.repository.AdvertRepository;
 import ru.skypro.homework.repository.UserRepository;
 import ru.skypro.homework.dto.SecuringUserDto;
 import ru.skypro.homework.security.UserDetailsImpl;
 
-import java.io.IOException;
+import java.time.LocalDateTime;
+
 
 /**
  * Service for maintain users via {@link UserRepository}
@@ -36,19 +44,28 @@ public class UserService {
     private final PasswordEncoder encoder;
     private final ImageService imageService;
     private final AuthenticationComponent auth;
+    private final AdvertRepository advertRepository;
+    private final CacheManager cacheManager;
+    private final UserPurgeService userPurgeService;
 
     public UserService(UserRepository userRepository,
                        UserMapper userMapper,
                        JdbcUserDetailsManager manager,
                        PasswordEncoder encoder,
                        ImageService imageService,
-                       AuthenticationComponent auth) {
+                       AuthenticationComponent auth,
+                       AdvertRepository advertRepository,
+                       CacheManager cacheManager,
+                       UserPurgeService userPurgeService) {
         this.userRepository = userRepository;
         this.userMapper = userMapper;
         this.manager = manager;
         this.encoder = encoder;
         this.imageService = imageService;
         this.auth = auth;
+        this.advertRepository = advertRepository;
+        this.cacheManager = cacheManager;
+        this.userPurgeService = userPurgeService;
     }
 
     /**
@@ -102,9 +119,40 @@ public class UserService {
         }
         userMapper.updateUser(userDto, user);
         userRepository.save(user);
+        evictAdverts(user);
         return userMapper.userToUserDto(user);
     }
 
+    /**
+     * Disable user at once and remove it with its adverts and comments in background
+     * via {@link UserPurgeService}. Purge is recorded with the user in the same transaction
+     * and started after commit, so it is resumed by {@link UserPurgeService#resume} if the process dies.
+     *
+     * @param id user id
+     */
+    @Transactional
+    public void delete(int id) {
+        log.info("Delete user with id: " + id);
+        User user = userRepository.findById(id)
+                .orElseThrow(() -> new UserNotFoundException("User not found"));
+        if (auth.checkAuthNotEnough(user.getUsername())) {
+            throw new ActionForbiddenException("Forbidden");
+        }
+        user.setEnabled(false);
+        user.setPurgeRequestedAt(LocalDateTime.now());
+        userRepository.save(user);
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            userPurgeService.purge(id);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                userPurgeService.purge(id);
+            }
+        });
+    }
+
     /**
      * Change user password
      *
@@ -117,22 +165,19 @@ public class UserService {
     }
 
     /**
-     * Update avatar of authorized user
+     * Update avatar of authorized user.
+     * Image is written outside of the transaction, see {@link ImageService#withUpload}.
      *
      * @param file {@link MultipartFile}
-     * @return bytes
+     * @return {@link ImageDto}
      */
-    @Transactional
-    public byte[] updateImage(MultipartFile file) {
+    public ImageDto updateImage(MultipartFile file) {
         log.info("Update user avatar");
-        try {
-            User user = userRepository.findByUsername(auth.getAuth().getName());
-            imageService.uploadAvatar(user, file);
-            return file.getBytes();
-        } catch (IOException exception) {
-            log.error(exception.getMessage());
-            throw new ImageUploadException(exception.getMessage());
-        }
+        return imageService.withUpload(file, staged -> {
+            User user = userRepository.findForImageUpdateByUsername(auth.getAuth().getName());
+            imageService.uploadAvatar(user, staged);
+            return userMapper.userToImageDto(user);
+        });
     }
 
     /**
@@ -142,7 +187,7 @@ public class UserService {
      */
     public Image downloadImage() {
         log.info("Download user avatar with email: " + auth.getAuth().getName());
-        User user = userRepository.findByUsername(auth.getAuth().getName());
+        User user = userRepository.findWithAvatarByUsername(auth.getAuth().getName());
         return user.getAvatar();
     }
 
@@ -154,18 +199,42 @@ public class UserService {
      */
     public Image downloadImageByUserId(int id) {
         log.info("Download user image with id: " + id);
-        User user = userRepository.findById(id)
+        User user = userRepository.findWithAvatarById(id)
                 .orElseThrow(() -> new UserNotFoundException("User not found"));
         return user.getAvatar();
     }
 
+    /**
+     * Strong ETag of authorized user info, built from user version
+     *
+     * @return ETag
+     */
+    public String findInfoETag() {
+        Long version = userRepository.findVersionByUsername(auth.getAuth().getName());
+        if (version == null) {
+            throw new UserUnauthorizedException("User not found");
+        }
+        return "\"" + version + "\"";
+    }
+
     /**
      * Get user info via {@link UserRepository}
      *
      * @return {@link UserDto}
      */
     public UserDto findInfo() {
-        User user = userRepository.findByUsername(auth.getAuth().getName());
+        User user = userRepository.findWithAvatarByUsername(auth.getAuth().getName());
         return userMapper.userToUserDto(user);
     }
+
+    /**
+     * Evict cached details of user adverts, they contain author name and phone
+     */
+    private void evictAdverts(User user) {
+        Cache adverts = cacheManager.getCache(CacheConfig.ADVERTS_CACHE);
+        if (adverts == null) {
+            return;
+        }
+        advertRepository.findIdsByAuthorId(user.getId()).forEach(adverts::evict);
+    }
 }
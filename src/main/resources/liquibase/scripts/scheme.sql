@@ -52,3 +52,101 @@ create table authorities(
     authority varchar(20)
 );
 
+-- changeSet akmeevd:4
+alter table adverts
+    add column if not exists search_vector tsvector
+        generated always as (to_tsvector('russian', coalesce(title, '') || ' ' || coalesce(description, ''))) stored;
+
+create index if not exists adverts_search_vector_idx on adverts using gin (search_vector);
+
+-- changeSet akmeevd:5
+alter table adverts
+    add column if not exists created_at timestamp not null default now();
+
+update adverts set price = 0 where price is null;
+alter table adverts alter column price set not null;
+
+create index if not exists adverts_price_id_idx on adverts (price, id);
+create index if not exists adverts_created_at_id_idx on adverts (created_at, id);
+create index if not exists adverts_user_id_id_idx on adverts (user_id, id);
+
+
+-- changeSet akmeevd:6
+alter table adverts
+    add column if not exists version bigint not null default 0;
+alter table users
+    add column if not exists version bigint not null default 0;
+alter table comments
+    add column if not exists version bigint not null default 0;
+
+-- changeSet akmeevd:7
+alter sequence images_id_seq increment by 50;
+alter sequence users_id_seq increment by 50;
+alter sequence adverts_id_seq increment by 50;
+alter sequence comments_id_seq increment by 50;
+
+-- changeSet akmeevd:8
+create index if not exists comments_advert_id_idx on comments (advert_id);
+create index if not exists comments_author_id_idx on comments (author_id);
+
+-- changeSet akmeevd:9
+alter table images
+    add column if not exists content_hash varchar(64);
+
+-- changeSet akmeevd:10
+alter table images
+    add column if not exists content_addressed boolean not null default false;
+
+create table if not exists image_blobs
+(
+    content_hash varchar(64) primary key not null,
+    ref_count    integer                 not null
+);
+
+-- changeSet akmeevd:11
+alter table images
+    add column if not exists sharded boolean not null default false;
+
+create index if not exists images_sharded_idx on images (sharded) where not sharded;
+
+-- changeSet akmeevd:12
+alter table images
+    add column if not exists file_version varchar(16);
+
+create sequence if not exists image_garbage_id_seq increment by 50;
+
+create table if not exists image_garbage
+(
+    id           bigint primary key not null,
+    path         varchar(1024)      not null,
+    content_hash varchar(64),
+    delete_after timestamp          not null
+);
+
+create index if not exists image_garbage_delete_after_idx on image_garbage (delete_after);
+
+-- changeSet akmeevd:13
+alter table images
+    add column if not exists width int;
+alter table images
+    add column if not exists height int;
+
+-- changeSet akmeevd:14
+create table if not exists advert_listing
+(
+    id      integer primary key not null,
+    version bigint              not null
+);
+
+insert into advert_listing (id, version) values (1, 0);
+
+-- changeSet akmeevd:15
+alter table users
+    add column if not exists purge_requested_at timestamp;
+
+create index if not exists users_purge_requested_at_idx on users (purge_requested_at)
+    where purge_requested_at is not null;
+
+-- changeSet akmeevd:16
+insert into advert_listing (id, version)
+select id, 0 from generate_series(2, 16) as id;
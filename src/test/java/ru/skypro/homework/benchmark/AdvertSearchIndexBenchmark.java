@@ -0,0 +1,82 @@
+package ru.skypro.homework.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import ru.skypro.homework.component.AdvertSearchIndex;
+import ru.skypro.homework.model.Advert;
+import ru.skypro.homework.service.AdvertSearchMode;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lookup latency of {@link AdvertSearchIndex} over synthetic adverts.
+ * Run with {@code mvn -Pbenchmark test-compile exec:exec} or via {@link #main}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = {"-Xms2g", "-Xmx2g"})
+public class AdvertSearchIndexBenchmark {
+    private static final String[] WORDS = {
+            "bike", "helmet", "sofa", "table", "lamp", "phone", "guitar", "camera", "jacket", "boots",
+            "red", "blue", "green", "black", "white", "new", "used", "vintage", "cheap", "large",
+            "small", "wooden", "leather", "electric", "kids", "city", "mountain", "road", "office", "garden"
+    };
+
+    @Param({"1000000"})
+    private int adverts;
+    private AdvertSearchIndex searchIndex;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        searchIndex = new AdvertSearchIndex(null, AdvertSearchMode.INDEX);
+        Random random = new Random(42);
+        Advert advert = new Advert();
+        for (int id = 1; id <= adverts; id++) {
+            advert.setId(id);
+            advert.setTitle(words(random, 3) + " " + id);
+            advert.setDescription(words(random, 12));
+            searchIndex.add(advert);
+        }
+    }
+
+    @Benchmark
+    public int[] singleTerm() {
+        return searchIndex.search("guitar", 0, 20);
+    }
+
+    @Benchmark
+    public int[] twoTerms() {
+        return searchIndex.search("red guitar", 0, 20);
+    }
+
+    @Benchmark
+    public int[] threeTermsDeepPage() {
+        return searchIndex.search("vintage leather jacket", 200, 20);
+    }
+
+    @Benchmark
+    public int[] rareTerm() {
+        return searchIndex.search("777777", 0, 20);
+    }
+
+    private static String words(Random random, int count) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            text.append(WORDS[random.nextInt(WORDS.length)]).append(' ');
+        }
+        return text.toString();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(AdvertSearchIndexBenchmark.class.getSimpleName())
+                .build())
+                .run();
+    }
+}
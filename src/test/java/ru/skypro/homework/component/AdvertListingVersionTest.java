@@ -0,0 +1,80 @@
+package ru.skypro.homework.component;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.skypro.homework.repository.AdvertListingRepository;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@ExtendWith(SpringExtension.class)
+@SpringBootTest
+@TestPropertySource(properties = {
+        "spring.datasource.url=jdbc:h2:mem:listing;DB_CLOSE_DELAY=-1;MODE=POSTGRESQL",
+        "spring.jpa.hibernate.ddl-auto=create-drop"
+})
+public class AdvertListingVersionTest {
+    @Autowired
+    private AdvertListingVersion listingVersion;
+    @Autowired
+    private AdvertListingRepository advertListingRepository;
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    private TransactionTemplate transactionTemplate;
+
+    @BeforeEach
+    public void setup() {
+        advertListingRepository.deleteAll();
+        transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    @Test
+    public void versionIsBumpedOncePerCommittedTransaction() {
+        assertEquals(0, listingVersion.current());
+
+        transactionTemplate.executeWithoutResult(status -> {
+            listingVersion.changed();
+            listingVersion.changed();
+            assertEquals(0, listingVersion.current());
+        });
+        assertEquals(1, listingVersion.current());
+
+        transactionTemplate.executeWithoutResult(status -> listingVersion.changed());
+        assertEquals(2, listingVersion.current());
+    }
+
+    @Test
+    public void rolledBackTransactionKeepsVersion() {
+        transactionTemplate.executeWithoutResult(status -> listingVersion.changed());
+
+        transactionTemplate.executeWithoutResult(status -> {
+            listingVersion.changed();
+            status.setRollbackOnly();
+        });
+
+        assertEquals(1, listingVersion.current());
+    }
+
+    @Test
+    public void writersIncrementDifferentCounters() {
+        for (int i = 0; i < 64; i++) {
+            transactionTemplate.executeWithoutResult(status -> listingVersion.changed());
+        }
+
+        assertEquals(64, listingVersion.current());
+        assertTrue(advertListingRepository.count() > 1);
+        assertTrue(advertListingRepository.count() <= AdvertListingVersion.STRIPES);
+    }
+
+    @Test
+    public void changeOutsideOfTransactionIsRejected() {
+        assertThrows(IllegalStateException.class, () -> listingVersion.changed());
+    }
+}
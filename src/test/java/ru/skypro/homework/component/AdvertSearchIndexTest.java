@@ -0,0 +1,122 @@
+package ru.skypro.homework.component;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.context.SmartLifecycle;
+import ru.skypro.homework.model.Advert;
+import ru.skypro.homework.repository.AdvertRepository;
+import ru.skypro.homework.service.AdvertSearchMode;
+
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class AdvertSearchIndexTest {
+    @Mock
+    private AdvertRepository advertRepository;
+    private AdvertSearchIndex searchIndex;
+
+    @BeforeEach
+    public void setup() {
+        searchIndex = new AdvertSearchIndex(advertRepository, AdvertSearchMode.INDEX);
+        searchIndex.add(mockAdvert(1, "Mountain bike", "Red, 21 speed"));
+        searchIndex.add(mockAdvert(2, "Road helmet", "Fits any bike"));
+        searchIndex.add(mockAdvert(3, "Red bike", "City bike with basket"));
+    }
+
+    @Test
+    public void tokenize() {
+        assertEquals(Set.of("red", "bike", "21", "speed"), AdvertSearchIndex.tokenize("Red bike, 21-speed!", null));
+    }
+
+    @Test
+    public void searchReturnsNewestFirst() {
+        assertArrayEquals(new int[]{3, 2, 1}, searchIndex.search("BIKE", 0, 10));
+    }
+
+    @Test
+    public void searchMatchesAllTerms() {
+        assertArrayEquals(new int[]{3, 1}, searchIndex.search("red bike", 0, 10));
+        assertArrayEquals(new int[0], searchIndex.search("red unicycle", 0, 10));
+    }
+
+    @Test
+    public void searchIsPaginated() {
+        assertArrayEquals(new int[]{2}, searchIndex.search("bike", 1, 1));
+        assertArrayEquals(new int[]{1}, searchIndex.search("bike", 2, 5));
+        assertArrayEquals(new int[0], searchIndex.search("bike", 3, 5));
+    }
+
+    @Test
+    public void update() {
+        Advert advert = mockAdvert(1, "Mountain bike", "Red, 21 speed");
+        AdvertSearchIndex.Document before = searchIndex.document(advert);
+        advert.setTitle("Skateboard");
+        advert.setDescription("Blue");
+        searchIndex.update(before, advert);
+        assertArrayEquals(new int[]{3, 2}, searchIndex.search("bike", 0, 10));
+        assertArrayEquals(new int[]{1}, searchIndex.search("skateboard", 0, 10));
+    }
+
+    @Test
+    public void remove() {
+        searchIndex.remove(mockAdvert(3, "Red bike", "City bike with basket"));
+        assertArrayEquals(new int[]{2, 1}, searchIndex.search("bike", 0, 10));
+        assertArrayEquals(new int[0], searchIndex.search("basket", 0, 10));
+    }
+
+    @Test
+    public void rebuild() {
+        doReturn(List.of(mockAdvert(7, "Guitar", "Acoustic"))).when(advertRepository)
+                .findByIdGreaterThanOrderByIdAsc(anyInt(), any());
+        searchIndex.rebuild();
+        assertArrayEquals(new int[]{7}, searchIndex.search("guitar", 0, 10));
+        assertArrayEquals(new int[0], searchIndex.search("bike", 0, 10));
+        assertEquals(2, searchIndex.size());
+    }
+
+    @Test
+    public void rebuildKeepsChangesMadeMeanwhile() {
+        Advert guitar = mockAdvert(7, "Guitar", "Acoustic");
+        doAnswer(invocation -> {
+            searchIndex.add(mockAdvert(8, "Violin", null));
+            searchIndex.remove(guitar);
+            assertArrayEquals(new int[]{3, 2, 1}, searchIndex.search("bike", 0, 10));
+            return List.of(guitar);
+        }).when(advertRepository).findByIdGreaterThanOrderByIdAsc(anyInt(), any());
+
+        searchIndex.rebuild();
+
+        assertArrayEquals(new int[]{8}, searchIndex.search("violin", 0, 10));
+        assertArrayEquals(new int[0], searchIndex.search("guitar", 0, 10));
+        assertArrayEquals(new int[0], searchIndex.search("bike", 0, 10));
+    }
+
+    @Test
+    public void indexIsBuiltBeforeWebServerStarts() {
+        assertTrue(searchIndex.getPhase() < SmartLifecycle.DEFAULT_PHASE - 1);
+    }
+
+    @Test
+    public void disabledIndexIgnoresChanges() {
+        AdvertSearchIndex disabled = new AdvertSearchIndex(advertRepository, AdvertSearchMode.FULL_TEXT);
+        disabled.add(mockAdvert(1, "Mountain bike", null));
+        disabled.rebuild();
+        assertEquals(0, disabled.size());
+        verifyNoInteractions(advertRepository);
+    }
+
+    private Advert mockAdvert(int id, String title, String description) {
+        Advert advert = new Advert();
+        advert.setId(id);
+        advert.setTitle(title);
+        advert.setDescription(description);
+        return advert;
+    }
+}
@@ -0,0 +1,218 @@
+package ru.skypro.homework.component;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.util.FileSystemUtils;
+import org.springframework.util.unit.DataSize;
+import ru.skypro.homework.model.Image;
+import ru.skypro.homework.model.Photo;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ImageResponseWriterTest {
+    private static final Path DIR = Path.of("target/image-response-test");
+    private static final byte[] CONTENT = "0123456789".getBytes();
+    private static final String HASH = "84d89877f0d4041efb6bf91a16f0248f2fd573e6af05c19f96bedb9f882f7882";
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private final ImageStorage storage = new FileSystemImageStorage();
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final ImageMemoryCache memoryCache =
+            new ImageMemoryCache(DataSize.ofMegabytes(1), DataSize.ofKilobytes(64), meterRegistry, storage);
+    private final ImageResponseWriter writer =
+            new ImageResponseWriter(new ImageVariants(List.of(160, 480), executor, storage), memoryCache, storage);
+    private Image image;
+    private MockHttpServletRequest request;
+    private MockHttpServletResponse response;
+
+    @BeforeEach
+    public void setup() throws IOException {
+        image = new Photo(DIR.toString());
+        image.setId(1);
+        image.setFileExtension("png");
+        image.setFileType("image/png");
+        Files.createDirectories(DIR);
+        Files.write(image.getFilePath(), CONTENT);
+        request = new MockHttpServletRequest("GET", "/ads/1/image");
+        response = new MockHttpServletResponse();
+    }
+
+    @AfterEach
+    public void cleanUp() {
+        executor.shutdownNow();
+        FileSystemUtils.deleteRecursively(DIR.toFile());
+    }
+
+    @Test
+    public void writeWholeImage() throws IOException {
+        writer.write(image, null, true, request, response);
+        assertEquals(200, response.getStatus());
+        assertEquals("bytes", response.getHeader(HttpHeaders.ACCEPT_RANGES));
+        assertEquals("image/png", response.getContentType());
+        assertEquals(10, response.getContentLengthLong());
+        assertArrayEquals(CONTENT, response.getContentAsByteArray());
+    }
+
+    @Test
+    public void writeRange() {
+        request.addHeader(HttpHeaders.RANGE, "bytes=2-5");
+        writer.write(image, null, true, request, response);
+        assertEquals(206, response.getStatus());
+        assertEquals("bytes 2-5/10", response.getHeader(HttpHeaders.CONTENT_RANGE));
+        assertEquals(4, response.getContentLengthLong());
+        assertArrayEquals("2345".getBytes(), response.getContentAsByteArray());
+    }
+
+    @Test
+    public void writeOpenAndSuffixRanges() {
+        request.addHeader(HttpHeaders.RANGE, "bytes=7-");
+        writer.write(image, null, true, request, response);
+        assertEquals("bytes 7-9/10", response.getHeader(HttpHeaders.CONTENT_RANGE));
+        assertArrayEquals("789".getBytes(), response.getContentAsByteArray());
+
+        request = new MockHttpServletRequest("GET", "/ads/1/image");
+        response = new MockHttpServletResponse();
+        request.addHeader(HttpHeaders.RANGE, "bytes=-2");
+        writer.write(image, null, true, request, response);
+        assertEquals("bytes 8-9/10", response.getHeader(HttpHeaders.CONTENT_RANGE));
+        assertArrayEquals("89".getBytes(), response.getContentAsByteArray());
+    }
+
+    @Test
+    public void unsatisfiableRange() {
+        request.addHeader(HttpHeaders.RANGE, "bytes=10-");
+        writer.write(image, null, true, request, response);
+        assertEquals(416, response.getStatus());
+        assertEquals("bytes */10", response.getHeader(HttpHeaders.CONTENT_RANGE));
+        assertEquals(0, response.getContentAsByteArray().length);
+    }
+
+    @Test
+    public void malformedAndMultipleRangesAreIgnored() {
+        request.addHeader(HttpHeaders.RANGE, "bytes=0-1,4-5");
+        writer.write(image, null, true, request, response);
+        assertEquals(200, response.getStatus());
+        assertArrayEquals(CONTENT, response.getContentAsByteArray());
+        assertNull(ImageResponseWriter.ByteRange.parse("items=0-1", 10));
+        assertNull(ImageResponseWriter.ByteRange.parse("bytes=5-2", 10));
+    }
+
+    @Test
+    public void headWritesNoBody() {
+        request.setMethod("HEAD");
+        writer.write(image, null, true, request, response);
+        assertEquals(10, response.getContentLengthLong());
+        assertEquals(0, response.getContentAsByteArray().length);
+    }
+
+    @Test
+    public void imageWithoutHashIsRevalidated() {
+        writer.write(image, null, true, request, response);
+        assertEquals("no-cache", response.getHeader(HttpHeaders.CACHE_CONTROL));
+        assertNull(response.getHeader(HttpHeaders.ETAG));
+    }
+
+    @Test
+    public void currentVersionIsImmutable() {
+        image.setContentHash(HASH);
+        request.setParameter(Image.VERSION_PARAM, HASH.substring(0, Image.VERSION_LENGTH));
+        writer.write(image, null, true, request, response);
+        assertEquals("public, max-age=31536000, immutable", response.getHeader(HttpHeaders.CACHE_CONTROL));
+        assertEquals("\"" + HASH + "\"", response.getHeader(HttpHeaders.ETAG));
+        assertArrayEquals(CONTENT, response.getContentAsByteArray());
+
+        response = new MockHttpServletResponse();
+        writer.write(image, null, false, request, response);
+        assertEquals("private, max-age=31536000, immutable", response.getHeader(HttpHeaders.CACHE_CONTROL));
+    }
+
+    @Test
+    public void staleOrMissingVersionIsRevalidated() {
+        image.setContentHash(HASH);
+        request.setParameter(Image.VERSION_PARAM, "0000000000000000");
+        writer.write(image, null, true, request, response);
+        assertEquals("no-cache", response.getHeader(HttpHeaders.CACHE_CONTROL));
+        assertEquals("\"" + HASH + "\"", response.getHeader(HttpHeaders.ETAG));
+        assertArrayEquals(CONTENT, response.getContentAsByteArray());
+    }
+
+    @Test
+    public void matchingETagIsNotModified() {
+        image.setContentHash(HASH);
+        request.addHeader(HttpHeaders.IF_NONE_MATCH, "\"" + HASH + "\"");
+        writer.write(image, null, true, request, response);
+        assertEquals(304, response.getStatus());
+        assertEquals(0, response.getContentAsByteArray().length);
+    }
+
+    @Test
+    public void readyVariantIsSentForSize() throws IOException {
+        image.setContentHash(HASH);
+        Files.write(image.getVariantPath(160), "small".getBytes());
+        request.setParameter(Image.VERSION_PARAM, HASH.substring(0, Image.VERSION_LENGTH));
+        writer.write(image, 100, true, request, response);
+        assertEquals("image/png", response.getContentType());
+        assertEquals("\"" + HASH + "_160\"", response.getHeader(HttpHeaders.ETAG));
+        assertEquals("public, max-age=31536000, immutable", response.getHeader(HttpHeaders.CACHE_CONTROL));
+        assertArrayEquals("small".getBytes(), response.getContentAsByteArray());
+    }
+
+    @Test
+    public void originalIsSentUntilVariantIsReady() {
+        image.setContentHash(HASH);
+        request.setParameter(Image.VERSION_PARAM, HASH.substring(0, Image.VERSION_LENGTH));
+        writer.write(image, 100, true, request, response);
+        assertEquals("image/png", response.getContentType());
+        assertEquals("no-cache", response.getHeader(HttpHeaders.CACHE_CONTROL));
+        assertEquals("\"" + HASH + "\"", response.getHeader(HttpHeaders.ETAG));
+        assertArrayEquals(CONTENT, response.getContentAsByteArray());
+    }
+
+    @Test
+    public void hotImageIsServedFromMemoryUntilEvicted() throws IOException {
+        writer.write(image, null, true, request, response);
+        Files.write(image.getFilePath(), "replaced".getBytes());
+
+        response = new MockHttpServletResponse();
+        writer.write(image, null, true, request, response);
+        assertArrayEquals(CONTENT, response.getContentAsByteArray());
+        assertEquals(20, meterRegistry.get("ads.images.memory.served").counter().count());
+        assertEquals(0.5, meterRegistry.get("ads.images.memory.hit.ratio").gauge().value());
+
+        memoryCache.evict(image.getFilePath());
+        response = new MockHttpServletResponse();
+        writer.write(image, null, true, request, response);
+        assertArrayEquals("replaced".getBytes(), response.getContentAsByteArray());
+    }
+
+    @Test
+    public void largeImageIsHandedToSendfile() throws IOException {
+        long size = 3L * 1024 * 1024 * 1024;
+        try (RandomAccessFile file = new RandomAccessFile(image.getFilePath().toFile(), "rw")) {
+            file.setLength(size);
+        }
+        request.setAttribute(ImageResponseWriter.SENDFILE_SUPPORT, Boolean.TRUE);
+        request.addHeader(HttpHeaders.RANGE, "bytes=100-");
+        writer.write(image, null, true, request, response);
+        assertEquals(206, response.getStatus());
+        assertEquals(size - 100, response.getContentLengthLong());
+        assertEquals(image.getFilePath().toAbsolutePath().toString(),
+                request.getAttribute(ImageResponseWriter.SENDFILE_FILENAME));
+        assertEquals(100L, request.getAttribute(ImageResponseWriter.SENDFILE_START));
+        assertEquals(size, request.getAttribute(ImageResponseWriter.SENDFILE_END));
+        assertEquals(0, response.getContentAsByteArray().length);
+    }
+}
@@ -0,0 +1,146 @@
+package ru.skypro.homework.component;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.util.FileSystemUtils;
+import ru.skypro.homework.configuration.ImageConfig;
+import ru.skypro.homework.model.Image;
+import ru.skypro.homework.model.Photo;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ImageVariantsTest {
+    private static final Path DIR = Path.of("target/image-variants-test");
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private final ImageVariants imageVariants = new ImageVariants(List.of(480, 160), executor, new FileSystemImageStorage());
+    private Image image;
+
+    @BeforeEach
+    public void setup() throws IOException {
+        image = new Photo(DIR.toString());
+        image.setId(1);
+        Files.createDirectories(DIR);
+    }
+
+    @AfterEach
+    public void cleanUp() {
+        executor.shutdownNow();
+        FileSystemUtils.deleteRecursively(DIR.toFile());
+    }
+
+    @Test
+    public void scheduleGeneratesVariantsNarrowerThanOriginal() throws Exception {
+        write(800, 600, "jpg", "image/jpeg");
+
+        imageVariants.schedule(image).get(10, TimeUnit.SECONDS);
+
+        BufferedImage small = ImageIO.read(image.getVariantPath(160).toFile());
+        assertEquals(160, small.getWidth());
+        assertEquals(120, small.getHeight());
+        assertEquals(480, ImageIO.read(image.getVariantPath(480).toFile()).getWidth());
+        assertTrue(Files.size(image.getVariantPath(160)) < Files.size(image.getFilePath()));
+    }
+
+    @Test
+    public void originalIsNotUpscaled() throws Exception {
+        write(300, 300, "png", "image/png");
+
+        imageVariants.schedule(image).get(10, TimeUnit.SECONDS);
+
+        assertTrue(Files.exists(image.getVariantPath(160)));
+        assertFalse(Files.exists(image.getVariantPath(480)));
+        assertEquals(BufferedImage.TYPE_4BYTE_ABGR,
+                ImageIO.read(image.getVariantPath(160).toFile()).getType());
+    }
+
+    @Test
+    public void variantRejectedByFullPoolIsScheduledAgain() throws Exception {
+        ExecutorService pool = new ImageConfig().variantExecutor(1);
+        ImageVariants variants = new ImageVariants(List.of(160), pool, new FileSystemImageStorage());
+        write(800, 600, "png", "image/png");
+        CountDownLatch latch = new CountDownLatch(1);
+        try {
+            Runnable blocked = () -> {
+                try {
+                    latch.await();
+                } catch (InterruptedException exception) {
+                    Thread.currentThread().interrupt();
+                }
+            };
+            // busy thread and full queue of 64 tasks per thread
+            Future<?> last = pool.submit(blocked);
+            for (int i = 0; i < 64; i++) {
+                last = pool.submit(blocked);
+            }
+
+            assertNull(variants.select(image, 100));
+
+            latch.countDown();
+            last.get(10, TimeUnit.SECONDS);
+            Future<?> generation = variants.schedule(image);
+            assertNotNull(generation);
+            generation.get(10, TimeUnit.SECONDS);
+            assertEquals(160, variants.select(image, 100));
+        } finally {
+            latch.countDown();
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    public void selectSchedulesMissingVariant() throws Exception {
+        write(800, 600, "png", "image/png");
+
+        assertNull(imageVariants.select(image, 100));
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+
+        assertEquals(160, imageVariants.select(image, 100));
+        assertEquals(480, imageVariants.select(image, 200));
+        assertEquals(480, imageVariants.select(image, 2000));
+        assertNull(imageVariants.select(image, null));
+    }
+
+    @Test
+    public void unsupportedFormatIsSkipped() throws Exception {
+        image.setFileExtension("txt");
+        image.setFileType("text/plain");
+        Files.write(image.getFilePath(), "not an image".getBytes());
+
+        imageVariants.schedule(image).get(10, TimeUnit.SECONDS);
+
+        assertFalse(Files.exists(image.getVariantPath(160)));
+    }
+
+    @Test
+    public void pathsListVariantsOfFile() {
+        assertEquals(List.of(DIR.resolve("1_160"), DIR.resolve("1_480")), imageVariants.paths(DIR.resolve("1.png")));
+    }
+
+    private void write(int width, int height, String format, String type) throws IOException {
+        image.setFileExtension(format);
+        image.setFileType(type);
+        BufferedImage source = new BufferedImage(width, height,
+                format.equals("png") ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+        for (int x = 0; x < width; x++) {
+            for (int y = 0; y < height; y++) {
+                source.setRGB(x, y, (x * 255 / width) << 16 | (y * 255 / height) << 8 | 0xFF000000);
+            }
+        }
+        ImageIO.write(source, format, image.getFilePath().toFile());
+    }
+}
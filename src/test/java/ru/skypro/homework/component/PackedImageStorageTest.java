@@ -0,0 +1,156 @@
+package ru.skypro.homework.component;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.util.FileSystemUtils;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PackedImageStorageTest {
+    private static final Path DIR = Path.of("target/packed-test");
+    private static final Path SEGMENTS = DIR.resolve("segments");
+
+    private PackedImageStorage storage;
+    private Path source;
+
+    @BeforeEach
+    public void setup() throws IOException {
+        storage = open();
+        Files.createDirectories(DIR);
+        source = Files.createTempFile(DIR, "source-", ".png");
+    }
+
+    @AfterEach
+    public void cleanUp() {
+        FileSystemUtils.deleteRecursively(DIR.toFile());
+    }
+
+    @Test
+    public void smallFileIsPackedReadAndDeleted() throws IOException {
+        Path location = DIR.resolve("avatars/1.png");
+
+        put(location, "avatar");
+
+        assertFalse(Files.exists(location));
+        assertTrue(storage.exists(location));
+        assertTrue(storage.localFile(location).isEmpty());
+        assertEquals(6, storage.size(location));
+        assertEquals("avatar", read(location));
+        try (InputStream in = Channels.newInputStream(storage.open(location, 1, 3))) {
+            assertArrayEquals("va".getBytes(), in.readAllBytes());
+        }
+
+        storage.delete(location);
+
+        assertFalse(storage.exists(location));
+        assertThrows(NoSuchFileException.class, () -> storage.size(location));
+    }
+
+    @Test
+    public void largeFileIsKeptOnDisk() throws IOException {
+        Path location = DIR.resolve("photos/1.png");
+        put(location, "small");
+
+        put(location, "x".repeat(3000));
+
+        assertTrue(Files.exists(location));
+        assertEquals(location, storage.localFile(location).orElseThrow());
+        assertEquals(3000, storage.size(location));
+        assertEquals(3000, read(location).length());
+    }
+
+    @Test
+    public void indexIsRebuiltFromSegments() throws IOException {
+        put(DIR.resolve("avatars/1.png"), "first");
+        put(DIR.resolve("avatars/1.png"), "replaced");
+        put(DIR.resolve("avatars/2.png"), "second");
+        storage.delete(DIR.resolve("avatars/2.png"));
+
+        storage = open();
+
+        assertEquals("replaced", read(DIR.resolve("avatars/1.png")));
+        assertFalse(storage.exists(DIR.resolve("avatars/2.png")));
+    }
+
+    @Test
+    public void halfWrittenRecordIsIgnored() throws IOException {
+        put(DIR.resolve("avatars/1.png"), "first");
+        put(DIR.resolve("avatars/2.png"), "second");
+        Path segment = segmentFiles()[0];
+        // crash while writing content of the second record
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[]{0}), 12 + key("avatars/1.png") + 5 + 12 + key("avatars/2.png"));
+        }
+
+        storage = open();
+
+        assertEquals("first", read(DIR.resolve("avatars/1.png")));
+        assertFalse(storage.exists(DIR.resolve("avatars/2.png")));
+        put(DIR.resolve("avatars/3.png"), "third");
+        assertEquals("third", read(DIR.resolve("avatars/3.png")));
+    }
+
+    @Test
+    public void compactionKeepsLiveRecordsAndDeletes() throws IOException {
+        // each record takes a bit more than a third of segment
+        String content = "a".repeat(1400 - 12 - key("avatars/0.png"));
+        for (int i = 0; i < 6; i++) {
+            put(DIR.resolve("avatars/" + i + ".png"), content + i);
+        }
+        assertEquals(3, segmentFiles().length);
+        storage.delete(DIR.resolve("avatars/0.png"));
+        storage.delete(DIR.resolve("avatars/2.png"));
+        storage.delete(DIR.resolve("avatars/3.png"));
+
+        assertEquals(2, storage.compact());
+
+        for (int i : new int[]{1, 4, 5}) {
+            assertEquals(content + i, read(DIR.resolve("avatars/" + i + ".png")));
+        }
+        storage = open();
+        for (int i : new int[]{1, 4, 5}) {
+            assertEquals(content + i, read(DIR.resolve("avatars/" + i + ".png")));
+        }
+        for (int i : new int[]{0, 2, 3}) {
+            assertFalse(storage.exists(DIR.resolve("avatars/" + i + ".png")));
+        }
+    }
+
+    private PackedImageStorage open() throws IOException {
+        return new PackedImageStorage(SEGMENTS.toString(), DataSize.ofBytes(4096), DataSize.ofKilobytes(2), 0.5);
+    }
+
+    private void put(Path location, String content) throws IOException {
+        Files.writeString(source, content);
+        storage.put(location, source);
+    }
+
+    private String read(Path location) throws IOException {
+        try (InputStream in = storage.get(location)) {
+            return new String(in.readAllBytes());
+        }
+    }
+
+    private static int key(String location) {
+        return DIR.resolve(location).toString().length();
+    }
+
+    private static Path[] segmentFiles() throws IOException {
+        try (Stream<Path> files = Files.list(SEGMENTS)) {
+            return files.sorted().toArray(Path[]::new);
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package ru.skypro.homework.component;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.util.unit.DataSize;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * {@link S3ImageStorage} against in-process stand-in of S3 API, keeping objects in memory
+ */
+public class S3ImageStorageTest {
+    private static final Pattern RANGE = Pattern.compile("bytes=(\\d+)-(\\d+)");
+
+    private final Map<String, byte[]> objects = new ConcurrentHashMap<>();
+    private final Map<Integer, byte[]> parts = new ConcurrentHashMap<>();
+    private final List<String> requests = Collections.synchronizedList(new ArrayList<>());
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private HttpServer server;
+    private S3ImageStorage storage;
+    private Path source;
+    private volatile int failingPart;
+    private volatile String completion;
+
+    @BeforeEach
+    public void setup() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", this::handle);
+        server.setExecutor(executor);
+        server.start();
+        storage = new S3ImageStorage(URI.create("http://localhost:" + server.getAddress().getPort()),
+                "ads", "us-east-1", "access", "secret", DataSize.ofBytes(16), 3);
+        source = Files.createTempFile("s3-test-", ".png");
+    }
+
+    @AfterEach
+    public void cleanUp() throws IOException {
+        server.stop(0);
+        executor.shutdownNow();
+        Files.deleteIfExists(source);
+    }
+
+    @Test
+    public void smallFileIsPutReadAndDeleted() throws IOException {
+        Files.writeString(source, "image");
+        Path location = Path.of("photos", "ab", "1.png");
+
+        storage.put(location, source);
+
+        assertArrayEquals("image".getBytes(), objects.get("/ads/photos/ab/1.png"));
+        assertTrue(storage.exists(location));
+        assertEquals(5, storage.size(location));
+        try (InputStream in = storage.get(location)) {
+            assertArrayEquals("image".getBytes(), in.readAllBytes());
+        }
+        try (InputStream in = Channels.newInputStream(storage.open(location, 1, 3))) {
+            assertArrayEquals("ma".getBytes(), in.readAllBytes());
+        }
+        assertTrue(requests.stream().allMatch(request -> request.contains("AWS4-HMAC-SHA256 Credential=access/")));
+
+        storage.delete(location);
+        assertFalse(storage.exists(location));
+        assertThrows(NoSuchFileException.class, () -> storage.get(location));
+    }
+
+    @Test
+    public void largeFileIsUploadedInPartsAndReadByParallelRanges() throws Exception {
+        byte[] content = new byte[100];
+        new Random(1).nextBytes(content);
+        Files.write(source, content);
+        Path location = Path.of("blobs", "large");
+
+        storage.putAsync(location, source).get(10, TimeUnit.SECONDS);
+
+        assertEquals(7, parts.size());
+        assertTrue(completion.contains("<Part><PartNumber>7</PartNumber><ETag>\"7\"</ETag></Part>"));
+        assertArrayEquals(content, objects.get("/ads/blobs/large"));
+        requests.clear();
+        try (InputStream in = storage.get(location)) {
+            assertArrayEquals(content, in.readAllBytes());
+        }
+        assertEquals(7, requests.stream().filter(request -> request.startsWith("GET")).count());
+    }
+
+    @Test
+    public void failedMultipartUploadIsAborted() {
+        failingPart = 2;
+        assertDoesNotThrow(() -> Files.write(source, new byte[40]));
+
+        ExecutionException exception = assertThrows(ExecutionException.class,
+                () -> storage.putAsync(Path.of("blobs", "broken"), source).get(10, TimeUnit.SECONDS));
+
+        assertInstanceOf(IOException.class, exception.getCause());
+        assertFalse(objects.containsKey("/ads/blobs/broken"));
+        assertTimeoutPreemptively(Duration.ofSeconds(5), () -> {
+            while (requests.stream().noneMatch(request -> request.startsWith("DELETE uploadId"))) {
+                Thread.sleep(10);
+            }
+        });
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        String method = exchange.getRequestMethod();
+        String key = exchange.getRequestURI().getPath();
+        String query = Objects.toString(exchange.getRequestURI().getQuery(), "");
+        requests.add(method + " " + query + " " + exchange.getRequestHeaders().getFirst("Authorization"));
+        byte[] body = exchange.getRequestBody().readAllBytes();
+        if (method.equals("POST") && query.startsWith("uploads")) {
+            parts.clear();
+            respond(exchange, 200, "<InitiateMultipartUploadResult><UploadId>u1</UploadId></InitiateMultipartUploadResult>"
+                    .getBytes());
+        } else if (method.equals("PUT") && query.contains("partNumber")) {
+            int number = Integer.parseInt(query.replaceAll(".*partNumber=(\\d+).*", "$1"));
+            if (number == failingPart) {
+                respond(exchange, 500, new byte[0]);
+                return;
+            }
+            parts.put(number, body);
+            exchange.getResponseHeaders().set("ETag", "\"" + number + "\"");
+            respond(exchange, 200, new byte[0]);
+        } else if (method.equals("POST") && query.startsWith("uploadId")) {
+            ByteArrayOutputStream object = new ByteArrayOutputStream();
+            for (int number = 1; number <= parts.size(); number++) {
+                object.write(parts.get(number));
+            }
+            completion = new String(body);
+            objects.put(key, object.toByteArray());
+            respond(exchange, 200, new byte[0]);
+        } else if (method.equals("DELETE") && query.startsWith("uploadId")) {
+            parts.clear();
+            respond(exchange, 204, null);
+        } else if (method.equals("PUT")) {
+            objects.put(key, body);
+            respond(exchange, 200, new byte[0]);
+        } else if (method.equals("DELETE")) {
+            objects.remove(key);
+            respond(exchange, 204, null);
+        } else if (!objects.containsKey(key)) {
+            respond(exchange, 404, method.equals("HEAD") ? null : new byte[0]);
+        } else if (method.equals("HEAD")) {
+            exchange.getResponseHeaders().set("Content-Length", String.valueOf(objects.get(key).length));
+            respond(exchange, 200, null);
+        } else {
+            byte[] object = objects.get(key);
+            String range = exchange.getRequestHeaders().getFirst("Range");
+            Matcher matcher = range == null ? null : RANGE.matcher(range);
+            if (matcher != null && matcher.matches()) {
+                int start = Integer.parseInt(matcher.group(1));
+                int end = Math.min(object.length, Integer.parseInt(matcher.group(2)) + 1);
+                respond(exchange, 206, Arrays.copyOfRange(object, start, end));
+            } else {
+                respond(exchange, 200, object);
+            }
+        }
+    }
+
+    private static void respond(HttpExchange exchange, int status, byte[] body) throws IOException {
+        exchange.sendResponseHeaders(status, body == null ? -1 : body.length == 0 ? -1 : body.length);
+        if (body != null && body.length > 0) {
+            exchange.getResponseBody().write(body);
+        }
+        exchange.close();
+    }
+}
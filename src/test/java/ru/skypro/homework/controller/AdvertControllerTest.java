@@ -10,9 +10,11 @@ import org.mockito.Mockito;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpMethod;
 import org.springframework.http.MediaType;
 import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
 import org.springframework.security.test.context.support.WithMockUser;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
 import org.springframework.test.web.servlet.MockMvc;
@@ -23,13 +25,16 @@ import ru.skypro.homework.dto.*;
 import ru.skypro.homework.model.Advert;
 import ru.skypro.homework.model.Image;
 import ru.skypro.homework.model.Photo;
+import ru.skypro.homework.service.AdvertImportService;
 import ru.skypro.homework.service.AdvertService;
 
+import java.io.OutputStream;
 import java.nio.file.Path;
 import java.util.List;
 
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.argThat;
 import static org.springframework.security.test.web.servlet.setup.SecurityMockMvcConfigurers.springSecurity;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
@@ -43,6 +48,8 @@ public class AdvertControllerTest {
     private MockMvc mockMvc;
     @MockBean
     private AdvertService advertService;
+    @MockBean
+    private AdvertImportService advertImportService;
     private JSONObject createAdsDto;
     private MockMultipartFile file1, file2;
     private Advert advert;
@@ -87,6 +94,16 @@ public class AdvertControllerTest {
                 .andExpect(jsonPath("$.title").value(adsDto.getTitle()));
     }
 
+    @Test
+    public void updateConflict() throws Exception {
+        Mockito.doThrow(new ObjectOptimisticLockingFailureException(Advert.class, advert.getId()))
+                .when(advertService).update(anyInt(), any());
+        mockMvc.perform(patch("/ads/" + advert.getId())
+                        .content(createAdsDto.toString())
+                        .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isConflict());
+    }
+
     @Test
     public void create() throws Exception {
         AdsDto adsDto = new AdsDto();
@@ -101,6 +118,23 @@ public class AdvertControllerTest {
                 .andExpect(jsonPath("$.title").value(adsDto.getTitle()));
     }
 
+    @Test
+    public void importAdverts() throws Exception {
+        ResponseWrapperImportDto result = new ResponseWrapperImportDto();
+        result.setCount(2);
+        result.setCreated(1);
+        result.setResults(List.of(new ImportItemDto(1, 1, null), new ImportItemDto(2, null, "Title is empty")));
+        Mockito.doReturn(result).when(advertImportService).importAdverts(any(), any());
+        MockMultipartFile adverts = new MockMultipartFile("adverts", "adverts.ndjson",
+                "application/x-ndjson", "{\"title\":\"title\"}\n{}".getBytes());
+        mockMvc.perform(multipart("/ads/import")
+                        .file(adverts))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.created").value(1))
+                .andExpect(jsonPath("$.results[0].pk").value(1))
+                .andExpect(jsonPath("$.results[1].error").value("Title is empty"));
+    }
+
     @Test
     public void updateImage() throws Exception {
         mockMvc.perform(multipart(HttpMethod.PATCH,"/ads/" + advert.getId() + "/image")
@@ -113,11 +147,33 @@ public class AdvertControllerTest {
         FullAdsDto fullAdsDto = new FullAdsDto();
         fullAdsDto.setPk(1);
         Mockito.doReturn(fullAdsDto).when(advertService).findById(anyInt());
+        Mockito.doReturn("\"1.0.0\"").when(advertService).findETag(anyInt());
         mockMvc.perform(get("/ads/" + advert.getId()))
                 .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.ETAG, "\"1.0.0\""))
                 .andExpect(jsonPath("$.pk").value(fullAdsDto.getPk()));
     }
 
+    @Test
+    public void findByIdNotModified() throws Exception {
+        Mockito.doReturn("\"1.0.0\"").when(advertService).findETag(anyInt());
+        mockMvc.perform(get("/ads/" + advert.getId()).header(HttpHeaders.IF_NONE_MATCH, "\"1.0.0\""))
+                .andExpect(status().isNotModified())
+                .andExpect(content().string(""));
+        Mockito.verify(advertService, Mockito.never()).findById(anyInt());
+    }
+
+    @Test
+    public void findAllNotModified() throws Exception {
+        Mockito.doReturn("\"2.2.2\"").when(advertService).findAllETag();
+        mockMvc.perform(get("/ads").header(HttpHeaders.IF_NONE_MATCH, "\"2.2.2\""))
+                .andExpect(status().isNotModified());
+        mockMvc.perform(get("/ads").header(HttpHeaders.IF_NONE_MATCH, "\"2.2.1\""))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.ETAG, "\"2.2.2\""));
+        Mockito.verify(advertService, Mockito.times(1)).findAll(any(), any(), any());
+    }
+
     @Test
     public void findAllByAuthUser() throws Exception {
         AdsDto adsDto = new AdsDto();
@@ -125,7 +181,7 @@ public class AdvertControllerTest {
         ResponseWrapperAdsDto wrapperAdsDto = new ResponseWrapperAdsDto();
         wrapperAdsDto.setCount(1);
         wrapperAdsDto.setResults(List.of(adsDto));
-        Mockito.doReturn(wrapperAdsDto).when(advertService).findAllByAuthUser();
+        Mockito.doReturn(wrapperAdsDto).when(advertService).findAllByAuthUser(any(), any());
         mockMvc.perform(get("/ads/me"))
                 .andExpect(status().isOk())
                 .andExpect(jsonPath("$.count").value(wrapperAdsDto.getCount()))
@@ -141,12 +197,55 @@ public class AdvertControllerTest {
         ResponseWrapperAdsDto wrapperAdsDto = new ResponseWrapperAdsDto();
         wrapperAdsDto.setCount(2);
         wrapperAdsDto.setResults(List.of(adsDto1,adsDto2));
-        Mockito.doReturn(wrapperAdsDto).when(advertService).findAll();
-        mockMvc.perform(get("/ads"))
+        wrapperAdsDto.setNext("Mg");
+        Mockito.doReturn(wrapperAdsDto).when(advertService).findAll(any(), any(), any());
+        mockMvc.perform(get("/ads")
+                        .param("minPrice", "100")
+                        .param("sort", AdsSort.PRICE_DESC.name()))
                 .andExpect(status().isOk())
                 .andExpect(jsonPath("$.count").value(wrapperAdsDto.getCount()))
                 .andExpect(jsonPath("$.results[0]").value(adsDto1))
-                .andExpect(jsonPath("$.results[1]").value(adsDto2));
+                .andExpect(jsonPath("$.results[1]").value(adsDto2))
+                .andExpect(jsonPath("$.next").value(wrapperAdsDto.getNext()));
+        Mockito.verify(advertService).findAll(argThat(filter -> filter.getMinPrice() == 100
+                && filter.getMaxPrice() == null
+                && filter.getSort() == AdsSort.PRICE_DESC), any(), any());
+    }
+
+    @Test
+    public void findAllWithInvalidCursor() throws Exception {
+        Mockito.doCallRealMethod().when(advertService).findAll(any(), any(), any());
+        mockMvc.perform(get("/ads").param("after", "not a cursor"))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    public void streamAll() throws Exception {
+        Mockito.doAnswer(invocation -> {
+            OutputStream os = invocation.getArgument(1);
+            os.write("{\"results\":[{\"pk\":1}],\"count\":1}".getBytes());
+            return null;
+        }).when(advertService).streamAll(any(), any());
+        mockMvc.perform(get("/ads/stream").param("maxPrice", "500"))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType(MediaType.APPLICATION_JSON))
+                .andExpect(jsonPath("$.count").value(1))
+                .andExpect(jsonPath("$.results[0].pk").value(1));
+        Mockito.verify(advertService).streamAll(argThat(filter -> filter.getMaxPrice() == 500), any());
+    }
+
+    @Test
+    public void search() throws Exception {
+        AdsDto adsDto = new AdsDto();
+        adsDto.setPk(1);
+        ResponseWrapperAdsDto wrapperAdsDto = new ResponseWrapperAdsDto();
+        wrapperAdsDto.setCount(1);
+        wrapperAdsDto.setResults(List.of(adsDto));
+        Mockito.doReturn(wrapperAdsDto).when(advertService).search(any(), any(), any());
+        mockMvc.perform(get("/ads/search").param("q", "bike"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.count").value(wrapperAdsDto.getCount()))
+                .andExpect(jsonPath("$.results[0]").value(adsDto));
     }
 
     @Test
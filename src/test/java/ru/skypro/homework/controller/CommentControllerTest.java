@@ -19,6 +19,7 @@ import ru.skypro.homework.dto.CommentDto;
 import ru.skypro.homework.dto.ResponseWrapperCommentDto;
 import ru.skypro.homework.model.Advert;
 import ru.skypro.homework.service.CommentService;
+import java.io.OutputStream;
 import java.util.List;
 
 import static org.springframework.security.test.web.servlet.setup.SecurityMockMvcConfigurers.springSecurity;
@@ -113,4 +114,18 @@ public class CommentControllerTest {
                 .andExpect(jsonPath("$.count").value(wrapperCommentDto.getCount()))
                 .andExpect(jsonPath("$.results[0]").value(commentDto));
     }
+
+    @Test
+    public void streamAllByAdvert() throws Exception {
+        doAnswer(invocation -> {
+            OutputStream os = invocation.getArgument(1);
+            os.write("{\"results\":[],\"count\":0}".getBytes());
+            return null;
+        }).when(commentService).streamAll(anyInt(), any());
+        mockMvc.perform(get("/ads/" + advert.getId() + "/comments/stream"))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType(MediaType.APPLICATION_JSON))
+                .andExpect(jsonPath("$.count").value(0));
+        verify(commentService).streamAll(eq(advert.getId()), any());
+    }
 }
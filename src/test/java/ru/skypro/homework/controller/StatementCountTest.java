@@ -0,0 +1,203 @@
+package ru.skypro.homework.controller;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.security.test.context.support.WithMockUser;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.web.context.WebApplicationContext;
+import ru.skypro.homework.component.AdvertListingVersion;
+import ru.skypro.homework.model.Advert;
+import ru.skypro.homework.model.AdvertListing;
+import ru.skypro.homework.model.Avatar;
+import ru.skypro.homework.model.Comment;
+import ru.skypro.homework.model.Photo;
+import ru.skypro.homework.model.User;
+import ru.skypro.homework.repository.AdvertListingRepository;
+import ru.skypro.homework.repository.AdvertRepository;
+import ru.skypro.homework.repository.CommentRepository;
+import ru.skypro.homework.repository.ImageRepository;
+import ru.skypro.homework.repository.UserRepository;
+
+import javax.persistence.EntityManagerFactory;
+import java.time.LocalDateTime;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.springframework.security.test.web.servlet.setup.SecurityMockMvcConfigurers.springSecurity;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+/**
+ * Number of SQL statements issued per read endpoint must not depend on number of rows
+ */
+@ExtendWith(SpringExtension.class)
+@SpringBootTest
+@TestPropertySource(properties = {
+        "spring.datasource.url=jdbc:h2:mem:statements;DB_CLOSE_DELAY=-1;MODE=POSTGRESQL",
+        "spring.jpa.hibernate.ddl-auto=create-drop",
+        "spring.jpa.properties.hibernate.generate_statistics=true"
+})
+@WithMockUser(username = "user0@gmail.com", roles = "USER")
+public class StatementCountTest {
+    private static final int ROWS = 10;
+
+    @Autowired
+    private WebApplicationContext context;
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+    @Autowired
+    private UserRepository userRepository;
+    @Autowired
+    private AdvertRepository advertRepository;
+    @Autowired
+    private CommentRepository commentRepository;
+    @Autowired
+    private ImageRepository imageRepository;
+    @Autowired
+    private AdvertListingRepository advertListingRepository;
+    private MockMvc mockMvc;
+    private Statistics statistics;
+    private Advert advert;
+
+    @BeforeEach
+    public void setup() {
+        mockMvc = MockMvcBuilders
+                .webAppContextSetup(context)
+                .apply(springSecurity())
+                .build();
+        statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        for (int id = 1; id <= AdvertListingVersion.STRIPES; id++) {
+            advertListingRepository.save(new AdvertListing(id, 0));
+        }
+        for (int i = 0; i < ROWS; i++) {
+            User user = new User();
+            user.setUsername("user" + i + "@gmail.com");
+            user.setFirstName("User " + i);
+            user.setAvatar(imageRepository.save(new Avatar("avatars")));
+            user = userRepository.save(user);
+            Advert saved = new Advert();
+            saved.setTitle("Advert " + i);
+            saved.setPrice(100 + i);
+            saved.setCreatedAt(LocalDateTime.of(2023, 4, 1, 12, i));
+            saved.setAuthor(user);
+            saved.setPhoto(imageRepository.save(new Photo("photos")));
+            saved = advertRepository.save(saved);
+            if (advert == null) {
+                advert = saved;
+            }
+            Comment comment = new Comment();
+            comment.setText("Comment " + i);
+            comment.setCreatedAt(LocalDateTime.of(2023, 4, 2, 12, i));
+            comment.setAuthor(user);
+            comment.setAdvert(advert);
+            commentRepository.save(comment);
+        }
+        statistics.clear();
+    }
+
+    @AfterEach
+    public void cleanUp() {
+        commentRepository.deleteAll();
+        advertRepository.deleteAll();
+        userRepository.deleteAll();
+        imageRepository.deleteAll();
+        advertListingRepository.deleteAll();
+    }
+
+    @Test
+    public void findAll() throws Exception {
+        mockMvc.perform(get("/ads"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.count").value(ROWS));
+        assertEquals(2, statistics.getPrepareStatementCount());
+    }
+
+    @Test
+    public void findAllNotModified() throws Exception {
+        String eTag = mockMvc.perform(get("/ads"))
+                .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+        statistics.clear();
+        mockMvc.perform(get("/ads").header(HttpHeaders.IF_NONE_MATCH, eTag))
+                .andExpect(status().isNotModified());
+        assertEquals(1, statistics.getPrepareStatementCount());
+    }
+
+    @Test
+    public void findById() throws Exception {
+        mockMvc.perform(get("/ads/" + advert.getId()))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.email").value("user0@gmail.com"));
+        assertEquals(2, statistics.getPrepareStatementCount());
+    }
+
+    @Test
+    public void findByIdNotModified() throws Exception {
+        String eTag = mockMvc.perform(get("/ads/" + advert.getId()))
+                .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+        statistics.clear();
+        mockMvc.perform(get("/ads/" + advert.getId()).header(HttpHeaders.IF_NONE_MATCH, eTag))
+                .andExpect(status().isNotModified());
+        assertEquals(1, statistics.getPrepareStatementCount());
+    }
+
+    @Test
+    public void deleteAdvert() throws Exception {
+        mockMvc.perform(delete("/ads/" + advert.getId()))
+                .andExpect(status().isNoContent());
+        assertEquals(5, statistics.getPrepareStatementCount());
+        assertEquals(0, commentRepository.count());
+        assertFalse(advertRepository.existsById(advert.getId()));
+    }
+
+    @Test
+    public void findAllByAuthUser() throws Exception {
+        mockMvc.perform(get("/ads/me"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.count").value(1));
+        assertEquals(2, statistics.getPrepareStatementCount());
+    }
+
+    @Test
+    public void findComments() throws Exception {
+        mockMvc.perform(get("/ads/" + advert.getId() + "/comments"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.count").value(ROWS));
+        assertEquals(1, statistics.getPrepareStatementCount());
+    }
+
+    @Test
+    public void search() throws Exception {
+        mockMvc.perform(get("/ads/search").param("q", "advert"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.count").value(ROWS));
+        assertEquals(1, statistics.getPrepareStatementCount());
+    }
+
+    @Test
+    public void streamAll() throws Exception {
+        mockMvc.perform(get("/ads/stream"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.count").value(ROWS))
+                .andExpect(jsonPath("$.results[0].pk").value(advert.getId()));
+        assertEquals(1, statistics.getPrepareStatementCount());
+    }
+
+    @Test
+    public void streamComments() throws Exception {
+        mockMvc.perform(get("/ads/" + advert.getId() + "/comments/stream"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.count").value(ROWS))
+                .andExpect(jsonPath("$.results[0].authorImage").exists());
+        assertEquals(1, statistics.getPrepareStatementCount());
+    }
+}
@@ -8,6 +8,7 @@ import org.junit.jupiter.api.extension.ExtendWith;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpMethod;
 import org.springframework.http.MediaType;
 import org.springframework.mock.web.MockMultipartFile;
@@ -15,8 +16,10 @@ import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.security.test.context.support.WithMockUser;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
 import org.springframework.test.web.servlet.setup.MockMvcBuilders;
 import org.springframework.web.context.WebApplicationContext;
+import ru.skypro.homework.dto.ImageDto;
 import ru.skypro.homework.dto.UserDto;
 import ru.skypro.homework.model.Avatar;
 import ru.skypro.homework.service.UserService;
@@ -72,6 +75,13 @@ public class UserControllerTest {
                 .andExpect(status().isOk());
     }
 
+    @Test
+    public void delete() throws Exception {
+        mockMvc.perform(MockMvcRequestBuilders.delete("/users/" + userDto.getId()))
+                .andExpect(status().isAccepted());
+        verify(userService).delete(userDto.getId());
+    }
+
     @Test
     public void updateInfo() throws Exception {
         doReturn(userDto).when(userService).update(any());
@@ -85,11 +95,21 @@ public class UserControllerTest {
     @Test
     public void findInfo() throws Exception {
         doReturn(userDto).when(userService).findInfo();
+        doReturn("\"3\"").when(userService).findInfoETag();
         mockMvc.perform(get("/users/me"))
                 .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.ETAG, "\"3\""))
                 .andExpect(jsonPath("$.id").value(userDto.getId()));
     }
 
+    @Test
+    public void findInfoNotModified() throws Exception {
+        doReturn("\"3\"").when(userService).findInfoETag();
+        mockMvc.perform(get("/users/me").header(HttpHeaders.IF_NONE_MATCH, "\"3\""))
+                .andExpect(status().isNotModified());
+        verify(userService, never()).findInfo();
+    }
+
     @Test
     public void downloadAvatar() throws Exception {
         Avatar avatar = new Avatar();
@@ -116,10 +136,14 @@ public class UserControllerTest {
 
     @Test
     public void updateAvatar() throws Exception {
-        byte[] bytes = {1};
-        doReturn(bytes).when(userService).updateImage(any());
+        ImageDto imageDto = new ImageDto();
+        imageDto.setUrl("/users/me/image?v=0123456789abcdef");
+        imageDto.setType(MediaType.IMAGE_JPEG_VALUE);
+        doReturn(imageDto).when(userService).updateImage(any());
         mockMvc.perform(multipart(HttpMethod.PATCH, "/users/me/image")
                         .file(file))
-                .andExpect(status().isOk());
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.url").value(imageDto.getUrl()))
+                .andExpect(jsonPath("$.type").value(MediaType.IMAGE_JPEG_VALUE));
     }
 }
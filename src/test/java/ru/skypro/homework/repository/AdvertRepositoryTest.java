@@ -0,0 +1,203 @@
+package ru.skypro.homework.repository;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.test.context.TestPropertySource;
+import ru.skypro.homework.dto.AdsCursor;
+import ru.skypro.homework.dto.AdsFilter;
+import ru.skypro.homework.dto.AdsSort;
+import ru.skypro.homework.model.Advert;
+import ru.skypro.homework.model.User;
+import ru.skypro.homework.repository.projection.AdvertSummary;
+import ru.skypro.homework.repository.projection.AdvertVersion;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DataJpaTest
+@TestPropertySource(properties = "spring.jpa.hibernate.ddl-auto=create-drop")
+public class AdvertRepositoryTest {
+    @Autowired
+    private AdvertRepository advertRepository;
+    @Autowired
+    private UserRepository userRepository;
+    private User user;
+    private Advert bike, lamp, helmet;
+
+    @BeforeEach
+    public void setup() {
+        user = new User();
+        user.setUsername("user@gmail.com");
+        user.setPassword("password");
+        user = userRepository.save(user);
+        bike = advertRepository.save(mockAdvert(user, "Mountain bike", "Almost new, 21 speed", 300, 3));
+        lamp = advertRepository.save(mockAdvert(user, "Desk lamp", "Good for reading about bikes", 100, 1));
+        helmet = advertRepository.save(mockAdvert(user, "Helmet", "100% cotton_lining", 100, 2));
+    }
+
+    @Test
+    public void searchByPatternRanksTitleMatchesFirst() {
+        List<Advert> actual = advertRepository.searchByPattern("%bike%", PageRequest.of(0, 10));
+        assertEquals(List.of(bike, lamp), actual);
+    }
+
+    @Test
+    public void searchByPatternIsPaginated() {
+        List<Advert> actual = advertRepository.searchByPattern("%bike%", PageRequest.of(1, 1));
+        assertEquals(List.of(lamp), actual);
+    }
+
+    @Test
+    public void searchByPatternEscapesWildcards() {
+        assertEquals(List.of(helmet), advertRepository.searchByPattern("%100\\%%", PageRequest.of(0, 10)));
+        assertEquals(List.of(helmet), advertRepository.searchByPattern("%n\\_l%", PageRequest.of(0, 10)));
+    }
+
+    @Test
+    public void findByIdGreaterThanReturnsNextPage() {
+        List<Advert> actual = advertRepository.findByIdGreaterThanOrderByIdAsc(bike.getId(), PageRequest.of(0, 1));
+        assertEquals(List.of(lamp), actual);
+        assertEquals(List.of(lamp.getId(), helmet.getId()),
+                advertRepository.findByIdGreaterThanOrderByIdAsc(bike.getId(), PageRequest.of(0, 5)).stream()
+                        .map(Advert::getId)
+                        .collect(Collectors.toList()));
+    }
+
+    @Test
+    public void findPageFiltersByPriceRange() {
+        AdsFilter filter = new AdsFilter();
+        filter.setMinPrice(50);
+        filter.setMaxPrice(200);
+        assertEquals(ids(lamp, helmet), ids(advertRepository.findPage(filter, null, 10)));
+    }
+
+    @Test
+    public void findPageFiltersByAuthor() {
+        User other = new User();
+        other.setUsername("other@gmail.com");
+        other.setPassword("password");
+        other = userRepository.save(other);
+        Advert chair = advertRepository.save(mockAdvert(other, "Chair", null, 10, 4));
+        AdsFilter filter = new AdsFilter();
+        filter.setAuthorId(other.getId());
+        assertEquals(ids(chair), ids(advertRepository.findPage(filter, null, 10)));
+        filter.setAuthorId(user.getId());
+        assertEquals(ids(bike, lamp, helmet), ids(advertRepository.findPage(filter, null, 10)));
+    }
+
+    @Test
+    public void findPageSortsByPriceWithTiesBrokenById() {
+        AdsFilter filter = new AdsFilter();
+        filter.setSort(AdsSort.PRICE_ASC);
+        assertEquals(ids(lamp), ids(advertRepository.findPage(filter, null, 1)));
+        AdsCursor cursor = AdsCursor.decode(AdsCursor.of(AdsSort.PRICE_ASC, summary(lamp)).encode(), AdsSort.PRICE_ASC);
+        assertEquals(ids(helmet, bike), ids(advertRepository.findPage(filter, cursor, 10)));
+
+        filter.setSort(AdsSort.PRICE_DESC);
+        assertEquals(ids(bike, helmet, lamp), ids(advertRepository.findPage(filter, null, 10)));
+        assertEquals(ids(lamp),
+                ids(advertRepository.findPage(filter, AdsCursor.of(AdsSort.PRICE_DESC, summary(helmet)), 10)));
+    }
+
+    @Test
+    public void findPageSortsByCreationTime() {
+        AdsFilter filter = new AdsFilter();
+        filter.setSort(AdsSort.CREATED_DESC);
+        assertEquals(ids(bike, helmet, lamp), ids(advertRepository.findPage(filter, null, 10)));
+        assertEquals(ids(helmet, lamp),
+                ids(advertRepository.findPage(filter, AdsCursor.of(AdsSort.CREATED_DESC, summary(bike)), 10)));
+        filter.setSort(AdsSort.CREATED_ASC);
+        assertEquals(ids(helmet, bike),
+                ids(advertRepository.findPage(filter, AdsCursor.of(AdsSort.CREATED_ASC, summary(lamp)), 10)));
+    }
+
+    @Test
+    public void findPageContinuesWithinMillisecond() {
+        advertRepository.deleteAll();
+        LocalDateTime backfilled = LocalDateTime.of(2023, 4, 1, 12, 0, 0, 123_456_000);
+        List<Advert> adverts = List.of(
+                advertRepository.save(mockAdvert(user, "Chair", backfilled)),
+                advertRepository.save(mockAdvert(user, "Table", backfilled)),
+                advertRepository.save(mockAdvert(user, "Sofa", backfilled.plusNanos(1_000))),
+                advertRepository.save(mockAdvert(user, "Shelf", backfilled.plusNanos(2_000))));
+        List<Integer> ascending = ids(adverts.toArray(Advert[]::new));
+
+        assertEquals(ascending, pageOneByOne(AdsSort.CREATED_ASC));
+        assertEquals(List.of(ascending.get(3), ascending.get(2), ascending.get(1), ascending.get(0)),
+                pageOneByOne(AdsSort.CREATED_DESC));
+    }
+
+    @Test
+    public void findPageSelectsSummaryColumnsOnly() {
+        AdsFilter filter = new AdsFilter();
+        filter.setMaxPrice(100);
+        assertEquals(List.of(summary(lamp), summary(helmet)), advertRepository.findPage(filter, null, 10));
+    }
+
+    @Test
+    public void findVersions() {
+        assertEquals(new AdvertVersion(0, 0), advertRepository.findVersionById(bike.getId()).orElseThrow());
+
+        bike.setPrice(350);
+        advertRepository.saveAndFlush(bike);
+        assertEquals(new AdvertVersion(1, 0), advertRepository.findVersionById(bike.getId()).orElseThrow());
+
+        advertRepository.delete(lamp);
+        advertRepository.flush();
+        assertTrue(advertRepository.findVersionById(lamp.getId()).isEmpty());
+    }
+
+    private Advert mockAdvert(User author, String title, String description, int price, int day) {
+        Advert advert = new Advert();
+        advert.setTitle(title);
+        advert.setDescription(description);
+        advert.setPrice(price);
+        advert.setCreatedAt(LocalDateTime.of(2023, 4, day, 12, 0, 0, 123_000_000));
+        advert.setAuthor(author);
+        return advert;
+    }
+
+    private Advert mockAdvert(User author, String title, LocalDateTime createdAt) {
+        Advert advert = mockAdvert(author, title, null, 10, 1);
+        advert.setCreatedAt(createdAt);
+        return advert;
+    }
+
+    /**
+     * Follow encoded cursors page by page, failing if paging does not end
+     */
+    private List<Integer> pageOneByOne(AdsSort sort) {
+        AdsFilter filter = new AdsFilter();
+        filter.setSort(sort);
+        List<Integer> ids = new ArrayList<>();
+        AdsCursor cursor = null;
+        List<AdvertSummary> page;
+        while (!(page = advertRepository.findPage(filter, cursor, 1)).isEmpty()) {
+            ids.add(page.get(0).getId());
+            assertTrue(ids.size() <= 4, "paging does not end: " + ids);
+            cursor = AdsCursor.decode(AdsCursor.of(sort, page.get(0)).encode(), sort);
+        }
+        return ids;
+    }
+
+    private AdvertSummary summary(Advert advert) {
+        return new AdvertSummary(advert.getId(), advert.getTitle(), advert.getPrice(), advert.getCreatedAt(),
+                advert.getAuthor().getId(), null, null);
+    }
+
+    private static List<Integer> ids(Advert... adverts) {
+        return Arrays.stream(adverts).map(Advert::getId).collect(Collectors.toList());
+    }
+
+    private static List<Integer> ids(List<AdvertSummary> adverts) {
+        return adverts.stream().map(AdvertSummary::getId).collect(Collectors.toList());
+    }
+}
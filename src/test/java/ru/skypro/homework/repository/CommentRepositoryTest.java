@@ -0,0 +1,99 @@
+package ru.skypro.homework.repository;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.test.context.TestPropertySource;
+import ru.skypro.homework.model.Advert;
+import ru.skypro.homework.model.Comment;
+import ru.skypro.homework.model.User;
+import ru.skypro.homework.repository.projection.CommentSummary;
+
+import javax.persistence.EntityManagerFactory;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DataJpaTest
+@TestPropertySource(properties = {
+        "spring.jpa.hibernate.ddl-auto=create-drop",
+        "spring.jpa.properties.hibernate.generate_statistics=true"
+})
+public class CommentRepositoryTest {
+    @Autowired
+    private CommentRepository commentRepository;
+    @Autowired
+    private AdvertRepository advertRepository;
+    @Autowired
+    private UserRepository userRepository;
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    @Test
+    public void findSummariesByAdvertId() {
+        User user = new User();
+        user.setUsername("user@gmail.com");
+        user.setFirstName("Ivan");
+        user = userRepository.save(user);
+        Advert advert = new Advert();
+        advert.setTitle("Bike");
+        advert.setPrice(100);
+        advert.setCreatedAt(LocalDateTime.of(2023, 4, 1, 12, 0));
+        advert.setAuthor(user);
+        advert = advertRepository.save(advert);
+        Advert other = new Advert();
+        other.setTitle("Lamp");
+        other.setPrice(10);
+        other.setCreatedAt(LocalDateTime.of(2023, 4, 1, 12, 0));
+        other.setAuthor(user);
+        other = advertRepository.save(other);
+        Comment first = commentRepository.save(mockComment(user, advert, "first"));
+        Comment second = commentRepository.save(mockComment(user, advert, "second"));
+        commentRepository.save(mockComment(user, other, "other"));
+
+        List<CommentSummary> actual = commentRepository.findSummariesByAdvertId(advert.getId());
+
+        assertEquals(List.of(
+                new CommentSummary(first.getId(), "first", first.getCreatedAt(), user.getId(), "Ivan", null, null),
+                new CommentSummary(second.getId(), "second", second.getCreatedAt(), user.getId(), "Ivan", null, null)
+        ), actual);
+    }
+
+    @Test
+    public void saveAllInsertsInBatch() {
+        User user = new User();
+        user.setUsername("user@gmail.com");
+        user = userRepository.save(user);
+        Advert advert = new Advert();
+        advert.setTitle("Bike");
+        advert.setAuthor(user);
+        advert = advertRepository.saveAndFlush(advert);
+        List<Comment> comments = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            comments.add(mockComment(user, advert, "comment " + i));
+        }
+        Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        statistics.clear();
+
+        commentRepository.saveAll(comments);
+        commentRepository.flush();
+
+        assertEquals(20, statistics.getEntityInsertCount());
+        assertTrue(statistics.getPrepareStatementCount() <= 3,
+                "one batched insert and at most two sequence calls expected, but was "
+                        + statistics.getPrepareStatementCount());
+    }
+
+    private Comment mockComment(User author, Advert advert, String text) {
+        Comment comment = new Comment();
+        comment.setText(text);
+        comment.setCreatedAt(LocalDateTime.of(2023, 4, 2, 12, 0));
+        comment.setAuthor(author);
+        comment.setAdvert(advert);
+        return comment;
+    }
+}
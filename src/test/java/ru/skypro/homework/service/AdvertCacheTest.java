@@ -0,0 +1,133 @@
+package ru.skypro.homework.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.cache.CacheManager;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.security.core.Authentication;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+import ru.skypro.homework.component.AdvertListingVersion;
+import ru.skypro.homework.component.AuthenticationComponent;
+import ru.skypro.homework.configuration.CacheConfig;
+import ru.skypro.homework.dto.CreateAdsDto;
+import ru.skypro.homework.dto.FullAdsDto;
+import ru.skypro.homework.dto.UserDto;
+import ru.skypro.homework.model.Advert;
+import ru.skypro.homework.model.User;
+import ru.skypro.homework.repository.AdvertRepository;
+import ru.skypro.homework.repository.CommentRepository;
+import ru.skypro.homework.repository.UserRepository;
+
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(SpringExtension.class)
+@SpringBootTest
+public class AdvertCacheTest {
+    @Autowired
+    private AdvertService advertService;
+    @Autowired
+    private UserService userService;
+    @Autowired
+    private CacheManager cacheManager;
+    @Autowired
+    private MeterRegistry meterRegistry;
+    @MockBean
+    private AdvertRepository advertRepository;
+    @MockBean
+    private CommentRepository commentRepository;
+    @MockBean
+    private UserRepository userRepository;
+    @MockBean
+    private ImageService imageService;
+    @MockBean
+    private AuthenticationComponent auth;
+    @MockBean
+    private AdvertListingVersion listingVersion;
+    private User user;
+
+    @BeforeEach
+    public void setup() {
+        cacheManager.getCache(CacheConfig.ADVERTS_CACHE).clear();
+        user = new User();
+        user.setId(1);
+        user.setUsername("user@gmail.com");
+        user.setFirstName("Ivan");
+        Advert advert = new Advert();
+        advert.setId(1);
+        advert.setTitle("Bike");
+        advert.setAuthor(user);
+        doReturn(Optional.of(advert)).when(advertRepository).findDetailById(1);
+        doReturn(Optional.of(advert)).when(advertRepository).findWithAuthorById(1);
+        doReturn(Optional.of(advert)).when(advertRepository).findForImageUpdateById(1);
+    }
+
+    @Test
+    public void findByIdIsCached() {
+        double hits = gets("hit");
+        FullAdsDto first = advertService.findById(1);
+        FullAdsDto second = advertService.findById(1);
+        assertEquals(first, second);
+        assertEquals("Ivan", second.getAuthorFirstName());
+        verify(advertRepository, times(1)).findDetailById(1);
+        assertEquals(hits + 1, gets("hit"));
+    }
+
+    @Test
+    public void updateEvictsAdvert() {
+        advertService.findById(1);
+        CreateAdsDto properties = new CreateAdsDto();
+        properties.setTitle("Red bike");
+        advertService.update(1, properties);
+        assertEquals("Red bike", advertService.findById(1).getTitle());
+        verify(advertRepository, times(2)).findDetailById(1);
+    }
+
+    @Test
+    public void deleteEvictsAdvert() {
+        advertService.findById(1);
+        advertService.delete(1);
+        advertService.findById(1);
+        // delete loads advert once itself
+        verify(advertRepository, times(3)).findDetailById(1);
+    }
+
+    @Test
+    public void updateImageEvictsAdvert() {
+        advertService.findById(1);
+        advertService.updateImage(1, new MockMultipartFile("image", new byte[]{1}));
+        advertService.findById(1);
+        verify(advertRepository, times(2)).findDetailById(1);
+    }
+
+    @Test
+    public void userUpdateEvictsAuthorAdverts() {
+        Authentication authentication = mock(Authentication.class);
+        doReturn(user.getUsername()).when(authentication).getName();
+        doReturn(authentication).when(auth).getAuth();
+        doReturn(user).when(userRepository).findByUsername(user.getUsername());
+        doReturn(List.of(1)).when(advertRepository).findIdsByAuthorId(user.getId());
+        advertService.findById(1);
+        UserDto userDto = new UserDto();
+        userDto.setFirstName("Petr");
+        userService.update(userDto);
+        assertEquals("Petr", advertService.findById(1).getAuthorFirstName());
+        verify(advertRepository, times(2)).findDetailById(1);
+    }
+
+    private double gets(String result) {
+        return meterRegistry.get("cache.gets")
+                .tag("cache", CacheConfig.ADVERTS_CACHE)
+                .tag("result", result)
+                .functionCounter()
+                .count();
+    }
+}
@@ -0,0 +1,285 @@
+package ru.skypro.homework.service;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.SpyBean;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.security.test.context.support.WithMockUser;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.util.FileSystemUtils;
+import ru.skypro.homework.component.AdvertListingVersion;
+import ru.skypro.homework.component.ImageStorage;
+import ru.skypro.homework.configuration.ImageConfig;
+import ru.skypro.homework.dto.ResponseWrapperImportDto;
+import ru.skypro.homework.model.Advert;
+import ru.skypro.homework.model.AdvertListing;
+import ru.skypro.homework.model.User;
+import ru.skypro.homework.repository.AdvertListingRepository;
+import ru.skypro.homework.repository.AdvertRepository;
+import ru.skypro.homework.repository.ImageRepository;
+import ru.skypro.homework.repository.UserRepository;
+
+import javax.persistence.EntityManagerFactory;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.doThrow;
+
+@ExtendWith(SpringExtension.class)
+@SpringBootTest
+@TestPropertySource(properties = {
+        "spring.datasource.url=jdbc:h2:mem:import;DB_CLOSE_DELAY=-1;MODE=POSTGRESQL",
+        "spring.jpa.hibernate.ddl-auto=create-drop",
+        "spring.jpa.properties.hibernate.generate_statistics=true",
+        "path.to.photos.folder=target/import-test",
+        "ads.import.chunk-size=50",
+        "ads.images.max-size=1KB"
+})
+@WithMockUser(username = "user@gmail.com", roles = "USER")
+public class AdvertImportServiceTest {
+    private static final Path PHOTOS_DIR = Path.of("target/import-test");
+
+    @Autowired
+    private AdvertImportService advertImportService;
+    @SpyBean
+    private AdvertRepository advertRepository;
+    @Autowired
+    private ImageRepository imageRepository;
+    @Autowired
+    private UserRepository userRepository;
+    @Autowired
+    private AdvertListingRepository advertListingRepository;
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+    @Autowired
+    @Qualifier(ImageConfig.FILE_EXECUTOR)
+    private ExecutorService fileExecutor;
+    @SpyBean
+    private ImageStorage imageStorage;
+
+    @BeforeEach
+    public void setup() {
+        User user = new User();
+        user.setUsername("user@gmail.com");
+        userRepository.save(user);
+        for (int id = 1; id <= AdvertListingVersion.STRIPES; id++) {
+            advertListingRepository.save(new AdvertListing(id, 0));
+        }
+    }
+
+    @AfterEach
+    public void cleanUp() {
+        advertRepository.deleteAll();
+        imageRepository.deleteAll();
+        userRepository.deleteAll();
+        advertListingRepository.deleteAll();
+        FileSystemUtils.deleteRecursively(PHOTOS_DIR.toFile());
+    }
+
+    @Test
+    public void importAdvertsWithImages() throws IOException {
+        MockMultipartFile adverts = ndjson(
+                "{\"title\":\"Bike\",\"price\":100,\"image\":\"bike.jpg\"}",
+                "{\"title\":\"Table\",\"price\":50}",
+                "{\"title\":\"Lamp\",\"price\":10,\"image\":\"photos/lamp.png\"}");
+        MockMultipartFile images = zip("bike.jpg", "photos/lamp.png");
+
+        ResponseWrapperImportDto result = advertImportService.importAdverts(adverts, images);
+
+        assertEquals(3, result.getCount());
+        assertEquals(3, result.getCreated());
+        assertEquals(3, advertRepository.count());
+        assertEquals(2, imageRepository.count());
+        Advert bike = advertRepository.findWithPhotoById(result.getResults().get(0).getPk()).orElseThrow();
+        assertEquals("user@gmail.com", advertRepository.findWithAuthorById(bike.getId())
+                .orElseThrow().getAuthor().getUsername());
+        assertEquals("image/jpeg", bike.getPhoto().getFileType());
+        assertArrayEquals(TestImages.jpeg("bike.jpg"), Files.readAllBytes(bike.getPhoto().getFilePath()));
+        assertEquals(ImageService.toHex(ImageService.newDigest().digest(TestImages.jpeg("bike.jpg"))),
+                bike.getPhoto().getContentHash());
+        try (Stream<Path> files = Files.list(PHOTOS_DIR)) {
+            assertEquals(2, files.count());
+        }
+    }
+
+    @Test
+    public void importReportsFailedLines() throws IOException {
+        MockMultipartFile adverts = ndjson(
+                "{\"title\":\"Bike\",\"price\":100,\"image\":\"bike.jpg\"}",
+                "not json",
+                "",
+                "{\"title\":\"Lamp\",\"image\":\"missing.png\"}",
+                "{\"price\":10}");
+
+        ResponseWrapperImportDto result = advertImportService.importAdverts(adverts, zip("bike.jpg"));
+
+        assertEquals(4, result.getCount());
+        assertEquals(1, result.getCreated());
+        assertNotNull(result.getResults().get(0).getPk());
+        assertEquals(2, result.getResults().get(1).getLine());
+        assertTrue(result.getResults().get(1).getError().startsWith("Invalid advert"));
+        assertEquals("Image not found in archive: missing.png", result.getResults().get(2).getError());
+        assertEquals("Title is empty", result.getResults().get(3).getError());
+        assertEquals(1, advertRepository.count());
+        assertEquals(1, imageRepository.count());
+    }
+
+    @Test
+    public void importRejectsOversizedImage() throws IOException {
+        MockMultipartFile adverts = ndjson(
+                "{\"title\":\"Bike\",\"price\":100,\"image\":\"bike.jpg\"}",
+                "{\"title\":\"Lamp\",\"price\":10,\"image\":\"lamp.png\"}");
+        MockMultipartFile images = zip(Map.of(
+                "bike.jpg", TestImages.jpeg("bike.jpg"),
+                "lamp.png", TestImages.png("x".repeat(2048))));
+
+        ResponseWrapperImportDto result = advertImportService.importAdverts(adverts, images);
+
+        assertEquals(1, result.getCreated());
+        assertNull(result.getResults().get(1).getPk());
+        assertEquals("Image upload failed: Image is larger than 1024B", result.getResults().get(1).getError());
+        assertEquals(1, imageRepository.count());
+        try (Stream<Path> files = Files.list(PHOTOS_DIR)) {
+            assertEquals(1, files.count());
+        }
+    }
+
+    @Test
+    public void importReportsImageNotPublished() throws IOException {
+        String lamp = ImageService.toHex(ImageService.newDigest().digest(TestImages.png("lamp.png")));
+        doThrow(new IOException("disk full")).when(imageStorage)
+                .put(argThat(location -> location.getFileName().toString().contains(lamp.substring(0, 16))), any());
+        MockMultipartFile adverts = ndjson(
+                "{\"title\":\"Bike\",\"price\":100,\"image\":\"bike.jpg\"}",
+                "{\"title\":\"Lamp\",\"price\":10,\"image\":\"lamp.png\"}");
+
+        ResponseWrapperImportDto result = advertImportService.importAdverts(adverts, zip("bike.jpg", "lamp.png"));
+
+        assertEquals(1, result.getCreated());
+        assertNotNull(result.getResults().get(0).getPk());
+        assertNull(result.getResults().get(1).getPk());
+        assertEquals("Image upload failed: disk full", result.getResults().get(1).getError());
+        assertEquals(1, advertRepository.count());
+        assertEquals(1, imageRepository.count());
+        try (Stream<Path> files = Files.list(PHOTOS_DIR)) {
+            assertEquals(1, files.count());
+        }
+    }
+
+    @Test
+    public void importRejectsValuesOutOfColumnLimits() throws IOException {
+        MockMultipartFile adverts = ndjson(
+                "{\"title\":\"" + "a".repeat(101) + "\",\"price\":100}",
+                "{\"title\":\"Bike\",\"price\":-1}",
+                "{\"title\":\"Bike\",\"price\":2147483648}",
+                "{\"title\":\"Lamp\",\"price\":10,\"image\":\"" + "l".repeat(97) + ".png\"}",
+                "{\"title\":\"" + "a".repeat(100) + "\",\"price\":0}");
+
+        ResponseWrapperImportDto result = advertImportService.importAdverts(adverts,
+                zip("l".repeat(97) + ".png"));
+
+        assertEquals(5, result.getCount());
+        assertEquals(1, result.getCreated());
+        assertEquals("Title is longer than 100 characters", result.getResults().get(0).getError());
+        assertEquals("Price is negative", result.getResults().get(1).getError());
+        assertTrue(result.getResults().get(2).getError().startsWith("Invalid advert"));
+        assertEquals("Image name is longer than 100 characters", result.getResults().get(3).getError());
+        assertNotNull(result.getResults().get(4).getPk());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void importRetriesFailedChunkItemByItem()
+            throws IOException, InterruptedException, ExecutionException, TimeoutException {
+        doThrow(new DataIntegrityViolationException("value too long")).when(advertRepository)
+                .saveAll(argThat(adverts -> adverts != null && ((List<Advert>) adverts).stream()
+                        .anyMatch(advert -> "Broken".equals(advert.getTitle()))));
+        MockMultipartFile adverts = ndjson(
+                "{\"title\":\"Bike\",\"price\":100,\"image\":\"bike.jpg\"}",
+                "{\"title\":\"Broken\",\"price\":10,\"image\":\"lamp.png\"}",
+                "{\"title\":\"Table\",\"price\":50}");
+
+        ResponseWrapperImportDto result = advertImportService.importAdverts(adverts, zip("bike.jpg", "lamp.png"));
+        fileExecutor.submit(() -> {
+        }).get(10, TimeUnit.SECONDS);
+
+        assertEquals(2, result.getCreated());
+        assertNotNull(result.getResults().get(0).getPk());
+        assertEquals("value too long", result.getResults().get(1).getError());
+        assertNotNull(result.getResults().get(2).getPk());
+        assertEquals(2, advertRepository.count());
+        assertEquals(1, imageRepository.count());
+        try (Stream<Path> files = Files.list(PHOTOS_DIR)) {
+            assertEquals(1, files.count());
+        }
+    }
+
+    @Test
+    public void importBatchesInserts() throws IOException {
+        int count = 200;
+        String[] lines = new String[count];
+        String[] names = new String[count];
+        for (int i = 0; i < count; i++) {
+            names[i] = "image" + i + ".jpg";
+            lines[i] = "{\"title\":\"Advert " + i + "\",\"price\":" + i + ",\"image\":\"" + names[i] + "\"}";
+        }
+        Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        statistics.clear();
+
+        ResponseWrapperImportDto result = advertImportService.importAdverts(ndjson(lines), zip(names));
+
+        assertEquals(count, result.getCreated());
+        assertEquals(2L * count, statistics.getEntityInsertCount());
+        assertTrue(statistics.getPrepareStatementCount() < count / 5,
+                "inserts expected in batches, but statements were " + statistics.getPrepareStatementCount());
+    }
+
+    private MockMultipartFile ndjson(String... lines) {
+        return new MockMultipartFile("adverts", "adverts.ndjson", "application/x-ndjson",
+                String.join("\n", lines).getBytes());
+    }
+
+    private MockMultipartFile zip(String... names) throws IOException {
+        Map<String, byte[]> entries = new LinkedHashMap<>();
+        for (String name : names) {
+            entries.put(name, name.endsWith(".png") ? TestImages.png(name) : TestImages.jpeg(name));
+        }
+        return zip(entries);
+    }
+
+    private MockMultipartFile zip(Map<String, byte[]> entries) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ZipOutputStream zip = new ZipOutputStream(bytes)) {
+            for (Map.Entry<String, byte[]> entry : entries.entrySet()) {
+                zip.putNextEntry(new ZipEntry(entry.getKey()));
+                zip.write(entry.getValue());
+                zip.closeEntry();
+            }
+        }
+        return new MockMultipartFile("images", "images.zip", "application/zip", bytes.toByteArray());
+    }
+}
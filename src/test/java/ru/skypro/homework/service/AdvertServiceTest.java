@@ -1,5 +1,6 @@
 package ru.skypro.homework.service;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
@@ -9,27 +10,43 @@ import org.mockito.Spy;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.springframework.core.io.ClassPathResource;
 import org.springframework.core.io.Resource;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.http.MediaType;
 import org.springframework.mock.web.MockMultipartFile;
 import org.springframework.security.core.Authentication;
+import org.springframework.test.util.ReflectionTestUtils;
+import ru.skypro.homework.component.AdvertListingVersion;
+import ru.skypro.homework.component.AdvertSearchIndex;
 import ru.skypro.homework.component.AuthenticationComponent;
+import ru.skypro.homework.component.JsonStreamWriter;
+import ru.skypro.homework.dto.AdsCursor;
 import ru.skypro.homework.dto.AdsDto;
+import ru.skypro.homework.dto.AdsFilter;
+import ru.skypro.homework.dto.AdsSort;
 import ru.skypro.homework.dto.CreateAdsDto;
 import ru.skypro.homework.dto.FullAdsDto;
+import ru.skypro.homework.dto.ImageDto;
 import ru.skypro.homework.dto.ResponseWrapperAdsDto;
 import ru.skypro.homework.exception.ActionForbiddenException;
 import ru.skypro.homework.exception.AdvertNotFoundException;
+import ru.skypro.homework.exception.InvalidCursorException;
 import ru.skypro.homework.exception.UserUnauthorizedException;
 import ru.skypro.homework.mapper.AdvertMapper;
 import ru.skypro.homework.mapper.AdvertMapperImpl;
 import ru.skypro.homework.model.*;
 import ru.skypro.homework.repository.AdvertRepository;
+import ru.skypro.homework.repository.CommentRepository;
 import ru.skypro.homework.repository.UserRepository;
+import ru.skypro.homework.repository.projection.AdvertSummary;
+import ru.skypro.homework.repository.projection.AdvertVersion;
 
 import java.io.*;
 import java.nio.file.Files;
+import java.time.LocalDateTime;
 import java.util.List;
 import java.util.Optional;
+import java.util.function.Function;
+import java.util.stream.Stream;
 
 import static org.mockito.Mockito.*;
 import static org.junit.jupiter.api.Assertions.*;
@@ -41,6 +58,8 @@ public class AdvertServiceTest {
     @Mock
     private AdvertRepository advertRepository;
     @Mock
+    private CommentRepository commentRepository;
+    @Mock
     private UserRepository userRepository;
     @Mock
     private ImageService imageService;
@@ -48,8 +67,14 @@ public class AdvertServiceTest {
     private AuthenticationComponent auth;
     @Mock
     private Authentication authentication;
+    @Mock
+    private AdvertSearchIndex searchIndex;
+    @Mock
+    private AdvertListingVersion listingVersion;
     @Spy
     private AdvertMapper advertMapper = new AdvertMapperImpl();
+    @Spy
+    private JsonStreamWriter jsonStreamWriter = new JsonStreamWriter(new ObjectMapper());
 
     @BeforeEach
     public void setup() {
@@ -61,6 +86,7 @@ public class AdvertServiceTest {
         AdsDto expected = advertMapper.advertToAdsDto(mockAdvert());
         doReturn(authentication).when(auth).getAuth();
         doReturn(mockAdvert().getAuthor().getUsername()).when(authentication).getName();
+        stubUpload();
         doReturn(mockAdvert().getPhoto()).when(imageService).uploadPhoto(any());
         doReturn(mockAdvert().getAuthor()).when(userRepository).findByUsername(mockAdvert().getAuthor().getUsername());
         doReturn(mockAdvert()).when(advertRepository).save(any());
@@ -70,50 +96,60 @@ public class AdvertServiceTest {
         assertNotNull(actual);
         assertEquals(expected, actual);
         verify(imageService, times(1)).uploadPhoto(any());
+        verify(advertRepository).save(argThat(advert -> advert.getCreatedAt() != null));
         verify(userRepository, times(1)).findByUsername(mockAdvert().getAuthor().getUsername());
         verify(advertRepository, times(1)).save(any());
+        verify(listingVersion, times(1)).changed();
+        verify(searchIndex, times(1)).add(any());
     }
 
     @Test
     public void delete() {
         //Given
-        doReturn(Optional.of(mockAdvert())).when(advertRepository).findById(any());
+        doReturn(Optional.of(mockAdvert())).when(advertRepository).findDetailById(anyInt());
         //When
         advertService.delete(mockAdvert().getId());
         //Then
-        verify(advertRepository, times(1)).delete(any());
-        verify(imageService, times(1)).deleteFile(any());
+        verify(commentRepository, times(1)).deleteByAdvertId(mockAdvert().getId());
+        verify(advertRepository, times(1)).deleteByIds(List.of(mockAdvert().getId()));
+        verify(advertRepository, never()).delete(any());
+        verify(listingVersion, times(1)).changed();
+        verify(imageService, times(1)).delete(any());
+        verify(searchIndex, times(1)).remove(any());
     }
 
     @Test
     public void update() {
         //Given
         AdsDto expected = advertMapper.advertToAdsDto(mockAdvert());
-        doReturn(Optional.of(mockAdvert())).when(advertRepository).findById(any());
+        doReturn(Optional.of(mockAdvert())).when(advertRepository).findWithAuthorById(anyInt());
         //When
         AdsDto actual = advertService.update(1, mockCreateAdsDto());
         //Then
         assertNotNull(actual);
         assertEquals(expected, actual);
         verify(advertRepository, times(1)).save(any());
+        verify(searchIndex, times(1)).update(any(), any());
     }
 
     @Test
     public void updateImage() throws IOException {
         //Given
-        doReturn(Optional.of(mockAdvert())).when(advertRepository).findById(any());
-        doReturn(mockAdvert().getPhoto()).when(imageService).uploadPhoto(any(), any());
+        Advert advert = mockAdvert();
+        stubUpload();
+        doReturn(Optional.of(advert)).when(advertRepository).findForImageUpdateById(anyInt());
+        doReturn(advert.getPhoto()).when(imageService).uploadPhoto(any(), any());
         //When
-        byte[] actualImageBytes = advertService.updateImage(mockAdvert().getId(), mockFile());
+        ImageDto actual = advertService.updateImage(advert.getId(), mockFile());
         //Then
-        assertNotNull(actualImageBytes);
-        assertArrayEquals(mockFile().getBytes(), actualImageBytes);
+        assertEquals(advertMapper.getUrlToImage(advert), actual.getUrl());
+        assertEquals(advert.getPhoto().getFileSize(), actual.getSize());
     }
 
     @Test
     public void downloadImage() {
         //Given
-        doReturn(Optional.of(mockAdvert())).when(advertRepository).findById(any());
+        doReturn(Optional.of(mockAdvert())).when(advertRepository).findWithPhotoById(anyInt());
         //When
         Image actualPhoto = advertService.downloadImage(mockAdvert().getId());
         //Then
@@ -121,6 +157,24 @@ public class AdvertServiceTest {
         assertEquals(mockAdvert().getPhoto(), actualPhoto);
     }
 
+    @Test
+    public void findETag() {
+        //Given
+        doReturn(Optional.of(new AdvertVersion(3, 7))).when(advertRepository).findVersionById(1);
+        doReturn(Optional.empty()).when(advertRepository).findVersionById(2);
+        //Then
+        assertEquals("\"1.3.7\"", advertService.findETag(1));
+        assertThrows(AdvertNotFoundException.class, () -> advertService.findETag(2));
+    }
+
+    @Test
+    public void findAllETag() {
+        //Given
+        doReturn(42L).when(listingVersion).current();
+        //Then
+        assertEquals("\"42\"", advertService.findAllETag());
+    }
+
     @Test
     public void findAll() {
         //Given
@@ -129,19 +183,135 @@ public class AdvertServiceTest {
         ResponseWrapperAdsDto expected = new ResponseWrapperAdsDto();
         expected.setCount(1);
         expected.setResults(List.of(adsDto));
-        doReturn(List.of(mockAdvert())).when(advertRepository).findAll();
-        doReturn(expected).when(advertMapper).listToRespWrapperAdsDto(any());
+        AdsFilter filter = new AdsFilter();
+        doReturn(List.of(mockAdvertSummary())).when(advertRepository).findPage(any(), any(), anyInt());
+        doReturn(expected).when(advertMapper).summaryListToRespWrapperAdsDto(any());
         //When
-        ResponseWrapperAdsDto actual = advertService.findAll();
+        ResponseWrapperAdsDto actual = advertService.findAll(filter, null, null);
         //Then
         assertEquals(expected, actual);
+        assertNull(actual.getNext());
+        verify(advertRepository, times(1)).findPage(filter, null, AdvertService.DEFAULT_PAGE_SIZE + 1);
+    }
+
+    @Test
+    public void findAllReturnsCursorToNextPage() {
+        //Given
+        AdvertSummary first = mockAdvertSummary();
+        AdvertSummary second = mockAdvertSummary();
+        second.setId(2);
+        second.setPrice(20);
+        AdvertSummary third = mockAdvertSummary();
+        third.setId(3);
+        AdsFilter filter = new AdsFilter();
+        filter.setSort(AdsSort.PRICE_DESC);
+        AdsCursor after = AdsCursor.of(AdsSort.PRICE_DESC, first);
+        doReturn(List.of(second, third)).when(advertRepository).findPage(any(), any(), anyInt());
+        //When
+        ResponseWrapperAdsDto actual = advertService.findAll(filter, after.encode(), 1);
+        //Then
+        assertEquals(1, actual.getCount());
+        assertEquals(second.getId(), actual.getResults().get(0).getPk());
+        assertEquals(new AdsCursor(AdsSort.PRICE_DESC, 20, 2),
+                AdsCursor.decode(actual.getNext(), AdsSort.PRICE_DESC));
+        verify(advertRepository, times(1)).findPage(filter, after, 2);
+    }
+
+    @Test
+    public void streamAll() throws Exception {
+        //Given
+        AdvertSummary second = mockAdvertSummary();
+        second.setId(2);
+        AdsFilter filter = new AdsFilter();
+        doReturn(Stream.of(mockAdvertSummary(), second)).when(advertRepository).streamAll(filter);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        //When
+        advertService.streamAll(filter, out);
+        //Then
+        ResponseWrapperAdsDto actual = new ObjectMapper().readValue(out.toByteArray(), ResponseWrapperAdsDto.class);
+        assertEquals(2, actual.getCount());
+        assertEquals(1, actual.getResults().get(0).getPk());
+        assertEquals(2, actual.getResults().get(1).getPk());
+        assertEquals("/ads/2/image", actual.getResults().get(1).getImage());
+    }
+
+    @Test
+    public void findAllBoundsLimit() {
+        //Given
+        doReturn(List.of()).when(advertRepository).findPage(any(), any(), anyInt());
+        //When
+        advertService.findAll(new AdsFilter(), null, 100_000);
+        //Then
+        verify(advertRepository, times(1)).findPage(any(), isNull(), eq(AdvertService.MAX_PAGE_SIZE + 1));
+    }
+
+    @Test
+    public void DoesThrowInvalidCursorExceptionWhenFindAll() {
+        AdsFilter filter = new AdsFilter();
+        String priceCursor = AdsCursor.of(AdsSort.PRICE_ASC, mockAdvertSummary()).encode();
+        assertThrows(InvalidCursorException.class,
+                () -> advertService.findAll(filter, "not a cursor", null));
+        assertThrows(InvalidCursorException.class,
+                () -> advertService.findAll(filter, priceCursor, null));
+    }
+
+    @Test
+    public void DoesThrowInvalidCursorExceptionForKeyOutOfRange() {
+        AdsFilter filter = new AdsFilter();
+        filter.setSort(AdsSort.PRICE_ASC);
+        String price = new AdsCursor(AdsSort.PRICE_ASC, Integer.MAX_VALUE + 1L, 1).encode();
+        assertThrows(InvalidCursorException.class, () -> advertService.findAll(filter, price, null));
+        filter.setSort(AdsSort.CREATED_DESC);
+        String createdAt = new AdsCursor(AdsSort.CREATED_DESC, Long.MAX_VALUE, 1).encode();
+        assertThrows(InvalidCursorException.class, () -> advertService.findAll(filter, createdAt, null));
+        verify(advertRepository, never()).findPage(any(), any(), anyInt());
+    }
+
+    @Test
+    public void search() {
+        //Given
+        doReturn(List.of(mockAdvert())).when(advertRepository).searchByPattern(any(), any());
+        //When
+        ResponseWrapperAdsDto actual = advertService.search(" Title_1% ", 2, 5);
+        //Then
+        assertEquals(1, actual.getCount());
+        assertEquals(mockAdvert().getId(), actual.getResults().get(0).getPk());
+        verify(advertRepository, times(1)).searchByPattern("%title\\_1\\%%", PageRequest.of(2, 5));
+        verify(advertRepository, never()).searchIdsFullText(any(), any());
+    }
+
+    @Test
+    public void searchWithIndex() {
+        //Given
+        ReflectionTestUtils.setField(advertService, "searchMode", AdvertSearchMode.INDEX);
+        Advert first = mockAdvert();
+        Advert second = mockAdvert();
+        second.setId(2);
+        doReturn(new int[]{2, 1}).when(searchIndex).search("title", 0, 10);
+        doReturn(List.of(first, second)).when(advertRepository).findWithPhotoByIdIn(List.of(2, 1));
+        //When
+        ResponseWrapperAdsDto actual = advertService.search("title", 0, 10);
+        //Then
+        assertEquals(2, actual.getCount());
+        assertEquals(2, actual.getResults().get(0).getPk());
+        assertEquals(1, actual.getResults().get(1).getPk());
+        verify(advertRepository, never()).searchByPattern(any(), any());
+    }
+
+    @Test
+    public void searchWithBlankQuery() {
+        //When
+        ResponseWrapperAdsDto actual = advertService.search(" ", null, null);
+        //Then
+        assertEquals(0, actual.getCount());
+        verifyNoInteractions(advertRepository);
     }
 
     @Test
     public void findById() {
         //Given
         FullAdsDto expected = advertMapper.advertToFullAdsDto(mockAdvert());
-        doReturn(Optional.of(mockAdvert())).when(advertRepository).findById(any());
+        doReturn(Optional.of(mockAdvert())).when(advertRepository).findDetailById(anyInt());
         doReturn(expected).when(advertMapper).advertToFullAdsDto(any());
         //When
         FullAdsDto actualFullAdsDto = advertService.findById(mockAdvert().getId());
@@ -153,16 +323,18 @@ public class AdvertServiceTest {
     @Test
     public void findAllByAuthUser() {
         //Given
-        ResponseWrapperAdsDto expected = advertMapper.listToRespWrapperAdsDto(List.of(mockAdvert()));
+        ResponseWrapperAdsDto expected = advertMapper.summaryListToRespWrapperAdsDto(List.of(mockAdvertSummary()));
         doReturn(mockAdvert().getAuthor()).when(userRepository).findByUsername(any());
         doReturn(authentication).when(auth).getAuth();
-        doReturn(List.of(mockAdvert())).when(advertRepository).findByAuthorId(anyInt());
-        doReturn(expected).when(advertMapper).listToRespWrapperAdsDto(List.of(mockAdvert()));
+        doReturn(List.of(mockAdvertSummary())).when(advertRepository).findPage(any(), any(), anyInt());
+        doReturn(expected).when(advertMapper).summaryListToRespWrapperAdsDto(List.of(mockAdvertSummary()));
         //When
-        ResponseWrapperAdsDto actual = advertService.findAllByAuthUser();
+        ResponseWrapperAdsDto actual = advertService.findAllByAuthUser(null, null);
         //Then
         assertNotNull(actual);
         assertEquals(expected, actual);
+        verify(advertRepository, times(1)).findPage(argThat(filter -> filter.getAuthorId() == 1),
+                isNull(), anyInt());
     }
 
     @Test
@@ -172,26 +344,28 @@ public class AdvertServiceTest {
         doReturn(authentication).when(auth).getAuth();
         //Then
         assertThrows(UserUnauthorizedException.class,
-                () -> advertService.findAllByAuthUser());
+                () -> advertService.findAllByAuthUser(null, null));
     }
 
     @Test
     public void DoesThrowAdvertNotFoundExceptionExceptionWhenFindAdvertWithAuth() {
         //Given
-        doReturn(Optional.empty()).when(advertRepository).findById(anyInt());
+        stubUpload();
+        doReturn(Optional.empty()).when(advertRepository).findForImageUpdateById(anyInt());
         //Then
         assertThrows(AdvertNotFoundException.class,
-                () -> advertService.updateImage(anyInt(), mockFile()));
+                () -> advertService.updateImage(1, mockFile()));
     }
 
     @Test
     public void DoesThrowActionForbiddenExceptionWhenFindAdvertWithAuth() {
         //Given
-        doReturn(Optional.of(mockAdvert())).when(advertRepository).findById(anyInt());
+        doReturn(Optional.of(mockAdvert())).when(advertRepository).findForImageUpdateById(anyInt());
         doReturn(true).when(auth).checkAuthNotEnough(any());
+        stubUpload();
         //Then
         assertThrows(ActionForbiddenException.class,
-                () -> advertService.updateImage(anyInt(), mockFile()));
+                () -> advertService.updateImage(1, mockFile()));
     }
 
     private Advert mockAdvert() {
@@ -209,11 +383,18 @@ public class AdvertServiceTest {
         advert.setTitle("title");
         advert.setDescription("descr");
         advert.setPrice(11);
+        advert.setCreatedAt(LocalDateTime.of(2023, 4, 1, 12, 0));
         advert.setPhoto(photo);
         advert.setAuthor(user);
         return advert;
     }
 
+    private AdvertSummary mockAdvertSummary() {
+        Advert advert = mockAdvert();
+        return new AdvertSummary(advert.getId(), advert.getTitle(), advert.getPrice(), advert.getCreatedAt(),
+                advert.getAuthor().getId(), advert.getPhoto().getId(), advert.getPhoto().getContentHash());
+    }
+
     private CreateAdsDto mockCreateAdsDto() {
         CreateAdsDto createAdsDto = new CreateAdsDto();
         createAdsDto.setTitle(mockAdvert().getTitle());
@@ -222,6 +403,15 @@ public class AdvertServiceTest {
         return createAdsDto;
     }
 
+    /**
+     * Run database part of upload as {@link ImageService#withUpload} does
+     */
+    private void stubUpload() {
+        StagedImage staged = mock(StagedImage.class);
+        doAnswer(invocation -> invocation.<Function<StagedImage, ?>>getArgument(1).apply(staged))
+                .when(imageService).withUpload(any(), any());
+    }
+
     private MockMultipartFile mockFile() {
         try {
             Resource resource = new ClassPathResource("picture/images.jpeg");
@@ -1,13 +1,16 @@
 package ru.skypro.homework.service;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.springframework.security.core.Authentication;
 import ru.skypro.homework.component.AuthenticationComponent;
+import ru.skypro.homework.component.JsonStreamWriter;
 import ru.skypro.homework.dto.CommentDto;
 import ru.skypro.homework.dto.ResponseWrapperCommentDto;
 import ru.skypro.homework.exception.ActionForbiddenException;
@@ -19,11 +22,14 @@ import ru.skypro.homework.model.User;
 import ru.skypro.homework.repository.AdvertRepository;
 import ru.skypro.homework.repository.CommentRepository;
 import ru.skypro.homework.repository.UserRepository;
+import ru.skypro.homework.repository.projection.CommentSummary;
 
+import java.io.ByteArrayOutputStream;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.util.List;
 import java.util.Optional;
+import java.util.stream.Stream;
 
 import static org.mockito.Mockito.*;
 import static org.junit.jupiter.api.Assertions.*;
@@ -44,6 +50,8 @@ public class CommentServiceTest {
     private CommentMapper commentMapper;
     @Mock
     private Authentication authentication;
+    @Spy
+    private JsonStreamWriter jsonStreamWriter = new JsonStreamWriter(new ObjectMapper());
     private Comment comment;
 
     @BeforeEach
@@ -79,7 +87,7 @@ public class CommentServiceTest {
     @Test
     public void delete() {
         doReturn(Optional.of(comment.getAdvert())).when(advertRepository).findById(anyInt());
-        doReturn(Optional.of(comment)).when(commentRepository).findById(any());
+        doReturn(Optional.of(comment)).when(commentRepository).findWithAuthorById(anyInt());
         commentService.delete(comment.getAdvert().getId(), comment.getId());
         verify(commentRepository, times(1)).delete(any());
     }
@@ -88,7 +96,7 @@ public class CommentServiceTest {
     public void update() {
         CommentDto expectedCommentDto = new CommentDto();
         expectedCommentDto.setPk(1);
-        doReturn(Optional.of(comment)).when(commentRepository).findById(anyInt());
+        doReturn(Optional.of(comment)).when(commentRepository).findWithAuthorById(anyInt());
         doReturn(Optional.of(comment.getAdvert())).when(advertRepository).findById(anyInt());
         doNothing().when(commentMapper).updateComment(isA(CommentDto.class), isA(Comment.class));
         doReturn(expectedCommentDto).when(commentMapper).commentToCommentDto(any());
@@ -106,14 +114,33 @@ public class CommentServiceTest {
         ResponseWrapperCommentDto expectedResponseWrapperCommentDto = new ResponseWrapperCommentDto();
         expectedResponseWrapperCommentDto.setCount(1);
         expectedResponseWrapperCommentDto.setResults(List.of(commentDto));
-        doReturn(List.of(comment)).when(commentRepository).findAllByAdvertId(anyInt());
-        doReturn(expectedResponseWrapperCommentDto).when(commentMapper).listToRespWrapperCommentDto(any());
+        CommentSummary summary = new CommentSummary(comment.getId(), comment.getText(), comment.getCreatedAt(),
+                comment.getAuthor().getId(), comment.getAuthor().getFirstName(), null, null);
+        doReturn(List.of(summary)).when(commentRepository).findSummariesByAdvertId(anyInt());
+        doReturn(expectedResponseWrapperCommentDto).when(commentMapper).summaryListToRespWrapperCommentDto(any());
         ResponseWrapperCommentDto actualResponseWrapperCommentDto = commentService
                 .findAll(comment.getAdvert().getId());
         assertNotNull(actualResponseWrapperCommentDto);
         assertEquals(expectedResponseWrapperCommentDto, actualResponseWrapperCommentDto);
     }
 
+    @Test
+    public void streamAll() throws Exception {
+        CommentSummary summary = new CommentSummary(comment.getId(), comment.getText(), comment.getCreatedAt(),
+                comment.getAuthor().getId(), comment.getAuthor().getFirstName(), null, null);
+        CommentDto commentDto = new CommentDto();
+        commentDto.setPk(comment.getId());
+        commentDto.setText(comment.getText());
+        doReturn(Stream.of(summary)).when(commentRepository).streamSummariesByAdvertId(anyInt());
+        doReturn(commentDto).when(commentMapper).commentSummaryToCommentDto(summary);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        commentService.streamAll(comment.getAdvert().getId(), out);
+        ResponseWrapperCommentDto actual = new ObjectMapper()
+                .readValue(out.toByteArray(), ResponseWrapperCommentDto.class);
+        assertEquals(1, actual.getCount());
+        assertEquals(List.of(commentDto), actual.getResults());
+    }
+
     @Test
     public void findAdvert() throws NoSuchMethodException,
             InvocationTargetException, IllegalAccessException {
@@ -135,7 +162,7 @@ public class CommentServiceTest {
     @Test
     public void findCommentWithAuth() throws NoSuchMethodException,
             InvocationTargetException, IllegalAccessException {
-        doReturn(Optional.of(comment)).when(commentRepository).findById(anyInt());
+        doReturn(Optional.of(comment)).when(commentRepository).findWithAuthorById(anyInt());
         Class[] parameters = new Class[2];
         parameters[0] = Advert.class;
         parameters[1] = int.class;
@@ -156,7 +183,7 @@ public class CommentServiceTest {
         advert.setId(1);
         CommentDto commentDto = new CommentDto();
         commentDto.setPk(11);
-        doReturn(Optional.empty()).when(commentRepository).findById(anyInt());
+        doReturn(Optional.empty()).when(commentRepository).findWithAuthorById(anyInt());
         doReturn(Optional.of(advert)).when(advertRepository).findById(anyInt());
         assertThrows(CommentNotFoundException.class,
                 () -> commentService.delete(advert.getId(), comment.getId()));
@@ -170,7 +197,7 @@ public class CommentServiceTest {
         advert.setId(101);
         CommentDto commentDto = new CommentDto();
         commentDto.setPk(11);
-        doReturn(Optional.of(comment)).when(commentRepository).findById(anyInt());
+        doReturn(Optional.of(comment)).when(commentRepository).findWithAuthorById(anyInt());
         doReturn(Optional.of(advert)).when(advertRepository).findById(anyInt());
         assertThrows(CommentNotFoundException.class,
                 () -> commentService.delete(advert.getId(), comment.getId()));
@@ -183,7 +210,7 @@ public class CommentServiceTest {
         boolean isAuthenticationNull = true;
         CommentDto commentDto = new CommentDto();
         commentDto.setPk(11);
-        doReturn(Optional.of(comment)).when(commentRepository).findById(anyInt());
+        doReturn(Optional.of(comment)).when(commentRepository).findWithAuthorById(anyInt());
         doReturn(Optional.of(comment.getAdvert())).when(advertRepository).findById(anyInt());
         doReturn(isAuthenticationNull).when(auth).checkAuthNotEnough(any());
         assertThrows(ActionForbiddenException.class,
@@ -0,0 +1,202 @@
+package ru.skypro.homework.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.FileSystemUtils;
+import ru.skypro.homework.configuration.ImageConfig;
+import ru.skypro.homework.model.Advert;
+import ru.skypro.homework.model.Photo;
+import ru.skypro.homework.repository.ImageBlobRepository;
+import ru.skypro.homework.repository.ImageGarbageRepository;
+import ru.skypro.homework.repository.ImageRepository;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@ExtendWith(SpringExtension.class)
+@SpringBootTest
+@TestPropertySource(properties = {
+        "spring.datasource.url=jdbc:h2:mem:blobs;DB_CLOSE_DELAY=-1;MODE=POSTGRESQL",
+        "spring.jpa.hibernate.ddl-auto=create-drop",
+        "path.to.blobs.folder=target/blobs-test",
+        "ads.images.storage-mode=CONTENT_ADDRESSED",
+        "ads.images.garbage.grace=PT0S"
+})
+public class ContentAddressedImageTest {
+    private static final Path BLOBS_DIR = Path.of("target/blobs-test");
+
+    @Autowired
+    private ImageService imageService;
+    @Autowired
+    private ImageRepository imageRepository;
+    @Autowired
+    private ImageBlobRepository imageBlobRepository;
+    @Autowired
+    private ImageGarbageRepository imageGarbageRepository;
+    @Autowired
+    private ImageGarbageCollector imageGarbageCollector;
+    @Autowired
+    @Qualifier(ImageConfig.FILE_EXECUTOR)
+    private ExecutorService fileExecutor;
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+    private TransactionTemplate transactionTemplate;
+
+    @BeforeEach
+    public void setup() {
+        transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    @AfterEach
+    public void cleanUp() {
+        imageRepository.deleteAll();
+        imageBlobRepository.deleteAll();
+        imageGarbageRepository.deleteAll();
+        FileSystemUtils.deleteRecursively(BLOBS_DIR.toFile());
+    }
+
+    @Test
+    public void sameContentIsStoredOnce() throws IOException {
+        Photo first = upload(image("bike.png", "bike"));
+        Photo second = upload(image("repost.png", "bike"));
+
+        assertNotEquals(first.getId(), second.getId());
+        assertTrue(first.isContentAddressed());
+        assertEquals(first.getFilePath(), second.getFilePath());
+        assertEquals(1, countBlobFiles());
+        assertEquals(2, imageBlobRepository.findById(first.getContentHash()).orElseThrow().getRefCount());
+        assertArrayEquals(TestImages.png("bike"), Files.readAllBytes(second.getFilePath()));
+    }
+
+    @Test
+    public void blobIsDeletedWithLastReference() throws IOException {
+        Photo first = upload(image("bike.png", "bike"));
+        Photo second = upload(image("repost.png", "bike"));
+
+        imageService.delete(List.of(first));
+        assertTrue(Files.exists(second.getFilePath()));
+        assertEquals(1, imageBlobRepository.findById(second.getContentHash()).orElseThrow().getRefCount());
+
+        imageService.delete(List.of(second));
+        assertEquals(0, imageBlobRepository.findById(second.getContentHash()).orElseThrow().getRefCount());
+        assertTrue(Files.exists(second.getFilePath()));
+        assertEquals(1, imageGarbageCollector.sweep());
+        assertFalse(imageBlobRepository.existsById(second.getContentHash()));
+        assertFalse(Files.exists(second.getFilePath()));
+    }
+
+    @Test
+    public void blobUploadedAgainAfterDeleteKeepsFile() throws Exception {
+        Photo first = upload(image("bike.png", "bike"));
+        // hold background file work, so the upload below runs before anything queued by delete
+        CountDownLatch latch = new CountDownLatch(1);
+        fileExecutor.execute(() -> {
+            try {
+                latch.await();
+            } catch (InterruptedException exception) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        imageService.delete(List.of(first));
+
+        Photo second = upload(image("repost.png", "bike"));
+        latch.countDown();
+        fileExecutor.submit(() -> {
+        }).get();
+        imageGarbageCollector.sweep();
+
+        assertEquals(first.getFilePath(), second.getFilePath());
+        assertEquals(1, imageBlobRepository.findById(second.getContentHash()).orElseThrow().getRefCount());
+        assertArrayEquals(TestImages.png("bike"), Files.readAllBytes(second.getFilePath()));
+    }
+
+    @Test
+    public void replacingContentReleasesBlob() throws IOException {
+        Advert advert = new Advert();
+        advert.setPhoto(upload(image("bike.png", "bike")));
+        Path previous = advert.getPhoto().getFilePath();
+
+        Photo photo = upload(advert, image("lamp.png", "lamp"));
+
+        assertTrue(Files.exists(previous));
+        assertEquals(1, imageGarbageCollector.sweep());
+        assertFalse(Files.exists(previous));
+        assertArrayEquals(TestImages.png("lamp"), Files.readAllBytes(photo.getFilePath()));
+        assertEquals(1, imageBlobRepository.count());
+        assertEquals(1, countBlobFiles());
+    }
+
+    @Test
+    public void concurrentFirstReferencesOfBlobBothCount() throws Exception {
+        String hash = "ab".repeat(32);
+        CountDownLatch inserted = new CountDownLatch(1);
+        CountDownLatch commit = new CountDownLatch(1);
+        ExecutorService uploads = Executors.newFixedThreadPool(2);
+        try {
+            Future<?> first = uploads.submit(() -> transactionTemplate.executeWithoutResult(status -> {
+                imageBlobRepository.insertIfMissing(hash);
+                imageBlobRepository.reference(hash);
+                inserted.countDown();
+                await(commit);
+            }));
+            inserted.await(10, TimeUnit.SECONDS);
+            Future<?> second = uploads.submit(() -> transactionTemplate.executeWithoutResult(status -> {
+                imageBlobRepository.insertIfMissing(hash);
+                imageBlobRepository.reference(hash);
+            }));
+            commit.countDown();
+            first.get(10, TimeUnit.SECONDS);
+            second.get(10, TimeUnit.SECONDS);
+        } finally {
+            uploads.shutdownNow();
+        }
+
+        assertEquals(2, imageBlobRepository.findById(hash).orElseThrow().getRefCount());
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private long countBlobFiles() throws IOException {
+        try (Stream<Path> files = Files.list(BLOBS_DIR)) {
+            return files.count();
+        }
+    }
+
+    private Photo upload(MockMultipartFile file) {
+        return imageService.withUpload(file, imageService::uploadPhoto);
+    }
+
+    private Photo upload(Advert advert, MockMultipartFile file) {
+        return imageService.withUpload(file, staged -> imageService.uploadPhoto(advert, staged));
+    }
+
+    private MockMultipartFile image(String name, String content) {
+        return new MockMultipartFile("image", name, "image/png", TestImages.png(content));
+    }
+}
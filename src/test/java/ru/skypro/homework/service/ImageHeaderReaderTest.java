@@ -0,0 +1,94 @@
+package ru.skypro.homework.service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ImageHeaderReaderTest {
+
+    @ParameterizedTest
+    @CsvSource({"png, PNG", "jpg, JPEG", "gif, GIF", "bmp, BMP"})
+    public void readsFormatAndSize(String writerFormat, ImageHeaderReader.Format format) throws IOException {
+        byte[] image = write(writerFormat, 37, 21);
+
+        ImageHeaderReader reader = new ImageHeaderReader();
+
+        assertTrue(reader.feed(image, 0, image.length));
+        assertEquals(format, reader.getFormat());
+        assertEquals(37, reader.getWidth());
+        assertEquals(21, reader.getHeight());
+    }
+
+    @Test
+    public void readsHeaderSplitIntoSingleBytes() throws IOException {
+        byte[] image = write("jpg", 640, 480);
+
+        ImageHeaderReader reader = new ImageHeaderReader();
+        int fed = 0;
+        while (!reader.feed(image, fed, 1)) {
+            fed++;
+        }
+
+        assertEquals(ImageHeaderReader.Format.JPEG, reader.getFormat());
+        assertEquals(640, reader.getWidth());
+        assertEquals(480, reader.getHeight());
+        assertTrue(fed < image.length - 1, "reading is expected to stop at frame header");
+    }
+
+    @Test
+    public void readsExtendedWebp() {
+        byte[] image = ByteBuffer.allocate(30).order(ByteOrder.LITTLE_ENDIAN)
+                .put("RIFF".getBytes()).putInt(22).put("WEBPVP8X".getBytes()).putInt(10).putInt(0)
+                .put(new byte[]{(byte) 0x4F, (byte) 0xC3, 0}) // width - 1 = 49999
+                .put(new byte[]{(byte) 0x4F, (byte) 0xC3, 0})
+                .array();
+
+        ImageHeaderReader reader = new ImageHeaderReader();
+
+        assertTrue(reader.feed(image, 0, image.length));
+        assertEquals(ImageHeaderReader.Format.WEBP, reader.getFormat());
+        assertEquals(50_000, reader.getWidth());
+        assertEquals(50_000, reader.getHeight());
+    }
+
+    @Test
+    public void rejectsUnknownAndBrokenHeaders() {
+        assertNull(read("plain text".getBytes()));
+        assertNull(read(TestImages.png(0, 10, "")));
+        // image data before frame header
+        assertNull(read(new byte[]{(byte) 0xFF, (byte) 0xD8, (byte) 0xFF, (byte) 0xDA, 0, 2}));
+    }
+
+    @Test
+    public void waitsForRestOfHeader() {
+        byte[] image = TestImages.png(10, 10, "");
+
+        ImageHeaderReader reader = new ImageHeaderReader();
+
+        assertFalse(reader.feed(image, 0, 20));
+        assertNull(reader.getFormat());
+        assertTrue(reader.feed(image, 20, 4));
+        assertEquals(ImageHeaderReader.Format.PNG, reader.getFormat());
+    }
+
+    private static ImageHeaderReader.Format read(byte[] image) {
+        ImageHeaderReader reader = new ImageHeaderReader();
+        reader.feed(image, 0, image.length);
+        return reader.getFormat();
+    }
+
+    private static byte[] write(String format, int width, int height) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB), format, out);
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,154 @@
+package ru.skypro.homework.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.util.FileSystemUtils;
+import ru.skypro.homework.component.ImageStorage;
+import ru.skypro.homework.model.Image;
+import ru.skypro.homework.model.Photo;
+import ru.skypro.homework.repository.ImageRepository;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@ExtendWith(SpringExtension.class)
+@SpringBootTest
+@TestPropertySource(properties = {
+        "spring.datasource.url=jdbc:h2:mem:layout;DB_CLOSE_DELAY=-1;MODE=POSTGRESQL",
+        "spring.jpa.hibernate.ddl-auto=create-drop",
+        "path.to.blobs.folder=target/layout-test/blobs",
+        "ads.images.sharded=true",
+        "ads.images.migration.batch-size=2"
+})
+public class ImageLayoutMigratorTest {
+    private static final Path DIR = Path.of("target/layout-test");
+    private static final String HASH = "abcdef0123456789abcdef0123456789abcdef0123456789abcdef0123456789";
+
+    @Autowired
+    private ImageLayoutMigrator imageLayoutMigrator;
+    @Autowired
+    private ImageRepository imageRepository;
+
+    @AfterEach
+    public void cleanUp() {
+        imageRepository.deleteAll();
+        FileSystemUtils.deleteRecursively(DIR.toFile());
+    }
+
+    @Test
+    public void filesAreMovedToShardedLayout() throws Exception {
+        Photo first = flatPhoto("first");
+        Photo second = flatPhoto("second");
+        Photo missing = imageRepository.save(new Photo(DIR.toString()));
+        Path flat = first.getFilePath();
+        Files.writeString(first.getVariantPath(160), "variant");
+
+        assertEquals(3, imageLayoutMigrator.remaining());
+        assertEquals(3, imageLayoutMigrator.migrate().get(10, TimeUnit.SECONDS));
+
+        first = (Photo) imageRepository.findById(first.getId()).orElseThrow();
+        assertTrue(first.isSharded());
+        assertEquals(DIR.resolve(String.format("%02x", first.getId() & 0xFF))
+                        .resolve(String.format("%02x", (first.getId() >> 8) & 0xFF))
+                        .resolve(first.getId() + ".png"),
+                first.getFilePath());
+        assertEquals("first", Files.readString(first.getFilePath()));
+        assertEquals("variant", Files.readString(first.getVariantPath(160)));
+        assertFalse(Files.exists(flat));
+        assertFalse(Files.exists(Image.variantPath(flat, 160)));
+        assertEquals("second", Files.readString(imageRepository.findById(second.getId()).orElseThrow().getFilePath()));
+        assertTrue(imageRepository.findById(missing.getId()).orElseThrow().isSharded());
+        assertEquals(0, imageLayoutMigrator.remaining());
+    }
+
+    @Test
+    public void sharedBlobIsMovedOnce() throws Exception {
+        Path flat = Image.blobPath(DIR.resolve("blobs").toString(), HASH, false);
+        Files.createDirectories(flat.getParent());
+        Files.writeString(flat, "blob");
+        Photo first = imageRepository.save(blobPhoto());
+        Photo second = imageRepository.save(blobPhoto());
+
+        assertEquals(1, imageLayoutMigrator.migrate().get(10, TimeUnit.SECONDS));
+
+        Path sharded = DIR.resolve("blobs").resolve("ab").resolve("cd").resolve(HASH);
+        assertEquals(sharded, imageRepository.findById(first.getId()).orElseThrow().getFilePath());
+        assertEquals(sharded, imageRepository.findById(second.getId()).orElseThrow().getFilePath());
+        assertEquals("blob", Files.readString(sharded));
+        assertFalse(Files.exists(flat));
+    }
+
+    @Nested
+    @TestPropertySource(properties = {
+            "spring.datasource.url=jdbc:h2:mem:packed-layout;DB_CLOSE_DELAY=-1;MODE=POSTGRESQL",
+            "ads.images.storage.backend=packed",
+            "path.to.packed.folder=target/layout-test/packed"
+    })
+    public class PackedBackend {
+        @Autowired
+        private ImageLayoutMigrator packedMigrator;
+        @Autowired
+        private ImageRepository packedImageRepository;
+        @Autowired
+        private ImageStorage imageStorage;
+
+        @AfterEach
+        public void cleanUp() {
+            packedImageRepository.deleteAll();
+        }
+
+        @Test
+        public void packedFilesAreNotMigrated() throws Exception {
+            Photo photo = new Photo(DIR.toString());
+            photo.setFileName("packed.png");
+            photo.setFileExtension("png");
+            photo.setFileType("image/png");
+            photo = packedImageRepository.save(photo);
+            Path flat = photo.getFilePath();
+            Path source = Files.createTempFile("packed-", ".png");
+            Files.writeString(source, "packed");
+            imageStorage.put(flat, source);
+            Files.createDirectories(DIR.resolve("blobs"));
+
+            assertEquals(0, packedMigrator.migrate().get(10, TimeUnit.SECONDS));
+
+            assertFalse(packedImageRepository.findById(photo.getId()).orElseThrow().isSharded());
+            assertEquals(1, packedMigrator.remaining());
+            try (InputStream in = imageStorage.get(flat)) {
+                assertArrayEquals("packed".getBytes(), in.readAllBytes());
+            }
+        }
+    }
+
+    private Photo flatPhoto(String content) throws IOException {
+        Photo photo = new Photo(DIR.toString());
+        photo.setFileName(content + ".png");
+        photo.setFileExtension("png");
+        photo.setFileType("image/png");
+        photo = imageRepository.save(photo);
+        Files.createDirectories(DIR);
+        Files.writeString(photo.getFilePath(), content);
+        return photo;
+    }
+
+    private Photo blobPhoto() {
+        Photo photo = new Photo(DIR.resolve("blobs").toString());
+        photo.setFileName("blob.png");
+        photo.setFileExtension("png");
+        photo.setFileType("image/png");
+        photo.setContentHash(HASH);
+        photo.setContentAddressed(true);
+        return photo;
+    }
+}
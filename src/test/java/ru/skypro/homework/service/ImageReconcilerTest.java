@@ -0,0 +1,122 @@
+package ru.skypro.homework.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.util.FileSystemUtils;
+import ru.skypro.homework.model.*;
+import ru.skypro.homework.repository.ImageGarbageRepository;
+import ru.skypro.homework.repository.ImageRepository;
+import ru.skypro.homework.repository.UserRepository;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDateTime;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@ExtendWith(SpringExtension.class)
+@SpringBootTest
+@TestPropertySource(properties = {
+        "spring.datasource.url=jdbc:h2:mem:reconcile;DB_CLOSE_DELAY=-1;MODE=POSTGRESQL",
+        "spring.jpa.hibernate.ddl-auto=create-drop",
+        "path.to.photos.folder=target/reconcile-test/photos",
+        "path.to.avatars.folder=target/reconcile-test/avatars",
+        "path.to.blobs.folder=target/reconcile-test/blobs",
+        "ads.images.reconcile.rate=100000",
+        "ads.images.reconcile.min-age=PT0S"
+})
+public class ImageReconcilerTest {
+    private static final Path DIR = Path.of("target/reconcile-test");
+    private static final String ORPHAN_HASH = "a".repeat(64);
+    private static final String RELEASED_HASH = "b".repeat(64);
+
+    @Autowired
+    private ImageReconciler imageReconciler;
+    @Autowired
+    private ImageService imageService;
+    @Autowired
+    private ImageRepository imageRepository;
+    @Autowired
+    private UserRepository userRepository;
+    @Autowired
+    private ImageGarbageRepository imageGarbageRepository;
+    @Autowired
+    private MeterRegistry meterRegistry;
+    private User user;
+
+    @BeforeEach
+    public void setup() {
+        user = new User();
+        user.setUsername("owner@gmail.com");
+        user = userRepository.save(user);
+        imageService.withUpload(new MockMultipartFile("image", "avatar.png", "image/png", TestImages.png("avatar")),
+                staged -> imageService.uploadAvatar(user, staged));
+    }
+
+    @AfterEach
+    public void cleanUp() {
+        ReflectionTestUtils.setField(imageReconciler, "minAge", Duration.ZERO);
+        userRepository.deleteAll();
+        imageRepository.deleteAll();
+        imageGarbageRepository.deleteAll();
+        FileSystemUtils.deleteRecursively(DIR.toFile());
+    }
+
+    @Test
+    public void orphanRowsAndFilesAreDeletedAndMissingFilesCounted() throws IOException {
+        Photo unowned = new Photo("target/reconcile-test/photos");
+        unowned.setFileSize("unowned".length());
+        unowned = imageRepository.save(unowned);
+        User lost = new User();
+        lost.setUsername("lost@gmail.com");
+        lost.setAvatar(imageRepository.save(new Avatar("target/reconcile-test/avatars")));
+        userRepository.save(lost);
+        Path orphan = write(DIR.resolve("photos/9999-0123456789abcdef.png"), "orphan");
+        Path orphanVariant = write(DIR.resolve("photos/9999-0123456789abcdef_160"), "variant");
+        Path foreign = write(DIR.resolve("photos/notes.txt"), "notes");
+        Path orphanBlob = write(DIR.resolve("blobs").resolve(ORPHAN_HASH), "blob");
+        Path releasedBlob = write(DIR.resolve("blobs").resolve(RELEASED_HASH), "released");
+        imageGarbageRepository.save(new ImageGarbage(releasedBlob.toString(), RELEASED_HASH,
+                LocalDateTime.now().plusMinutes(5)));
+        Path avatarFile = userRepository.findWithAvatarById(user.getId()).orElseThrow().getAvatar().getFilePath();
+
+        assertEquals(4, imageReconciler.reconcile());
+
+        assertFalse(imageRepository.existsById(unowned.getId()));
+        assertTrue(Files.exists(avatarFile));
+        assertFalse(Files.exists(orphan));
+        assertFalse(Files.exists(orphanVariant));
+        assertTrue(Files.exists(foreign));
+        assertFalse(Files.exists(orphanBlob));
+        assertTrue(Files.exists(releasedBlob));
+        assertEquals(1, meterRegistry.get(ImageReconciler.METRIC_PREFIX + ".missing").gauge().value());
+        assertEquals("unowned".length() + "orphan".length() + "variant".length() + "blob".length(),
+                meterRegistry.get(ImageReconciler.METRIC_PREFIX + ".reclaimed").counter().count());
+    }
+
+    @Test
+    public void recentFilesAreKept() throws IOException {
+        ReflectionTestUtils.setField(imageReconciler, "minAge", Duration.ofHours(1));
+        Path orphan = write(DIR.resolve("photos/9999.png"), "orphan");
+
+        assertEquals(0, imageReconciler.reconcile());
+
+        assertTrue(Files.exists(orphan));
+    }
+
+    private static Path write(Path file, String content) throws IOException {
+        Files.createDirectories(file.getParent());
+        return Files.writeString(file, content);
+    }
+}
@@ -0,0 +1,140 @@
+package ru.skypro.homework.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.SpyBean;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.util.FileSystemUtils;
+import ru.skypro.homework.component.ImageStorage;
+import ru.skypro.homework.configuration.ImageConfig;
+import ru.skypro.homework.exception.ImageUploadException;
+import ru.skypro.homework.model.Advert;
+import ru.skypro.homework.model.Photo;
+import ru.skypro.homework.repository.ImageGarbageRepository;
+import ru.skypro.homework.repository.ImageRepository;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doThrow;
+
+@ExtendWith(SpringExtension.class)
+@SpringBootTest
+@TestPropertySource(properties = {
+        "spring.datasource.url=jdbc:h2:mem:replace;DB_CLOSE_DELAY=-1;MODE=POSTGRESQL",
+        "spring.jpa.hibernate.ddl-auto=create-drop",
+        "path.to.photos.folder=target/replace-test",
+        "ads.images.garbage.grace=PT0S"
+})
+public class ImageReplacementTest {
+    private static final Path DIR = Path.of("target/replace-test");
+
+    @Autowired
+    private ImageService imageService;
+    @Autowired
+    private ImageGarbageCollector imageGarbageCollector;
+    @Autowired
+    private ImageRepository imageRepository;
+    @Autowired
+    private ImageGarbageRepository imageGarbageRepository;
+    @Autowired
+    @Qualifier(ImageConfig.FILE_EXECUTOR)
+    private ExecutorService fileExecutor;
+    @SpyBean
+    private ImageStorage imageStorage;
+
+    @AfterEach
+    public void cleanUp() {
+        imageRepository.deleteAll();
+        imageGarbageRepository.deleteAll();
+        FileSystemUtils.deleteRecursively(DIR.toFile());
+    }
+
+    @Test
+    public void newContentIsPublishedUnderNewNameAndOldIsCollected() throws IOException {
+        Advert advert = new Advert();
+        advert.setPhoto(upload(image("bike")));
+        Path previous = advert.getPhoto().getFilePath();
+        assertEquals(advert.getPhoto().getId() + "-" + advert.getPhoto().getContentHash().substring(0, 16) + ".png",
+                previous.getFileName().toString());
+
+        Photo photo = upload(advert, image("lamp"));
+
+        assertNotEquals(previous, photo.getFilePath());
+        assertArrayEquals(TestImages.png("bike"), Files.readAllBytes(previous));
+        assertArrayEquals(TestImages.png("lamp"), Files.readAllBytes(photo.getFilePath()));
+        assertEquals(1, imageGarbageCollector.sweep());
+        assertFalse(Files.exists(previous));
+        assertTrue(Files.exists(photo.getFilePath()));
+        assertEquals(0, imageGarbageCollector.sweep());
+    }
+
+    @Test
+    public void sameContentKeepsFile() throws IOException {
+        Advert advert = new Advert();
+        advert.setPhoto(upload(image("bike")));
+        Path previous = advert.getPhoto().getFilePath();
+
+        Photo photo = upload(advert, image("bike"));
+
+        assertEquals(previous, photo.getFilePath());
+        assertEquals(0, imageGarbageRepository.count());
+        assertArrayEquals(TestImages.png("bike"), Files.readAllBytes(photo.getFilePath()));
+    }
+
+    @Test
+    public void failedPublishKeepsPreviousImage() throws IOException {
+        Advert advert = new Advert();
+        advert.setPhoto(upload(image("bike")));
+        int id = advert.getPhoto().getId();
+        Path previous = advert.getPhoto().getFilePath();
+        doThrow(new IOException("disk full")).when(imageStorage).put(any(), any());
+
+        assertThrows(ImageUploadException.class, () -> upload(advert, image("lamp")));
+
+        Photo saved = (Photo) imageRepository.findById(id).orElseThrow();
+        assertEquals(previous, saved.getFilePath());
+        assertArrayEquals(TestImages.png("bike"), Files.readAllBytes(saved.getFilePath()));
+        assertEquals(0, imageGarbageRepository.count());
+    }
+
+    @Test
+    public void rolledBackUploadDeletesPublishedFile() throws Exception {
+        AtomicReference<Path> published = new AtomicReference<>();
+
+        assertThrows(IllegalStateException.class, () -> imageService.withUpload(image("bike"), staged -> {
+            published.set(imageService.uploadPhoto(staged).getFilePath());
+            assertTrue(Files.exists(published.get()));
+            throw new IllegalStateException("advert not saved");
+        }));
+
+        fileExecutor.submit(() -> {
+        }).get(10, TimeUnit.SECONDS);
+        assertFalse(Files.exists(published.get()));
+        assertEquals(0, imageRepository.count());
+    }
+
+    private Photo upload(MockMultipartFile file) {
+        return imageService.withUpload(file, imageService::uploadPhoto);
+    }
+
+    private Photo upload(Advert advert, MockMultipartFile file) {
+        return imageService.withUpload(file, staged -> imageService.uploadPhoto(advert, staged));
+    }
+
+    private MockMultipartFile image(String content) {
+        return new MockMultipartFile("image", content + ".png", "image/png", TestImages.png(content));
+    }
+}
@@ -5,22 +5,36 @@ import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.springframework.core.io.ClassPathResource;
 import org.springframework.core.io.Resource;
 import org.springframework.http.MediaType;
 import org.springframework.mock.web.MockMultipartFile;
-import org.springframework.web.multipart.MultipartFile;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.util.unit.DataSize;
+import ru.skypro.homework.component.FileSystemImageStorage;
+import ru.skypro.homework.component.ImageMemoryCache;
+import ru.skypro.homework.component.ImageStorage;
+import ru.skypro.homework.component.ImageVariants;
+import ru.skypro.homework.exception.ImageTooLargeException;
+import ru.skypro.homework.exception.ImageTypeNotSupportedException;
 import ru.skypro.homework.exception.ImageUploadException;
 import ru.skypro.homework.model.*;
+import ru.skypro.homework.repository.ImageBlobRepository;
+import ru.skypro.homework.repository.ImageGarbageRepository;
 import ru.skypro.homework.repository.ImageRepository;
 import ru.skypro.homework.repository.UserRepository;
 
 import java.io.*;
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
 import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.stream.Stream;
 
+import static org.mockito.AdditionalAnswers.returnsFirstArg;
 import static org.mockito.Mockito.*;
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -32,6 +46,18 @@ public class ImageServiceTest {
     private ImageRepository imageRepository;
     @Mock
     private UserRepository userRepository;
+    @Mock
+    private ImageBlobRepository imageBlobRepository;
+    @Mock
+    private ImageVariants imageVariants;
+    @Mock
+    private ImageMemoryCache imageMemoryCache;
+    @Spy
+    private ImageStorage imageStorage = new FileSystemImageStorage();
+    @Mock
+    private ImageGarbageRepository imageGarbageRepository;
+    @Mock
+    private PlatformTransactionManager transactionManager;
     private MockMultipartFile mockMultipartFile;
     private Image photo, avatar;
 
@@ -45,6 +71,12 @@ public class ImageServiceTest {
                 MediaType.IMAGE_JPEG_VALUE,
                 Files.readAllBytes(resource.getFile().toPath())
         );
+        ReflectionTestUtils.setField(imageService, "photosDir", dir);
+        ReflectionTestUtils.setField(imageService, "avatarsDir", dir);
+        ReflectionTestUtils.setField(imageService, "stagingDir", dir);
+        ReflectionTestUtils.setField(imageService, "maxSize", DataSize.ofMegabytes(1));
+        ReflectionTestUtils.setField(imageService, "maxPixels", 1_000_000L);
+        ReflectionTestUtils.setField(imageService, "allowedTypes", Set.of(MediaType.IMAGE_JPEG_VALUE));
 
         photo = new Photo(dir);
         photo.setId(1);
@@ -53,64 +85,112 @@ public class ImageServiceTest {
     }
 
     @Test
-    public void uploadImage() throws NoSuchMethodException,
-            InvocationTargetException, IllegalAccessException {
-        getPrivateMethods(photo);
-        doReturn(photo).when(imageRepository).save(any());
-        Photo photo = imageService.uploadPhoto(mockMultipartFile);
+    public void uploadImage() throws IOException {
+        doAnswer(returnsFirstArg()).when(imageRepository).save(any());
+        Photo photo = imageService.withUpload(mockMultipartFile, imageService::uploadPhoto);
         assertNotNull(photo);
         assertEquals(photo.getFileSize(), mockMultipartFile.getSize());
+        assertEquals(ImageService.toHex(ImageService.newDigest().digest(mockMultipartFile.getBytes())),
+                photo.getContentHash());
+        assertArrayEquals(mockMultipartFile.getBytes(), Files.readAllBytes(photo.getFilePath()));
         verify(imageRepository, times(1)).save(any());
     }
 
     @Test
-    public void uploadImage_2() throws InvocationTargetException,
-            NoSuchMethodException, IllegalAccessException {
-        getPrivateMethods(photo);
+    public void uploadImage_2() {
         Advert advert = new Advert();
         advert.setPhoto((Photo) photo);
         doReturn(photo).when(imageRepository).save(any());
-        Photo photo = imageService.uploadPhoto(advert, mockMultipartFile);
+        Photo photo = imageService.withUpload(mockMultipartFile,
+                staged -> imageService.uploadPhoto(advert, staged));
         assertNotNull(photo);
         assertEquals(photo.getFileSize(), mockMultipartFile.getSize());
         verify(imageRepository, times(1)).save(any());
     }
 
     @Test
-    public void uploadAvatar() throws InvocationTargetException,
-            NoSuchMethodException, IllegalAccessException {
-        getPrivateMethods(avatar);
+    public void uploadAvatar() {
         User user = new User();
         user.setAvatar((Avatar) avatar);
         doReturn(avatar).when(imageRepository).save(any());
         doReturn(user).when(userRepository).save(any());
-        Avatar avatar = imageService.uploadAvatar(user, mockMultipartFile);
+        Avatar avatar = imageService.withUpload(mockMultipartFile,
+                staged -> imageService.uploadAvatar(user, staged));
         assertNotNull(avatar);
         assertEquals(avatar, avatar);
         verify(imageRepository, times(1)).save(any());
         verify(userRepository, times(1)).save(any());
     }
 
-    private void getPrivateMethods(Image image) throws NoSuchMethodException,
-            InvocationTargetException, IllegalAccessException {
-        Class[] parameters1 = new Class[2];
-        parameters1[0] = MultipartFile.class;
-        parameters1[1] = Image.class;
-        Method method1 = imageService.getClass().getDeclaredMethod("mapFileToImage", parameters1);
-        method1.setAccessible(true);
-        Object[] arguments1 = new Object[2];
-        arguments1[0] = mockMultipartFile;
-        arguments1[1] = image;
-        method1.invoke(imageService, arguments1);
-        Class[] parameters2 = new Class[2];
-        parameters2[0] = Image.class;
-        parameters2[1] = MultipartFile.class;
-        Method method2 = imageService.getClass().getDeclaredMethod("upload", parameters2);
-        method2.setAccessible(true);
-        Object[] arguments2 = new Object[2];
-        arguments2[0] = image;
-        arguments2[1] = mockMultipartFile;
-        method2.invoke(imageService, arguments2);
+    @Test
+    public void stagedFileIsReleasedWhenTransactionFails() throws IOException {
+        assertThrows(IllegalStateException.class, () -> imageService.withUpload(mockMultipartFile, staged -> {
+            assertTrue(Files.exists(staged.getPath()));
+            throw new IllegalStateException("rollback");
+        }));
+        verify(imageStorage, never()).put(any(), any());
+        try (Stream<Path> files = Files.list(Path.of("src/test/resources/picture/test"))) {
+            assertEquals(0, files.filter(file -> file.toString().endsWith(".part")).count());
+        }
+    }
+
+    @Test
+    public void doesThrowImageTypeNotSupportedException() {
+        MockMultipartFile text = new MockMultipartFile("image", "image.txt", MediaType.TEXT_PLAIN_VALUE, new byte[]{1});
+        assertThrows(ImageTypeNotSupportedException.class,
+                () -> imageService.withUpload(text, imageService::uploadPhoto));
+        verify(imageRepository, never()).save(any());
+    }
+
+    @Test
+    public void doesThrowImageTooLargeExceptionWhileStreaming() throws IOException {
+        // declared size may be missing or wrong, limit has to hold for the bytes actually read
+        byte[] content = Arrays.copyOf(mockMultipartFile.getBytes(), (int) DataSize.ofMegabytes(1).toBytes() + 1);
+        MockMultipartFile large = new MockMultipartFile("image", "image.jpeg", MediaType.IMAGE_JPEG_VALUE, content) {
+            @Override
+            public long getSize() {
+                return 0;
+            }
+        };
+        assertThrows(ImageTooLargeException.class, () -> imageService.withUpload(large, imageService::uploadPhoto));
+        verify(imageRepository, never()).save(any());
+        try (Stream<Path> files = Files.list(Path.of("src/test/resources/picture/test"))) {
+            assertEquals(0, files.filter(file -> file.toString().endsWith(".part")).count());
+        }
+    }
+
+    @Test
+    public void detectedTypeIsStoredInsteadOfDeclared() {
+        doAnswer(returnsFirstArg()).when(imageRepository).save(any());
+        MockMultipartFile misnamed = new MockMultipartFile("image", "image.png", MediaType.IMAGE_PNG_VALUE,
+                TestImages.jpeg("content"));
+        Photo photo = imageService.withUpload(misnamed, imageService::uploadPhoto);
+        assertEquals(MediaType.IMAGE_JPEG_VALUE, photo.getFileType());
+        assertEquals("jpg", photo.getFileExtension());
+        assertEquals(1, photo.getWidth());
+        assertEquals(1, photo.getHeight());
+    }
+
+    @Test
+    public void doesThrowImageTypeNotSupportedExceptionForDisallowedContent() {
+        // declared type is allowed, content is not
+        MockMultipartFile png = new MockMultipartFile("image", "image.jpeg", MediaType.IMAGE_JPEG_VALUE,
+                TestImages.png("content"));
+        assertThrows(ImageTypeNotSupportedException.class,
+                () -> imageService.withUpload(png, imageService::uploadPhoto));
+        verify(imageRepository, never()).save(any());
+    }
+
+    @Test
+    public void doesThrowImageTooLargeExceptionForPixelSize() throws IOException {
+        ReflectionTestUtils.setField(imageService, "allowedTypes", Set.of(MediaType.IMAGE_PNG_VALUE));
+        MockMultipartFile bomb = new MockMultipartFile("image", "image.png", MediaType.IMAGE_PNG_VALUE,
+                TestImages.png(50_000, 50_000, "compressed pixels"));
+        assertThrows(ImageTooLargeException.class, () -> imageService.withUpload(bomb, imageService::uploadPhoto));
+        verify(imageRepository, never()).save(any());
+        try (Stream<Path> files = Files.list(Path.of("src/test/resources/picture/test"))) {
+            assertEquals(0, files.filter(file -> file.toString().endsWith(".part")).count());
+        }
     }
 
     @Test
@@ -119,7 +199,8 @@ public class ImageServiceTest {
         avatar.setImageDir(null);
         doReturn(avatar).when(imageRepository).save(any());
         assertThrows(ImageUploadException.class,
-                () -> imageService.uploadAvatar(user, mockMultipartFile));
+                () -> imageService.withUpload(mockMultipartFile,
+                        staged -> imageService.uploadAvatar(user, staged)));
     }
 
     @Test
@@ -128,8 +209,9 @@ public class ImageServiceTest {
         photo.setImageDir(null);
         doReturn(photo).when(imageRepository).save(any());
         assertThrows(ImageUploadException.class,
-                () -> imageService.uploadPhoto(mockMultipartFile));
+                () -> imageService.withUpload(mockMultipartFile, imageService::uploadPhoto));
         assertThrows(ImageUploadException.class,
-                () -> imageService.uploadPhoto(advert, mockMultipartFile));
+                () -> imageService.withUpload(mockMultipartFile,
+                        staged -> imageService.uploadPhoto(advert, staged)));
     }
 }
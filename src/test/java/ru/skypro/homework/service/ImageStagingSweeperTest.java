@@ -0,0 +1,55 @@
+package ru.skypro.homework.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ImageStagingSweeperTest {
+    private static final Path DIR = Path.of("target/staging-test");
+
+    private final ImageStagingSweeper sweeper = new ImageStagingSweeper();
+
+    @BeforeEach
+    public void setup() throws IOException {
+        Files.createDirectories(DIR);
+        ReflectionTestUtils.setField(sweeper, "stagingDir", DIR.toString());
+        ReflectionTestUtils.setField(sweeper, "maxAge", Duration.ofHours(1));
+    }
+
+    @AfterEach
+    public void cleanUp() {
+        FileSystemUtils.deleteRecursively(DIR.toFile());
+    }
+
+    @Test
+    public void onlyAbandonedStagingFilesAreDeleted() throws IOException {
+        Path abandoned = Files.createTempFile(DIR, ImageService.STAGED_PREFIX, ImageService.STAGED_SUFFIX);
+        Files.setLastModifiedTime(abandoned, FileTime.from(Instant.now().minus(Duration.ofHours(2))));
+        Path uploading = Files.createTempFile(DIR, ImageService.STAGED_PREFIX, ImageService.STAGED_SUFFIX);
+        Path other = Files.createFile(DIR.resolve("readme.txt"));
+        Files.setLastModifiedTime(other, FileTime.from(Instant.now().minus(Duration.ofHours(2))));
+
+        assertEquals(1, sweeper.sweep());
+
+        assertFalse(Files.exists(abandoned));
+        assertTrue(Files.exists(uploading));
+        assertTrue(Files.exists(other));
+    }
+
+    @Test
+    public void missingDirectoryIsSkipped() {
+        ReflectionTestUtils.setField(sweeper, "stagingDir", DIR.resolve("missing").toString());
+        assertEquals(0, sweeper.sweep());
+    }
+}
@@ -0,0 +1,43 @@
+package ru.skypro.homework.service;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Image files made of a valid header followed by arbitrary content, which is enough for
+ * upload validation as it never reads beyond the header, see {@link ImageHeaderReader}
+ */
+final class TestImages {
+    private static final byte[] PNG_SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+
+    private TestImages() {
+    }
+
+    static byte[] png(String content) {
+        return png(1, 1, content);
+    }
+
+    static byte[] png(int width, int height, String content) {
+        byte[] body = content.getBytes(StandardCharsets.UTF_8);
+        return ByteBuffer.allocate(24 + body.length)
+                .put(PNG_SIGNATURE)
+                .putInt(13)
+                .put("IHDR".getBytes(StandardCharsets.US_ASCII))
+                .putInt(width)
+                .putInt(height)
+                .put(body)
+                .array();
+    }
+
+    static byte[] jpeg(String content) {
+        byte[] body = content.getBytes(StandardCharsets.UTF_8);
+        return ByteBuffer.allocate(14 + body.length)
+                // start of image, then baseline frame header of 1x1 image
+                .put(new byte[]{(byte) 0xFF, (byte) 0xD8, (byte) 0xFF, (byte) 0xC0, 0, 11, 8})
+                .putShort((short) 1)
+                .putShort((short) 1)
+                .put(new byte[]{1, 1, 0x11})
+                .put(body)
+                .array();
+    }
+}
@@ -0,0 +1,130 @@
+package ru.skypro.homework.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+import ru.skypro.homework.model.Advert;
+import ru.skypro.homework.model.Avatar;
+import ru.skypro.homework.model.Comment;
+import ru.skypro.homework.model.Photo;
+import ru.skypro.homework.model.User;
+import ru.skypro.homework.repository.AdvertRepository;
+import ru.skypro.homework.repository.CommentRepository;
+import ru.skypro.homework.repository.ImageRepository;
+import ru.skypro.homework.repository.UserRepository;
+
+import java.time.LocalDateTime;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@ExtendWith(SpringExtension.class)
+@SpringBootTest
+@TestPropertySource(properties = {
+        "spring.datasource.url=jdbc:h2:mem:purge;DB_CLOSE_DELAY=-1;MODE=POSTGRESQL",
+        "spring.jpa.hibernate.ddl-auto=create-drop",
+        "ads.purge.chunk-size=2"
+})
+public class UserPurgeServiceTest {
+    @Autowired
+    private UserPurgeService userPurgeService;
+    @Autowired
+    private UserRepository userRepository;
+    @Autowired
+    private AdvertRepository advertRepository;
+    @Autowired
+    private CommentRepository commentRepository;
+    @Autowired
+    private ImageRepository imageRepository;
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+    private User spammer, other;
+    private Advert otherAdvert;
+
+    @BeforeEach
+    public void setup() {
+        jdbcTemplate.execute("create table if not exists authorities (username varchar(100), authority varchar(20))");
+        spammer = mockUser("spammer@gmail.com");
+        other = mockUser("other@gmail.com");
+        jdbcTemplate.update("insert into authorities values (?, 'ROLE_USER')", spammer.getUsername());
+        otherAdvert = mockAdvert(other);
+        mockComment(spammer, otherAdvert);
+        mockComment(other, otherAdvert);
+        for (int i = 0; i < 5; i++) {
+            Advert advert = mockAdvert(spammer);
+            mockComment(spammer, advert);
+            mockComment(other, advert);
+        }
+    }
+
+    @AfterEach
+    public void cleanUp() {
+        commentRepository.deleteAll();
+        advertRepository.deleteAll();
+        userRepository.deleteAll();
+        imageRepository.deleteAll();
+        jdbcTemplate.update("delete from authorities");
+    }
+
+    @Test
+    public void purgeDeletesUserWithAdvertsAndComments() throws Exception {
+        userPurgeService.purge(spammer.getId()).get(10, TimeUnit.SECONDS);
+
+        assertFalse(userRepository.existsById(spammer.getId()));
+        assertTrue(userRepository.existsById(other.getId()));
+        assertEquals(1, advertRepository.count());
+        assertTrue(advertRepository.existsById(otherAdvert.getId()));
+        assertEquals(1, commentRepository.count());
+        assertEquals(other.getId(), commentRepository.findAll().get(0).getAuthor().getId());
+        assertEquals(2, imageRepository.count());
+        assertEquals(0, jdbcTemplate.queryForObject("select count(*) from authorities", Integer.class));
+    }
+
+    @Test
+    public void resumeContinuesAbandonedPurge() {
+        spammer.setEnabled(false);
+        spammer.setPurgeRequestedAt(LocalDateTime.now().minusHours(1));
+        userRepository.save(spammer);
+        other.setEnabled(false);
+        other.setPurgeRequestedAt(LocalDateTime.now());
+        userRepository.save(other);
+
+        assertEquals(1, userPurgeService.resume());
+
+        assertFalse(userRepository.existsById(spammer.getId()));
+        assertTrue(userRepository.existsById(other.getId()));
+        assertEquals(1, advertRepository.count());
+        assertEquals(0, userPurgeService.resume());
+    }
+
+    private User mockUser(String username) {
+        User user = new User();
+        user.setUsername(username);
+        user.setAvatar(imageRepository.save(new Avatar("avatars")));
+        return userRepository.save(user);
+    }
+
+    private Advert mockAdvert(User author) {
+        Advert advert = new Advert();
+        advert.setTitle("Advert of " + author.getUsername());
+        advert.setCreatedAt(LocalDateTime.now());
+        advert.setAuthor(author);
+        advert.setPhoto(imageRepository.save(new Photo("photos")));
+        return advertRepository.save(advert);
+    }
+
+    private void mockComment(User author, Advert advert) {
+        Comment comment = new Comment();
+        comment.setText("Comment of " + author.getUsername());
+        comment.setCreatedAt(LocalDateTime.now());
+        comment.setAuthor(author);
+        comment.setAdvert(advert);
+        commentRepository.save(comment);
+    }
+}
@@ -8,26 +8,34 @@ import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
 import org.springframework.mock.web.MockMultipartFile;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.security.provisioning.JdbcUserDetailsManager;
 import ru.skypro.homework.component.AuthenticationComponent;
+import ru.skypro.homework.configuration.CacheConfig;
+import ru.skypro.homework.dto.ImageDto;
 import ru.skypro.homework.dto.NewPasswordDto;
 import ru.skypro.homework.dto.RegisterReqDto;
 import ru.skypro.homework.dto.UserDto;
+import ru.skypro.homework.exception.ActionForbiddenException;
 import ru.skypro.homework.exception.UserUnauthorizedException;
 import ru.skypro.homework.mapper.UserMapper;
 import ru.skypro.homework.model.Avatar;
 import ru.skypro.homework.model.Image;
 import ru.skypro.homework.model.Role;
 import ru.skypro.homework.model.User;
+import ru.skypro.homework.repository.AdvertRepository;
 import ru.skypro.homework.repository.UserRepository;
 
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Path;
+import java.util.List;
 import java.util.Optional;
+import java.util.function.Function;
 
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.*;
@@ -52,6 +60,14 @@ public class UserServiceTest {
     private UserMapper userMapper;
     @Mock
     private ImageService imageService;
+    @Mock
+    private AdvertRepository advertRepository;
+    @Mock
+    private CacheManager cacheManager;
+    @Mock
+    private Cache cache;
+    @Mock
+    private UserPurgeService userPurgeService;
     private MockMultipartFile avatar;
 
     @BeforeEach
@@ -89,9 +105,34 @@ public class UserServiceTest {
         doReturn(user).when(userRepository).findByUsername(any());
         doReturn(authentication).when(authenticationComponent).getAuth();
         doReturn(expectedUserDto).when(userMapper).userToUserDto(user);
+        doReturn(cache).when(cacheManager).getCache(CacheConfig.ADVERTS_CACHE);
+        doReturn(List.of(3, 4)).when(advertRepository).findIdsByAuthorId(user.getId());
         UserDto actualUserDto = userService.update(expectedUserDto);
         assertEquals(expectedUserDto, actualUserDto);
         verify(userRepository, Mockito.times(1)).save(any());
+        verify(cache, Mockito.times(1)).evict(3);
+        verify(cache, Mockito.times(1)).evict(4);
+    }
+
+    @Test
+    public void delete() {
+        user.setUsername("user@gmail.com");
+        user.setEnabled(true);
+        doReturn(Optional.of(user)).when(userRepository).findById(anyInt());
+        doReturn(false).when(authenticationComponent).checkAuthNotEnough(any());
+        userService.delete(user.getId());
+        assertFalse(user.isEnabled());
+        assertNotNull(user.getPurgeRequestedAt());
+        verify(userRepository, Mockito.times(1)).save(user);
+        verify(userPurgeService, Mockito.times(1)).purge(user.getId());
+    }
+
+    @Test
+    public void deleteForbidden() {
+        doReturn(Optional.of(user)).when(userRepository).findById(anyInt());
+        doReturn(true).when(authenticationComponent).checkAuthNotEnough(any());
+        assertThrows(ActionForbiddenException.class, () -> userService.delete(user.getId()));
+        verify(userPurgeService, Mockito.never()).purge(anyInt());
     }
 
     @Test
@@ -103,17 +144,23 @@ public class UserServiceTest {
 
     @Test
     public void updateAvatar() throws IOException {
-        doReturn(user).when(userRepository).findByUsername(any());
+        doReturn(user).when(userRepository).findForImageUpdateByUsername(any());
         doReturn(authentication).when(authenticationComponent).getAuth();
-        byte[] bytes = userService.updateImage(avatar);
+        ImageDto imageDto = new ImageDto();
+        imageDto.setUrl("/users/me/image");
+        doReturn(imageDto).when(userMapper).userToImageDto(user);
+        StagedImage staged = mock(StagedImage.class);
+        doAnswer(invocation -> invocation.<Function<StagedImage, ?>>getArgument(1).apply(staged))
+                .when(imageService).withUpload(any(), any());
+        ImageDto actual = userService.updateImage(avatar);
         verify(imageService, Mockito.times(1)).
-                uploadAvatar(user, avatar);
-        assertEquals(bytes, avatar.getBytes());
+                uploadAvatar(user, staged);
+        assertEquals(imageDto, actual);
     }
 
     @Test
     public void downloadAvatar() {
-        doReturn(user).when(userRepository).findByUsername(any());
+        doReturn(user).when(userRepository).findWithAvatarByUsername(any());
         doReturn(authentication).when(authenticationComponent).getAuth();
         Image avatar = userService.downloadImage();
         assertNotNull(avatar);
@@ -121,16 +168,25 @@ public class UserServiceTest {
 
     @Test
     public void downloadAvatarByUserId() {
-        when(userRepository.findById(any())).thenReturn(Optional.ofNullable(user));
+        when(userRepository.findWithAvatarById(anyInt())).thenReturn(Optional.ofNullable(user));
         Image avatar = userService.downloadImageByUserId(user.getId());
         assertNotNull(avatar);
         assertEquals(avatar, user.getAvatar());
     }
 
+    @Test
+    public void findInfoETag() {
+        doReturn(authentication).when(authenticationComponent).getAuth();
+        doReturn(2L).when(userRepository).findVersionByUsername(any());
+        assertEquals("\"2\"", userService.findInfoETag());
+        doReturn(null).when(userRepository).findVersionByUsername(any());
+        assertThrows(UserUnauthorizedException.class, () -> userService.findInfoETag());
+    }
+
     @Test
     public void findInfo() {
         UserDto expectedUserDto = new UserDto();
-        doReturn(user).when(userRepository).findByUsername(any());
+        doReturn(user).when(userRepository).findWithAvatarByUsername(any());
         doReturn(authentication).when(authenticationComponent).getAuth();
         doReturn(expectedUserDto).when(userMapper).userToUserDto(any());
         UserDto actualUserDto = userService.findInfo();